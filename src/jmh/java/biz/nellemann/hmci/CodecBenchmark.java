@@ -0,0 +1,99 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+
+import biz.nellemann.hmci.dto.json.ProcessedMetrics;
+import biz.nellemann.hmci.dto.xml.XmlEntry;
+import biz.nellemann.hmci.dto.xml.XmlFeed;
+
+/**
+ * Cost of parsing the documents of a cycle with a new mapper per document (as before), against the
+ * shared Codec. A cycle parses one feed and one JSON document per system and partition, so the
+ * CPU saved per cycle is roughly the difference times the number of resources.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CodecBenchmark {
+
+    private String feed;
+    private String entry;
+    private String json;
+
+
+    @Setup
+    public void setup() throws IOException {
+        feed = Fixtures.resource("/processed-metrics.xml");
+        entry = Fixtures.resource("/2-managed-system.xml");
+        json = Fixtures.resource("/2-managed-system-perf-data.json");
+    }
+
+
+    @Benchmark
+    public Object feedNewMapper() throws IOException {
+        return new XmlMapper().readValue(feed, XmlFeed.class);
+    }
+
+
+    @Benchmark
+    public Object feedCodec() throws IOException {
+        return Codec.readXml(feed, XmlFeed.class);
+    }
+
+
+    @Benchmark
+    public Object entryNewMapper() throws IOException {
+        return new XmlMapper().readValue(entry, XmlEntry.class);
+    }
+
+
+    @Benchmark
+    public Object entryCodec() throws IOException {
+        return Codec.readXml(entry, XmlEntry.class);
+    }
+
+
+    @Benchmark
+    public Object metricsNewMapper() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.enable(DeserializationFeature.UNWRAP_SINGLE_VALUE_ARRAYS);
+        objectMapper.enable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
+        objectMapper.enable(DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT);
+        return objectMapper.readValue(json, ProcessedMetrics.class);
+    }
+
+
+    @Benchmark
+    public Object metricsCodec() throws IOException {
+        return Codec.readJson(json, ProcessedMetrics.class);
+    }
+
+}
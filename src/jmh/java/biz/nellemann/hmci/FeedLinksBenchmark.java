@@ -0,0 +1,77 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import biz.nellemann.hmci.dto.xml.XmlEntry;
+import biz.nellemann.hmci.dto.xml.XmlFeed;
+
+/**
+ * Finding the JSON links of a ProcessedMetrics feed by binding the whole feed (as before), against
+ * the streaming FeedLinks extractor. Run with -prof gc to compare the allocation per feed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FeedLinksBenchmark {
+
+    @Param({ "/processed-metrics.xml", "/2-managed-system-perf-feed.xml", "/4-managed-system-energy.xml" })
+    public String resource;
+
+    @Param({ "1", "60" })
+    public int entries;     // Synthetic feeds with the entries repeated
+
+    private String feed;
+
+
+    @Setup
+    public void setup() throws IOException {
+        feed = Fixtures.scaleFeed(Fixtures.resource(resource), entries);
+    }
+
+
+    @Benchmark
+    public List<String> binding() throws IOException {
+        List<String> hrefs = new ArrayList<>();
+        XmlFeed xmlFeed = Codec.readXml(feed, XmlFeed.class);
+        for(XmlEntry entry : xmlFeed.entries) {
+            if(entry.category.term.equals("ManagedSystem") && "application/json".equals(entry.link.getType())) {
+                hrefs.add(entry.link.getHref());
+            }
+        }
+        return hrefs;
+    }
+
+
+    @Benchmark
+    public List<FeedLinks.Link> streaming() throws IOException {
+        return FeedLinks.extract(feed, "ManagedSystem");
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Scanner;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+/**
+ * Test resources for the benchmarks, and synthetically scaled variants of them.
+ */
+final class Fixtures {
+
+    private final static Set<String> LISTS = new HashSet<>(Arrays.asList(
+        "viosUtil", "sharedProcessorPool", "genericAdapters", "sharedAdapters", "virtualEthernetAdapters",
+        "sriovAdapters", "sriovLogicalPorts", "genericPhysicalAdapters", "genericVirtualAdapters",
+        "fiberChannelAdapters", "virtualFiberChannelAdapters", "inletTemperatures", "cpuTemperatures",
+        "baseboardTemperatures"));
+
+    private Fixtures() {
+    }
+
+
+    static String resource(String name) throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream(name)) {
+            if(in == null) {
+                throw new IOException("Missing resource: " + name);
+            }
+            Scanner scanner = new Scanner(in, StandardCharsets.UTF_8.name()).useDelimiter("\\A");
+            return scanner.hasNext() ? scanner.next() : "";
+        }
+    }
+
+
+    /**
+     * Scale a ProcessedMetrics document.
+     * @param samples number of samples, repeating the existing ones
+     * @param lists every list within a sample (VIOS, pools, adapters, ports) is repeated this many times,
+     *              so the adapters of repeated VIOS grow with the square
+     */
+    static String scaleMetrics(String json, int samples, int lists) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonNode root = objectMapper.readTree(json);
+        ArrayNode utilSamples = (ArrayNode) root.path("systemUtil").path("utilSamples");
+        if(lists > 1) {
+            utilSamples.forEach(sample -> repeatLists(sample, lists));
+        }
+        int original = utilSamples.size();
+        for(int i = original; i < samples; i++) {
+            utilSamples.add(utilSamples.get(i % original).deepCopy());
+        }
+        return objectMapper.writeValueAsString(root);
+    }
+
+
+    /**
+     * Scale an Atom feed, by repeating its entries.
+     */
+    static String scaleFeed(String xml, int times) {
+        int start = xml.indexOf("<entry");
+        int end = xml.lastIndexOf("</entry>") + "</entry>".length();
+        if(times <= 1 || start < 0 || end < start) {
+            return xml;
+        }
+        String entries = xml.substring(start, end);
+        StringBuilder sb = new StringBuilder(xml.length() + entries.length() * (times - 1));
+        sb.append(xml, 0, end);
+        for(int i = 1; i < times; i++) {
+            sb.append(entries);
+        }
+        sb.append(xml, end, xml.length());
+        return sb.toString();
+    }
+
+
+    private static void repeatLists(JsonNode node, int times) {
+        node.fields().forEachRemaining(field -> {
+            JsonNode value = field.getValue();
+            repeatLists(value, times);
+            // Single values are also wrapped in arrays, so only repeat the properties which are lists
+            if(value.isArray() && LISTS.contains(field.getKey())) {
+                ArrayNode array = (ArrayNode) value;
+                int size = array.size();
+                for(int n = 1; n < times; n++) {
+                    for(int i = 0; i < size; i++) {
+                        array.add(array.get(i).deepCopy());
+                    }
+                }
+            }
+        });
+        if(node.isArray()) {
+            node.forEach(child -> repeatLists(child, times));
+        }
+    }
+
+}
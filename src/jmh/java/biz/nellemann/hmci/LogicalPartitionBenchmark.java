@@ -0,0 +1,153 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import biz.nellemann.hmci.dto.toml.InfluxConfiguration;
+import biz.nellemann.hmci.dto.xml.XmlEntry;
+
+/**
+ * Decode, measurement builders and encoding of the metrics of a logical partition (with SR-IOV ports),
+ * for all samples of the payload. This is the path run for every partition in every cycle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LogicalPartitionBenchmark {
+
+    @Param({ "1", "60" })
+    public int samples;
+
+    @Param({ "1", "8" })
+    public int lists;
+
+    private String json;
+    private LogicalPartition partition;
+    private InfluxClient influxClient;
+    private List<Measurement> measurements;
+
+
+    @Setup
+    public void setup() throws IOException, URISyntaxException {
+        json = Fixtures.scaleMetrics(Fixtures.resource("/pcm-data-logical-partition-sriov.json"), samples, lists);
+        ManagedSystem system = new ManagedSystem(null, null, "https://localhost:12443/rest/api/uom/ManagedSystem/b597e4da-2aab-3f52-8616-341d62153559");
+        system.entry = Codec.readXml(Fixtures.resource("/2-managed-system.xml"), XmlEntry.class).getContent().getManagedSystemEntry();
+        partition = new LogicalPartition(null, null, "https://localhost:12443/rest/api/uom/LogicalPartition/2DE05DB6-8AD5-448F-8327-0F488D287E82", system);
+        partition.entry = Codec.readXml(Fixtures.resource("/3-lpar.xml"), XmlEntry.class).getContent().getLogicalPartitionEntry();
+        partition.name = partition.entry.getName();
+        partition.deserialize(json);
+        influxClient = new InfluxClient(new InfluxConfiguration());
+        measurements = new ArrayList<>();
+        for(int i = 0; i < samples; i++) {
+            measurements.addAll(partition.getProcessorMetrics(i));
+        }
+    }
+
+
+    @Benchmark
+    public Object deserialize() {
+        partition.deserialize(json);
+        return partition.metric;
+    }
+
+    @Benchmark
+    public void getDetails(Blackhole bh) {
+        build(partition::getDetails, bh);
+    }
+
+    @Benchmark
+    public void getMemoryMetrics(Blackhole bh) {
+        build(partition::getMemoryMetrics, bh);
+    }
+
+    @Benchmark
+    public void getProcessorMetrics(Blackhole bh) {
+        build(partition::getProcessorMetrics, bh);
+    }
+
+    @Benchmark
+    public void getVirtualEthernetAdapterMetrics(Blackhole bh) {
+        build(partition::getVirtualEthernetAdapterMetrics, bh);
+    }
+
+    @Benchmark
+    public void getVirtualGenericAdapterMetrics(Blackhole bh) {
+        build(partition::getVirtualGenericAdapterMetrics, bh);
+    }
+
+    @Benchmark
+    public void getVirtualFibreChannelAdapterMetrics(Blackhole bh) {
+        build(partition::getVirtualFibreChannelAdapterMetrics, bh);
+    }
+
+    @Benchmark
+    public void getSriovLogicalPorts(Blackhole bh) {
+        build(partition::getSriovLogicalPorts, bh);
+    }
+
+
+    /**
+     * Measurements to InfluxDB points, for the processor metrics (the measurement with most fields).
+     */
+    @Benchmark
+    public Object processMeasurementMap() {
+        return influxClient.processMeasurementMap(measurements, "lpar_processor");
+    }
+
+
+    /**
+     * The whole path of one refresh: decode, build all measurements and encode them as points.
+     */
+    @Benchmark
+    public void decodeProcessEncode(Blackhole bh) {
+        partition.deserialize(json);
+        for(int i = 0; i < samples; i++) {
+            List<Measurement> list = new ArrayList<>();
+            list.addAll(partition.getDetails(i));
+            list.addAll(partition.getMemoryMetrics(i));
+            list.addAll(partition.getProcessorMetrics(i));
+            list.addAll(partition.getSriovLogicalPorts(i));
+            list.addAll(partition.getVirtualEthernetAdapterMetrics(i));
+            list.addAll(partition.getVirtualGenericAdapterMetrics(i));
+            list.addAll(partition.getVirtualFibreChannelAdapterMetrics(i));
+            bh.consume(influxClient.processMeasurementMap(list, "lpar"));
+        }
+    }
+
+
+    private void build(IntFunction<List<Measurement>> builder, Blackhole bh) {
+        for(int i = 0; i < samples; i++) {
+            bh.consume(builder.apply(i));
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import biz.nellemann.hmci.dto.toml.InfluxConfiguration;
+import biz.nellemann.hmci.dto.xml.XmlEntry;
+
+/**
+ * Decode, measurement builders and encoding of the metrics of a managed system (incl. its VIOS),
+ * for all samples of the payload. Run with the gc profiler (default in build.gradle) to get the
+ * allocation rate next to the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ManagedSystemBenchmark {
+
+    @Param({ "1", "60" })
+    public int samples;
+
+    @Param({ "1", "8" })
+    public int lists;
+
+    private String json;
+    private ManagedSystem system;
+    private InfluxClient influxClient;
+    private List<Measurement> measurements;
+
+
+    @Setup
+    public void setup() throws IOException {
+        json = Fixtures.scaleMetrics(Fixtures.resource("/pcm-data-managed-system.json"), samples, lists);
+        system = new ManagedSystem(null, null, "https://localhost:12443/rest/api/uom/ManagedSystem/b597e4da-2aab-3f52-8616-341d62153559");
+        system.entry = Codec.readXml(Fixtures.resource("/2-managed-system.xml"), XmlEntry.class).getContent().getManagedSystemEntry();
+        system.name = system.entry.getName();
+        system.deserialize(json);
+        influxClient = new InfluxClient(new InfluxConfiguration());
+        measurements = new ArrayList<>();
+        for(int i = 0; i < samples; i++) {
+            measurements.addAll(system.getVioNetworkVirtualAdapters(i));
+        }
+    }
+
+
+    @Benchmark
+    public Object deserialize() {
+        system.deserialize(json);
+        return system.metric;
+    }
+
+    @Benchmark
+    public void getDetails(Blackhole bh) {
+        build(system::getDetails, bh);
+    }
+
+    @Benchmark
+    public void getMemoryMetrics(Blackhole bh) {
+        build(system::getMemoryMetrics, bh);
+    }
+
+    @Benchmark
+    public void getProcessorMetrics(Blackhole bh) {
+        build(system::getProcessorMetrics, bh);
+    }
+
+    @Benchmark
+    public void getSharedProcessorPools(Blackhole bh) {
+        build(system::getSharedProcessorPools, bh);
+    }
+
+    @Benchmark
+    public void getPhysicalProcessorPool(Blackhole bh) {
+        build(system::getPhysicalProcessorPool, bh);
+    }
+
+    @Benchmark
+    public void getVioDetails(Blackhole bh) {
+        build(system::getVioDetails, bh);
+    }
+
+    @Benchmark
+    public void getVioMemoryMetrics(Blackhole bh) {
+        build(system::getVioMemoryMetrics, bh);
+    }
+
+    @Benchmark
+    public void getVioProcessorMetrics(Blackhole bh) {
+        build(system::getVioProcessorMetrics, bh);
+    }
+
+    @Benchmark
+    public void getVioNetworkLpars(Blackhole bh) {
+        build(system::getVioNetworkLpars, bh);
+    }
+
+    @Benchmark
+    public void getVioNetworkSharedAdapters(Blackhole bh) {
+        build(system::getVioNetworkSharedAdapters, bh);
+    }
+
+    @Benchmark
+    public void getVioNetworkVirtualAdapters(Blackhole bh) {
+        build(system::getVioNetworkVirtualAdapters, bh);
+    }
+
+    @Benchmark
+    public void getVioNetworkGenericAdapters(Blackhole bh) {
+        build(system::getVioNetworkGenericAdapters, bh);
+    }
+
+    @Benchmark
+    public void getVioStorageLpars(Blackhole bh) {
+        build(system::getVioStorageLpars, bh);
+    }
+
+    @Benchmark
+    public void getVioStorageFiberChannelAdapters(Blackhole bh) {
+        build(system::getVioStorageFiberChannelAdapters, bh);
+    }
+
+    @Benchmark
+    public void getVioStoragePhysicalAdapters(Blackhole bh) {
+        build(system::getVioStoragePhysicalAdapters, bh);
+    }
+
+    @Benchmark
+    public void getVioStorageVirtualAdapters(Blackhole bh) {
+        build(system::getVioStorageVirtualAdapters, bh);
+    }
+
+
+    /**
+     * Measurements to InfluxDB points, for the virtual adapters of the VIOS (the largest measurement).
+     */
+    @Benchmark
+    public Object processMeasurementMap() {
+        return influxClient.processMeasurementMap(measurements, "vios_network_virtual");
+    }
+
+
+    /**
+     * The whole path of one refresh: decode, build all measurements and encode them as points.
+     */
+    @Benchmark
+    public void decodeProcessEncode(Blackhole bh) {
+        system.deserialize(json);
+        for(int i = 0; i < samples; i++) {
+            List<Measurement> list = new ArrayList<>();
+            list.addAll(system.getDetails(i));
+            list.addAll(system.getMemoryMetrics(i));
+            list.addAll(system.getProcessorMetrics(i));
+            list.addAll(system.getPhysicalProcessorPool(i));
+            list.addAll(system.getSharedProcessorPools(i));
+            list.addAll(system.getVioDetails(i));
+            list.addAll(system.getVioProcessorMetrics(i));
+            list.addAll(system.getVioMemoryMetrics(i));
+            list.addAll(system.getVioNetworkLpars(i));
+            list.addAll(system.getVioNetworkVirtualAdapters(i));
+            list.addAll(system.getVioNetworkSharedAdapters(i));
+            list.addAll(system.getVioNetworkGenericAdapters(i));
+            list.addAll(system.getVioStorageLpars(i));
+            list.addAll(system.getVioStorageFiberChannelAdapters(i));
+            list.addAll(system.getVioStorageVirtualAdapters(i));
+            list.addAll(system.getVioStoragePhysicalAdapters(i));
+            bh.consume(influxClient.processMeasurementMap(list, "server"));
+        }
+    }
+
+
+    private void build(IntFunction<List<Measurement>> builder, Blackhole bh) {
+        for(int i = 0; i < samples; i++) {
+            bh.consume(builder.apply(i));
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of adding a value to a sketch, for utilization-like (narrow) and byte-counter-like (wide) value ranges.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QuantileSketchBenchmark {
+
+    @Param({ "utilization", "bytes" })
+    public String distribution;
+
+    private final double[] values = new double[4096];
+    private QuantileSketch sketch;
+    private QuantileSketch other;
+    private int i;
+
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for(int n = 0; n < values.length; n++) {
+            if(distribution.equals("utilization")) {
+                values[n] = random.nextDouble() * 16;
+            } else {
+                values[n] = Math.exp(random.nextGaussian() * 3 + 15);
+            }
+        }
+        sketch = new QuantileSketch(0.01, 1024);
+        other = new QuantileSketch(0.01, 1024);
+        for(double value : values) {
+            other.add(value);
+        }
+    }
+
+
+    @Benchmark
+    public void add() {
+        sketch.add(values[i++ & (values.length - 1)]);
+    }
+
+
+    @Benchmark
+    public double merge() {
+        QuantileSketch merged = new QuantileSketch(0.01, 1024);
+        merged.merge(other);
+        return merged.getValueAtQuantile(0.95);
+    }
+
+
+    @Benchmark
+    public double quantile() {
+        return other.getValueAtQuantile(0.95);
+    }
+
+}
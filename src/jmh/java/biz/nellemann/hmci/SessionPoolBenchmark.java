@@ -0,0 +1,123 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Throughput of requests with 1 to 4 sessions, against a mock HMC which serializes the work of each
+ * session (like some HMC firmware levels do) and spends 'serviceMillis' on each request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+public class SessionPoolBenchmark {
+
+    @Param({ "1", "2", "3", "4" })
+    public int sessions;
+
+    @Param({ "10" })
+    public int serviceMillis;
+
+    private HttpServer httpServer;
+    private RestClient restClient;
+    private final AtomicInteger tokens = new AtomicInteger();
+    private final Map<String, Object> sessionLocks = new ConcurrentHashMap<>();
+
+
+    @Setup
+    public void setup() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        httpServer.setExecutor(Executors.newCachedThreadPool());
+        httpServer.createContext("/rest/api/web/Logon", this::logon);
+        httpServer.createContext("/rest/api/pcm/", this::metrics);
+        httpServer.start();
+
+        restClient = new RestClient("http://127.0.0.1:" + httpServer.getAddress().getPort(), "user", "password", false);
+        restClient.setSessions(sessions);
+        restClient.login();
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        restClient.logoff();
+        httpServer.stop(0);
+    }
+
+
+    @Benchmark
+    public String request() throws IOException {
+        return restClient.getRequest("/rest/api/pcm/ManagedSystem/benchmark/ProcessedMetrics");
+    }
+
+
+    private void logon(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().close();
+        if("PUT".equals(exchange.getRequestMethod())) {
+            respond(exchange, "<LogonResponse xmlns=\"http://www.ibm.com/xmlns/systems/power/firmware/web/mc/2012_10/\" schemaVersion=\"V1_0\">"
+                + "<X-API-Session kb=\"ROR\" kxe=\"false\">token-" + tokens.incrementAndGet() + "</X-API-Session></LogonResponse>");
+        } else {
+            respond(exchange, "");
+        }
+    }
+
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        String token = String.valueOf(exchange.getRequestHeaders().getFirst("X-API-Session"));
+        synchronized (sessionLocks.computeIfAbsent(token, k -> new Object())) {
+            try {
+                Thread.sleep(serviceMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        respond(exchange, "<feed/>");
+    }
+
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+}
@@ -0,0 +1,297 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import biz.nellemann.hmci.dto.toml.ApiConfiguration;
+
+/**
+ * Small embedded HTTP server exposing the latest values as JSON:
+ *
+ *   GET /api/v1/systems
+ *   GET /api/v1/resources?system=<uuid|name>&type=<system|lpar|vios>&name=<regex>&measurement=<name,...>
+ *   GET /api/v1/resources/<uuid>?measurement=<name,...>
+ *   GET /api/v1/history?measurement=<name>&field=<name>&from=<time>&to=<time>&<tag>=<value>
+ *
+ * It only reads from memory, so it keeps working when InfluxDB is unavailable.
+ */
+final class ApiServer {
+
+    private final static Logger log = LoggerFactory.getLogger(ApiServer.class);
+    private final static String PREFIX = "/api/v1/";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ApiConfiguration configuration;
+    private final LatestValueStore latestValueStore;
+    private HistoryStore historyStore;
+
+    private HttpServer httpServer;
+    private ExecutorService executorService;
+
+
+    ApiServer(ApiConfiguration configuration, LatestValueStore latestValueStore) {
+        this.configuration = configuration;
+        this.latestValueStore = latestValueStore;
+    }
+
+
+    void setHistoryStore(HistoryStore historyStore) {
+        this.historyStore = historyStore;
+    }
+
+
+    void start() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(configuration.address, configuration.port), 0);
+        executorService = Executors.newFixedThreadPool(configuration.threads, runnable -> {
+            Thread thread = new Thread(runnable, "api");
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpServer.setExecutor(executorService);
+        httpServer.createContext(PREFIX, this::handle);
+        httpServer.start();
+        log.info("Serving API on http://{}:{}{}", configuration.address, httpServer.getAddress().getPort(), PREFIX);
+    }
+
+
+    void stop() {
+        if(httpServer != null) {
+            httpServer.stop(0);
+            executorService.shutdownNow();
+        }
+    }
+
+
+    int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if(!"GET".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, error("Method not allowed"));
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath().substring(PREFIX.length());
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+            if(path.equals("systems")) {
+                respond(exchange, 200, systems());
+            } else if(path.equals("resources")) {
+                respond(exchange, 200, resources(query));
+            } else if(path.equals("history") && historyStore != null) {
+                respond(exchange, 200, history(query));
+            } else if(path.startsWith("resources/")) {
+                LatestValueStore.Node node = latestValueStore.get(path.substring("resources/".length()));
+                if(node == null) {
+                    respond(exchange, 404, error("Unknown resource"));
+                } else {
+                    respond(exchange, 200, toMap(node, measurementFilter(query)));
+                }
+            } else {
+                respond(exchange, 404, error("Not found"));
+            }
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, error(e.getMessage()));
+        } catch (Exception e) {
+            log.warn("handle() - error: {}", e.getMessage());
+            respond(exchange, 500, error("Internal error"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+
+    private List<Map<String, Object>> systems() {
+        List<Map<String, Object>> list = new ArrayList<>();
+        latestValueStore.getSystems().forEach(system -> {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("id", system.id);
+            map.put("name", system.name);
+            map.put("partitions", system.partitionsByName.size());
+            map.put("vios", system.viosByName.size());
+            list.add(map);
+        });
+        return list;
+    }
+
+
+    private List<Map<String, Object>> resources(Map<String, String> query) {
+        Set<String> measurements = measurementFilter(query);
+        String type = query.get("type");
+        Pattern namePattern = null;
+        if(query.containsKey("name")) {
+            try {
+                namePattern = Pattern.compile(query.get("name"));
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid name pattern");
+            }
+        }
+
+        List<LatestValueStore.Node> nodes = new ArrayList<>();
+        if(query.containsKey("system")) {
+            LatestValueStore.SystemNode system = latestValueStore.getSystem(query.get("system"));
+            if(system == null) {
+                throw new IllegalArgumentException("Unknown system");
+            }
+            nodes.add(system);
+            nodes.addAll(system.partitionsByName.values());
+            nodes.addAll(system.viosByName.values());
+        } else {
+            nodes.addAll(latestValueStore.getNodes());
+        }
+
+        List<Map<String, Object>> list = new ArrayList<>();
+        for(LatestValueStore.Node node : nodes) {
+            if(type != null && !type.equals(node.type)) {
+                continue;
+            }
+            if(namePattern != null && !namePattern.matcher(node.name).matches()) {
+                continue;
+            }
+            list.add(toMap(node, measurements));
+        }
+        return list;
+    }
+
+
+    private List<Map<String, Object>> history(Map<String, String> query) {
+        Map<String, String> tags = new LinkedHashMap<>(query);
+        String measurement = tags.remove("measurement");
+        String field = tags.remove("field");
+        String from = tags.remove("from");
+        String to = tags.remove("to");
+        if(measurement == null) {
+            throw new IllegalArgumentException("Missing measurement");
+        }
+
+        long toTime = (to != null) ? HistoryStore.parseTime(to) : Long.MAX_VALUE;
+        long fromTime = (from != null) ? HistoryStore.parseTime(from) : 0;
+
+        List<Map<String, Object>> list = new ArrayList<>();
+        for(HistoryStore.SeriesData data : historyStore.query(measurement, field, tags, fromTime, toTime)) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("measurement", data.measurement);
+            map.put("tags", data.tags);
+            map.put("field", data.field);
+            List<Object[]> points = new ArrayList<>(data.size());
+            for(int i = 0; i < data.size(); i++) {
+                points.add(new Object[] { data.getTimestamp(i), data.getValue(i) });
+            }
+            map.put("points", points);
+            list.add(map);
+        }
+        return list;
+    }
+
+
+    private Map<String, Object> toMap(LatestValueStore.Node node, Set<String> measurementFilter) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("id", node.id);
+        map.put("type", node.type);
+        map.put("name", node.name);
+        if(node.system != null) {
+            Map<String, Object> system = new LinkedHashMap<>();
+            system.put("id", node.system.id);
+            system.put("name", node.system.name);
+            map.put("system", system);
+        }
+
+        Map<String, Object> measurements = new LinkedHashMap<>();
+        node.measurements.forEach((name, snapshot) -> {
+            if(measurementFilter != null && !measurementFilter.contains(name)) {
+                return;
+            }
+            List<Map<String, Object>> values = new ArrayList<>();
+            snapshot.measurements.forEach(m -> {
+                Map<String, Object> value = new LinkedHashMap<>();
+                value.put("timestamp", m.timestamp.toString());
+                value.put("tags", m.tags);
+                value.put("fields", m.fields);
+                values.add(value);
+            });
+            measurements.put(name, values);
+        });
+        map.put("measurements", measurements);
+        return map;
+    }
+
+
+    private static Set<String> measurementFilter(Map<String, String> query) {
+        if(!query.containsKey("measurement")) {
+            return null;
+        }
+        return new HashSet<>(Arrays.asList(query.get("measurement").split(",")));
+    }
+
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new LinkedHashMap<>();
+        if(rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for(String pair : rawQuery.split("&")) {
+            int idx = pair.indexOf('=');
+            if(idx > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, idx), "UTF-8"), URLDecoder.decode(pair.substring(idx + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+
+    private static Map<String, Object> error(String message) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("error", message);
+        return map;
+    }
+
+
+    private void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+}
@@ -31,7 +31,8 @@ import picocli.CommandLine.Option;
 @Command(name = "hmci",
     mixinStandardHelpOptions = true,
     versionProvider = biz.nellemann.hmci.VersionProvider.class,
-    defaultValueProvider = biz.nellemann.hmci.DefaultProvider.class)
+    defaultValueProvider = biz.nellemann.hmci.DefaultProvider.class,
+    subcommands = { ReplayCommand.class, BackfillCommand.class, SimulateCommand.class })
 public class Application implements Callable<Integer> {
 
     @Option(names = { "-c", "--conf" }, description = "Configuration file [default: ${DEFAULT-VALUE}].", paramLabel = "<file>")
@@ -51,12 +52,7 @@ public class Application implements Callable<Integer> {
     public Integer call() {
 
         InfluxClient influxClient;
-        List<Thread> threadList = new ArrayList<>();
-
-        if(!configurationFile.exists()) {
-            System.err.println("Error - No configuration file found at: " + configurationFile.toString());
-            return -1;
-        }
+        List<ManagementConsole> managementConsoles = new ArrayList<>();
 
         switch (enableDebug.length) {
             case 1:
@@ -68,29 +64,69 @@ public class Application implements Callable<Integer> {
         }
 
         try {
-            TomlMapper mapper = new TomlMapper();
-            Configuration configuration = mapper.readerFor(Configuration.class)
-                .readValue(configurationFile);
+            Configuration configuration = loadConfiguration();
+            if(configuration == null) {
+                return -1;
+            }
 
             influxClient = new InfluxClient(configuration.influx);
+
+            if(configuration.quantiles.enabled) {
+                influxClient.setQuantileAggregator(new QuantileAggregator(configuration.quantiles));
+            }
+
+            LatestValueStore latestValueStore = configuration.api.enabled ? new LatestValueStore() : null;
+            if(latestValueStore != null) {
+                influxClient.setLatestValueStore(latestValueStore);
+            }
+
+            HistoryStore historyStore = configuration.history.enabled ? new HistoryStore(configuration.history) : null;
+            if(historyStore != null) {
+                historyStore.open();
+                influxClient.setHistoryStore(historyStore);
+                Runtime.getRuntime().addShutdownHook(new Thread(historyStore::close));
+            }
+
+            // Started before we connect to InfluxDB, as the API does not depend on it
+            if(latestValueStore != null) {
+                ApiServer apiServer = new ApiServer(configuration.api, latestValueStore);
+                apiServer.setHistoryStore(historyStore);
+                apiServer.start();
+            }
+
             influxClient.login();
 
+            WatermarkStore watermarkStore = configuration.backfill.enabled ? new WatermarkStore(configuration.backfill.path) : null;
+            Backfill backfill = (watermarkStore != null) ? new Backfill(configuration.backfill, watermarkStore) : null;
+            if(watermarkStore != null) {
+                watermarkStore.load();
+                Runtime.getRuntime().addShutdownHook(new Thread(backfill::close));
+            }
+
+            Scheduler scheduler = new Scheduler(configuration.scheduler);
+            ResourceExecutor resourceExecutor = new ResourceExecutor(configuration.scheduler.virtualThreads, configuration.scheduler.resourceThreads);
+            MemoryBudget memoryBudget = (configuration.scheduler.memoryBudget > 0) ? new MemoryBudget(configuration.scheduler.memoryBudget * 1024L * 1024L) : null;
             configuration.hmc.forEach((key, value) -> {
+                if(value.name == null) {
+                    value.name = key;
+                }
                 try {
                     ManagementConsole managementConsole = new ManagementConsole(value, influxClient);
-                    Thread t = new Thread(managementConsole);
-                    t.setName(key);
-                    t.start();
-                    threadList.add(t);
+                    managementConsole.setLatestValueStore(latestValueStore);
+                    managementConsole.setBackfill(backfill);
+                    managementConsole.setResourceExecutor(resourceExecutor);
+                    managementConsole.setMemoryBudget(memoryBudget);
+                    scheduler.schedule(key, managementConsole, value.refresh);
+                    managementConsoles.add(managementConsole);
                 } catch (Exception e) {
                     System.err.println(e.getMessage());
                 }
             });
 
-            for (Thread thread : threadList) {
-                thread.join();
-            }
+            Runtime.getRuntime().addShutdownHook(new Thread(scheduler::shutdown));
+            scheduler.awaitTermination();
 
+            managementConsoles.forEach(ManagementConsole::logoff);
             influxClient.logoff();
         } catch (IOException | InterruptedException e) {
             System.err.println(e.getMessage());
@@ -100,4 +136,16 @@ public class Application implements Callable<Integer> {
         return 0;
     }
 
+
+    Configuration loadConfiguration() throws IOException {
+        if(!configurationFile.exists()) {
+            System.err.println("Error - No configuration file found at: " + configurationFile.toString());
+            return null;
+        }
+
+        TomlMapper mapper = new TomlMapper();
+        return mapper.readerFor(Configuration.class)
+            .readValue(configurationFile);
+    }
+
 }
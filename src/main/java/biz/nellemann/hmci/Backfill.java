@@ -0,0 +1,333 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import biz.nellemann.hmci.dto.json.SystemUtil;
+import biz.nellemann.hmci.dto.toml.BackfillConfiguration;
+
+/**
+ * Recover gaps in the metrics from the history kept on the HMC.
+ *
+ * The time range is split into chunks, which are fetched in parallel (bounded by the
+ * number of threads), but processed in order through the normal Resource encoders, so
+ * samples are written sorted by time for each series. ProcessedMetrics are used for the
+ * recent part of a gap, and AggregatedMetrics (same layout) for anything older.
+ */
+final class Backfill {
+
+    private final static Logger log = LoggerFactory.getLogger(Backfill.class);
+
+    private final static DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssZ").withZone(ZoneOffset.UTC);
+    private final static long CHECKPOINT_INTERVAL_MILLIS = 5 * 60_000;
+
+    private final long chunkSeconds;
+    private final long maxSeconds;
+    private final long processedSeconds;
+    private final int window;
+    private final WatermarkStore watermarkStore;
+    private final ExecutorService executorService;
+    private final ExecutorService recoveryExecutor;
+    private volatile long lastCheckpoint = System.currentTimeMillis();
+
+    // Resources which have been checked for gaps since we started
+    private final Set<String> checked = ConcurrentHashMap.newKeySet();
+
+    // Chunks not yet recovered for each resource, whose watermark is held back until they are
+    private final Map<String, AtomicInteger> recovering = new ConcurrentHashMap<>();
+
+
+    /**
+     * @param watermarkStore can be null when only used on demand
+     */
+    Backfill(BackfillConfiguration configuration, WatermarkStore watermarkStore) {
+        this.chunkSeconds = configuration.chunkMinutes * 60L;
+        this.maxSeconds = configuration.maxHours * 3600L;
+        this.processedSeconds = configuration.processedHours * 3600L;
+        this.window = configuration.threads * 2;
+        this.watermarkStore = watermarkStore;
+        this.executorService = Executors.newFixedThreadPool(configuration.threads, runnable -> {
+            Thread thread = new Thread(runnable, "backfill");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.recoveryExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "backfill-recover");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Stop fetching, and persist the latest watermarks.
+     */
+    void close() {
+        recoveryExecutor.shutdownNow();
+        executorService.shutdownNow();
+        if(watermarkStore != null) {
+            watermarkStore.save();
+        }
+    }
+
+
+    /**
+     * Find the gap between the persisted watermark and the oldest sample of the first refresh,
+     * for each resource not seen before, and recover it in the background. Recoveries of all HMC's
+     * run one at a time, so they do not hold up the cycles, nor compete with each other for the HMC's.
+     * Then update the watermarks, which are persisted every few minutes. The watermark of a resource
+     * stays below its gap until all of it is recovered, so a gap is found again after a restart or crash.
+     */
+    void recover(RestClient restClient, List<ManagedSystem> managedSystems) {
+        long now = Instant.now().getEpochSecond();
+        List<Chunk> chunks = new ArrayList<>();
+        for(ManagedSystem system : managedSystems) {
+            chunks.addAll(gap(system, system.id, systemPath(system), "ManagedSystem", now));
+            for(LogicalPartition partition : system.logicalPartitions) {
+                chunks.addAll(gap(partition, partition.id, partitionPath(system, partition), "LogicalPartition", now));
+            }
+        }
+
+        if(!chunks.isEmpty()) {
+            recoveryExecutor.submit(() -> {
+                try {
+                    int processed = run(restClient, chunks);
+                    log.info("recover() - backfilled {} samples", processed);
+                } catch (RuntimeException e) {
+                    log.warn("recover() - error: {}", e.getMessage());
+                }
+            });
+        }
+        checkpoint(managedSystems);
+    }
+
+
+    /**
+     * Fetch and process all samples from 'from' to 'to' (epoch seconds) for a system and its partitions.
+     * @return number of samples processed
+     */
+    int run(RestClient restClient, ManagedSystem system, long from, long to) {
+        long now = Instant.now().getEpochSecond();
+        List<Chunk> chunks = new ArrayList<>(split(system, systemPath(system), "ManagedSystem", from - 1, to + 1, now));
+        for(LogicalPartition partition : system.logicalPartitions) {
+            chunks.addAll(split(partition, partitionPath(system, partition), "LogicalPartition", from - 1, to + 1, now));
+        }
+        return run(restClient, chunks);
+    }
+
+
+    void checkpoint(List<ManagedSystem> managedSystems) {
+        if(watermarkStore == null) {
+            return;
+        }
+        for(ManagedSystem system : managedSystems) {
+            update(system.id, system.getLastProcessed());
+            for(LogicalPartition partition : system.logicalPartitions) {
+                update(partition.id, partition.getLastProcessed());
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        if(now - lastCheckpoint >= CHECKPOINT_INTERVAL_MILLIS) {
+            lastCheckpoint = now;
+            watermarkStore.save();
+        }
+    }
+
+
+    private void update(String id, long epochSecond) {
+        if(id != null && !recovering.containsKey(id)) {
+            watermarkStore.update(id, epochSecond);
+        }
+    }
+
+
+    private List<Chunk> gap(Resource resource, String id, String path, String category, long now) {
+        if(watermarkStore == null || id == null || checked.contains(id)) {
+            return Collections.emptyList();
+        }
+
+        long oldest = resource.getOldestSample();
+        if(oldest == 0) {
+            return Collections.emptyList();  // Nothing collected yet, check again next time
+        }
+        checked.add(id);
+
+        long watermark = watermarkStore.get(id);
+        if(watermark == 0 || watermark >= oldest) {
+            return Collections.emptyList();  // New resource, or no gap
+        }
+
+        long after = Math.max(watermark, now - maxSeconds);
+        log.info("gap() - {} minutes missing for: {}", (oldest - after) / 60, path);
+        List<Chunk> chunks = split(resource, path, category, after, oldest, now);
+        for(Chunk chunk : chunks) {
+            chunk.id = id;
+        }
+        if(!chunks.isEmpty()) {
+            recovering.put(id, new AtomicInteger(chunks.size()));
+        }
+        return chunks;
+    }
+
+
+    private List<Chunk> split(Resource resource, String path, String category, long after, long before, long now) {
+        List<Chunk> chunks = new ArrayList<>();
+        for(long start = after + 1; start < before; start += chunkSeconds) {
+            long end = Math.min(start + chunkSeconds, before);
+            String type = (start < now - processedSeconds) ? "AggregatedMetrics" : "ProcessedMetrics";
+            chunks.add(new Chunk(resource, path + "/" + type, category, start, end, after, before));
+        }
+        return chunks;
+    }
+
+
+    /**
+     * Release the watermark of a resource once all chunks of its gap are recovered. A chunk which
+     * failed keeps it held back, so the gap is tried again after the next restart.
+     */
+    private void recovered(Chunk chunk) {
+        if(chunk.id == null) {
+            return;
+        }
+        AtomicInteger remaining = recovering.get(chunk.id);
+        if(remaining != null && remaining.decrementAndGet() == 0) {
+            recovering.remove(chunk.id);
+        }
+    }
+
+
+    /**
+     * Fetch chunks in parallel, while processing them in order. At most 'window' chunks are
+     * fetched ahead of the one being processed, which bounds memory use.
+     */
+    private int run(RestClient restClient, List<Chunk> chunks) {
+        int processed = 0;
+        Deque<Chunk> pending = new ArrayDeque<>();
+        for(Chunk chunk : chunks) {
+            chunk.future = executorService.submit(() -> fetch(restClient, chunk));
+            pending.add(chunk);
+            if(pending.size() >= window) {
+                processed += process(pending.poll());
+            }
+        }
+        while(!pending.isEmpty()) {
+            processed += process(pending.poll());
+        }
+        return processed;
+    }
+
+
+    private int process(Chunk chunk) {
+        int processed = 0;
+        try {
+            long after = Math.max(chunk.after, chunk.start - 1);
+            long before = Math.min(chunk.before, chunk.end);
+            for(SystemUtil history : chunk.future.get()) {
+                processed += chunk.resource.backfill(history, after, before);
+            }
+            recovered(chunk);
+        } catch (ExecutionException e) {
+            log.warn("process() - error, watermark held back until restart: {}", e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return processed;
+    }
+
+
+    private List<SystemUtil> fetch(RestClient restClient, Chunk chunk) throws IOException {
+        String xml = restClient.getRequest(String.format("%s?StartTS=%s&EndTS=%s", chunk.path, format(chunk.start), format(chunk.end)));
+
+        // Do not try to parse empty response
+        if(xml == null || xml.length() <= 1) {
+            log.debug("fetch() - no data for: {}", chunk.path);
+            return Collections.emptyList();
+        }
+
+        List<SystemUtil> list = new ArrayList<>();
+        for(FeedLinks.Link link : FeedLinks.extract(xml, chunk.category)) {
+            String json = restClient.getRequest(URI.create(link.href).getPath());
+            if(json != null && json.length() > 1) {
+                list.add(chunk.resource.parse(json));
+            }
+        }
+        return list;
+    }
+
+
+    private static String systemPath(ManagedSystem system) {
+        return String.format("/rest/api/pcm/ManagedSystem/%s", system.id);
+    }
+
+
+    private static String partitionPath(ManagedSystem system, LogicalPartition partition) {
+        return String.format("/rest/api/pcm/ManagedSystem/%s/LogicalPartition/%s", system.id, partition.id);
+    }
+
+
+    private static String format(long epochSecond) throws UnsupportedEncodingException {
+        return URLEncoder.encode(TIMESTAMP_FORMAT.format(Instant.ofEpochSecond(epochSecond)), "UTF-8");
+    }
+
+
+    private static final class Chunk {
+
+        final Resource resource;
+        final String path;
+        final String category;
+        final long start;
+        final long end;
+        final long after;
+        final long before;
+        Future<List<SystemUtil>> future;
+        String id;      // Resource whose watermark waits for this chunk, null when run on demand
+
+        Chunk(Resource resource, String path, String category, long start, long end, long after, long before) {
+            this.resource = resource;
+            this.path = path;
+            this.category = category;
+            this.start = start;
+            this.end = end;
+            this.after = after;
+            this.before = before;
+        }
+    }
+
+}
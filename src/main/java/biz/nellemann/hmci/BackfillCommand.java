@@ -0,0 +1,79 @@
+/*
+   Copyright 2020 mark.nellemann@gmail.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import biz.nellemann.hmci.dto.toml.Configuration;
+import biz.nellemann.hmci.dto.toml.HmcConfiguration;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParentCommand;
+
+/**
+ * Fetch a time range of metrics from the history kept on each HMC, eg. to fill a gap after an outage.
+ */
+@Command(name = "backfill",
+    mixinStandardHelpOptions = true,
+    description = "Backfill InfluxDB with metrics from the history kept on the HMC's.")
+class BackfillCommand implements Callable<Integer> {
+
+    @ParentCommand
+    private Application application;
+
+    @Option(names = { "--from" }, required = true, description = "Start time, epoch seconds or ISO-8601.", paramLabel = "<time>")
+    private String from;
+
+    @Option(names = { "--to" }, description = "End time, epoch seconds or ISO-8601 [default: now].", paramLabel = "<time>")
+    private String to;
+
+
+    @Override
+    public Integer call() {
+        try {
+            Configuration configuration = application.loadConfiguration();
+            if(configuration == null) {
+                return -1;
+            }
+
+            long fromTime = HistoryStore.parseTime(from);
+            long toTime = (to != null) ? HistoryStore.parseTime(to) : Instant.now().getEpochSecond();
+
+            InfluxClient influxClient = new InfluxClient(configuration.influx);
+            influxClient.login();
+
+            Backfill backfill = new Backfill(configuration.backfill, null);
+            int processed = 0;
+            for(Map.Entry<String, HmcConfiguration> entry : configuration.hmc.entrySet()) {
+                ManagementConsole managementConsole = new ManagementConsole(entry.getValue(), influxClient);
+                processed += managementConsole.backfill(backfill, fromTime, toTime);
+            }
+            backfill.close();
+
+            influxClient.logoff();
+            System.out.println("Backfilled " + processed + " samples.");
+        } catch (IllegalArgumentException | IOException | InterruptedException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        }
+
+        return 0;
+    }
+
+}
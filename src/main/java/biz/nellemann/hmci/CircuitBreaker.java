@@ -0,0 +1,217 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Circuit breakers per endpoint class, so a failing resource (eg. energy metrics not enabled on a system)
+ * stops costing requests every cycle.
+ *
+ * The endpoint class is the path of the request, which includes the id's of the resource, and the 'Type'
+ * query parameter. JSON files linked from the feeds are not guarded, as they are only fetched after
+ * a successful feed, and neither are logon and logoff. After 'failures' errors in a row the circuit opens, and requests fail fast with
+ * an OpenException. When the backoff has passed, a single probe is let through (half-open): on success
+ * the circuit closes, on failure it opens again with the backoff doubled, up to 'maxBackoff'.
+ */
+final class CircuitBreaker implements Interceptor {
+
+    private final static Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+    private final AtomicLong rejected = new AtomicLong();
+
+
+    CircuitBreaker(int failureThreshold, long backoffMillis, long maxBackoffMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.backoffMillis = Math.max(1, backoffMillis);
+        this.maxBackoffMillis = Math.max(this.backoffMillis, maxBackoffMillis);
+    }
+
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String key = endpointKey(request.url().encodedPath(), request.url().queryParameter("Type"));
+        if(key == null) {
+            return chain.proceed(request);
+        }
+
+        Circuit circuit = circuits.computeIfAbsent(key, Circuit::new);
+        if(!circuit.allow(System.currentTimeMillis())) {
+            rejected.incrementAndGet();
+            throw new OpenException(key);
+        }
+
+        boolean success = false;
+        boolean failure = false;
+        try {
+            Response response = chain.proceed(request);
+            if(response.code() < 400) {
+                success = true;     // Including 304, the answer to a conditional GET of an unchanged UOM document
+            } else if(response.code() != 401 && response.code() != 429) {
+                failure = true;     // Not the fault of the endpoint, when unauthorized or throttled
+            }
+            return response;
+        } catch (IOException e) {
+            failure = !chain.call().isCanceled();
+            throw e;
+        } finally {
+            if(success) {
+                circuit.onSuccess();
+            } else if(failure) {
+                circuit.onFailure(System.currentTimeMillis());
+            } else {
+                circuit.onNeutral();
+            }
+        }
+    }
+
+
+    /**
+     * @return the endpoint class of a request path, or null if it should not be guarded
+     */
+    static String endpointKey(String path, String type) {
+        if(path == null || path.endsWith(".json") || path.startsWith("/rest/api/web/")) {
+            return null;
+        }
+        return (type != null) ? path + "?Type=" + type : path;
+    }
+
+
+    State getState(String key) {
+        Circuit circuit = circuits.get(key);
+        return (circuit != null) ? circuit.getState() : State.CLOSED;
+    }
+
+
+    /**
+     * @return the endpoint classes which are not closed, with their state
+     */
+    Map<String, State> getStatus() {
+        Map<String, State> status = new TreeMap<>();
+        circuits.forEach((key, circuit) -> {
+            State state = circuit.getState();
+            if(state != State.CLOSED) {
+                status.put(key, state);
+            }
+        });
+        return status;
+    }
+
+
+    /**
+     * @return number of requests failed fast since the last call
+     */
+    long drainRejected() {
+        return rejected.getAndSet(0);
+    }
+
+
+    /**
+     * Thrown instead of sending a request to an endpoint class which is failing.
+     */
+    static final class OpenException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        OpenException(String key) {
+            super("Circuit open for " + key);
+        }
+    }
+
+
+    private final class Circuit {
+
+        private final String key;
+        private State state = State.CLOSED;
+        private int failures;
+        private long backoff;
+        private long openUntil;
+
+        Circuit(String key) {
+            this.key = key;
+        }
+
+        synchronized State getState() {
+            return state;
+        }
+
+        synchronized boolean allow(long now) {
+            switch (state) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if(now >= openUntil) {
+                        state = State.HALF_OPEN;
+                        return true;        // This request is the probe
+                    }
+                    return false;
+                default:
+                    return false;           // Probe already in flight
+            }
+        }
+
+        synchronized void onSuccess() {
+            if(state != State.CLOSED) {
+                log.info("Circuit closed for {}", key);
+            }
+            state = State.CLOSED;
+            failures = 0;
+            backoff = 0;
+        }
+
+        synchronized void onFailure(long now) {
+            if(state == State.OPEN) {
+                return;     // Request sent before the circuit opened
+            }
+            failures++;
+            if(state == State.HALF_OPEN || failures >= failureThreshold) {
+                backoff = (backoff == 0) ? backoffMillis : Math.min(maxBackoffMillis, backoff * 2);
+                openUntil = now + backoff;
+                if(state == State.CLOSED) {
+                    log.warn("Circuit open for {} - {} failures, retrying in {}s", key, failures, backoff / 1000);
+                } else {
+                    log.debug("Circuit still open for {} - retrying in {}s", key, backoff / 1000);
+                }
+                state = State.OPEN;
+            }
+        }
+
+        synchronized void onNeutral() {
+            if(state == State.HALF_OPEN) {
+                state = State.OPEN;     // Let the next request probe instead
+            }
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+
+import biz.nellemann.hmci.dto.json.ProcessedMetrics;
+import biz.nellemann.hmci.dto.xml.LogonResponse;
+import biz.nellemann.hmci.dto.xml.XmlEntry;
+import biz.nellemann.hmci.dto.xml.XmlFeed;
+
+/**
+ * Shared Jackson mappers for the HMC documents, with a cached (thread-safe) ObjectReader per DTO type.
+ *
+ * Creating a mapper per document repeats the introspection of the DTO classes and the warmup of
+ * the deserializer caches, so all parsing goes through here. The readers of the documents we get
+ * every cycle are created up front. When the Blackbird (Java 11+) or Afterburner module is found
+ * on the classpath, it is registered to generate accessors instead of using reflection.
+ */
+final class Codec {
+
+    private final static Logger log = LoggerFactory.getLogger(Codec.class);
+
+    private final static XmlMapper xmlMapper = new XmlMapper();
+    private final static ObjectMapper jsonMapper = new ObjectMapper()
+        .enable(DeserializationFeature.UNWRAP_SINGLE_VALUE_ARRAYS)
+        .enable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY)
+        .enable(DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT);
+
+    private final static Map<Class<?>, ObjectReader> xmlReaders = new ConcurrentHashMap<>();
+    private final static Map<Class<?>, ObjectReader> jsonReaders = new ConcurrentHashMap<>();
+    private final static ObjectWriter xmlWriter;
+
+    static {
+        Module accessors = findAccessorModule();
+        if(accessors != null) {
+            xmlMapper.registerModule(accessors);
+            jsonMapper.registerModule(accessors);
+            log.debug("Codec() - using {}", accessors.getModuleName());
+        }
+        xmlWriter = xmlMapper.writer();
+
+        // Warm up the readers we use every cycle
+        xmlReader(XmlFeed.class);
+        xmlReader(XmlEntry.class);
+        xmlReader(LogonResponse.class);
+        jsonReader(ProcessedMetrics.class);
+    }
+
+
+    private Codec() {
+    }
+
+
+    static <T> T readXml(String xml, Class<T> type) throws IOException {
+        return xmlReader(type).readValue(xml);
+    }
+
+
+    static <T> T readJson(String json, Class<T> type) throws IOException {
+        return jsonReader(type).readValue(json);
+    }
+
+
+    static String writeXml(Object value) throws IOException {
+        return xmlWriter.writeValueAsString(value);
+    }
+
+
+    private static ObjectReader xmlReader(Class<?> type) {
+        return xmlReaders.computeIfAbsent(type, xmlMapper::readerFor);
+    }
+
+
+    private static ObjectReader jsonReader(Class<?> type) {
+        return jsonReaders.computeIfAbsent(type, jsonMapper::readerFor);
+    }
+
+
+    private static Module findAccessorModule() {
+        String[] modules = {
+            "com.fasterxml.jackson.module.blackbird.BlackbirdModule",
+            "com.fasterxml.jackson.module.afterburner.AfterburnerModule"
+        };
+        boolean java8 = System.getProperty("java.specification.version", "").startsWith("1.");
+        for(String name : modules) {
+            if(java8 && name.contains("blackbird")) {
+                continue;   // Needs MethodHandles of Java 9+
+            }
+            try {
+                return (Module) Class.forName(name).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                log.trace("findAccessorModule() - {} not available: {}", name, e.toString());
+            }
+        }
+        return null;
+    }
+
+}
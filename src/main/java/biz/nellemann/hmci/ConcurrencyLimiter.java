@@ -0,0 +1,174 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Adaptive (AIMD) limit on the number of requests in flight to one HMC.
+ *
+ * The limit grows by one per window of successful requests, while it is in use and the short-term
+ * average latency stays close to the long-term average. It is cut on latency spikes, and cut harder
+ * on 5xx responses and timeouts, at most once per round trip. Latency is measured until the response
+ * headers are received, which is where the HMC spends its time.
+ *
+ * Used as an OkHttp interceptor, so synchronous, asynchronous and login requests are all limited.
+ * With minLimit == maxLimit it works as a fixed limit.
+ */
+final class ConcurrencyLimiter implements Interceptor {
+
+    private final static Logger log = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+    private final static double SHORT_RTT_ALPHA = 0.2;
+    private final static double LONG_RTT_ALPHA = 0.02;
+    private final static double RTT_TOLERANCE = 2.0;        // Short-term latency above this multiple of long-term is a spike
+    private final static double LATENCY_BACKOFF = 0.9;
+    private final static double ERROR_BACKOFF = 0.5;
+
+    enum Outcome { SUCCESS, OVERLOAD, IGNORE }
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private double limit;
+    private int inFlight;
+    private double shortRtt;    // Nanoseconds, 0 until the first sample
+    private double longRtt;
+    private long lastDecrease;
+
+
+    ConcurrencyLimiter(int minLimit, int initialLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.lastDecrease = System.nanoTime();
+    }
+
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+
+    int getMaxLimit() {
+        return maxLimit;
+    }
+
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        int inFlightAtStart = acquire();
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.IGNORE;
+        try {
+            Response response = chain.proceed(chain.request());
+            if(response.code() >= 500 || response.code() == 429) {
+                outcome = Outcome.OVERLOAD;
+            } else if(response.isSuccessful()) {
+                outcome = Outcome.SUCCESS;
+            }
+            return response;
+        } catch (SocketTimeoutException e) {
+            outcome = Outcome.OVERLOAD;
+            throw e;
+        } catch (InterruptedIOException e) {
+            if("timeout".equals(e.getMessage())) {
+                outcome = Outcome.OVERLOAD;     // Call timeout, as opposed to cancel or interrupt
+            }
+            throw e;
+        } finally {
+            release(System.nanoTime() - start, inFlightAtStart, outcome);
+        }
+    }
+
+
+    /**
+     * Wait until a request can be sent within the current limit.
+     * @return number of requests in flight, including this one
+     */
+    synchronized int acquire() throws InterruptedIOException {
+        try {
+            while (inFlight >= (int) limit) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for request permit");
+        }
+        return ++inFlight;
+    }
+
+
+    synchronized void release(long rttNanos, int inFlightAtStart, Outcome outcome) {
+        inFlight--;
+        switch (outcome) {
+            case SUCCESS:
+                onSample(rttNanos, inFlightAtStart);
+                break;
+            case OVERLOAD:
+                decrease(ERROR_BACKOFF, "error or timeout");
+                break;
+            default:
+                break;
+        }
+        notifyAll();
+    }
+
+
+    private void onSample(long rttNanos, int inFlightAtStart) {
+        if(longRtt == 0) {
+            shortRtt = rttNanos;
+            longRtt = rttNanos;
+        }
+        shortRtt += SHORT_RTT_ALPHA * (rttNanos - shortRtt);
+        longRtt += LONG_RTT_ALPHA * (rttNanos - longRtt);
+
+        if(shortRtt > longRtt * RTT_TOLERANCE) {
+            decrease(LATENCY_BACKOFF, "latency");
+        } else if(inFlightAtStart * 2 >= limit && limit < maxLimit) {
+            // Only grow while the limit is actually used
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+
+    private void decrease(double factor, String reason) {
+        long now = System.nanoTime();
+        if(now - lastDecrease < (long) shortRtt) {
+            return;     // Already reacted to this round trip
+        }
+        lastDecrease = now;
+        int before = (int) limit;
+        limit = Math.max(minLimit, limit * factor);
+        if((int) limit != before) {
+            log.debug("decrease() - {}, limit: {} -> {}", reason, before, (int) limit);
+        }
+    }
+
+}
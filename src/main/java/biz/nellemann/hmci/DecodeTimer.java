@@ -0,0 +1,50 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Time spent decoding the metrics of each resource type (ManagedSystem, LogicalPartition, SystemEnergy),
+ * shared by all resources of one HMC and written with the stats of each cycle as 'hmci_decode'.
+ */
+final class DecodeTimer {
+
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+
+    void record(String resourceType, long micros) {
+        histograms.computeIfAbsent(resourceType, k -> new LatencyHistogram()).record(micros);
+    }
+
+
+    /**
+     * @return decode times in microseconds per resource type since the last call
+     */
+    Map<String, LatencyHistogram.Snapshot> drain() {
+        Map<String, LatencyHistogram.Snapshot> map = new TreeMap<>();
+        histograms.forEach((resourceType, histogram) -> {
+            LatencyHistogram.Snapshot snapshot = histogram.drain();
+            if(snapshot.count > 0) {
+                map.put(resourceType, snapshot);
+            }
+        });
+        return map;
+    }
+
+}
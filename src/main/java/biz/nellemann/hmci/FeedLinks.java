@@ -0,0 +1,129 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming (StAX) extractor of the JSON links in a ProcessedMetrics Atom feed.
+ *
+ * We only need the entries with a given category term and a link of type application/json, so
+ * instead of binding the whole feed to XmlFeed/XmlEntry objects, the feed is scanned once and only
+ * the link href and updated timestamp of the matching entries are kept.
+ */
+final class FeedLinks {
+
+    private final static String JSON_TYPE = "application/json";
+    private final static XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+
+    static {
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+
+    static final class Link {
+
+        final String href;
+        final String updated;
+
+        Link(String href, String updated) {
+            this.href = href;
+            this.updated = updated;
+        }
+    }
+
+
+    private FeedLinks() {
+    }
+
+
+    /**
+     * @param term category term of the entries, eg. ManagedSystem or LogicalPartition
+     * @return the JSON links of the matching entries, in feed order
+     */
+    static List<Link> extract(String xml, String term) throws IOException {
+        List<Link> links = new ArrayList<>();
+        XMLStreamReader reader = null;
+        try {
+            reader = xmlInputFactory.createXMLStreamReader(new StringReader(xml));
+
+            int depth = 0;
+            boolean inEntry = false;
+            boolean matches = false;
+            String href = null;
+            String updated = null;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if(event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String name = reader.getLocalName();
+                    if(depth == 2 && name.equals("entry")) {
+                        inEntry = true;
+                        matches = false;
+                        href = null;
+                        updated = null;
+                    } else if(inEntry && depth == 3) {
+                        switch (name) {
+                            case "category":
+                                matches = term.equals(reader.getAttributeValue(null, "term"));
+                                break;
+                            case "link":
+                                if(JSON_TYPE.equals(reader.getAttributeValue(null, "type"))) {
+                                    href = reader.getAttributeValue(null, "href");
+                                }
+                                break;
+                            case "updated":
+                                updated = reader.getElementText();
+                                depth--;    // getElementText() consumes the end element
+                                break;
+                            default:
+                                break;
+                        }
+                    }
+                } else if(event == XMLStreamConstants.END_ELEMENT) {
+                    if(depth == 2 && inEntry) {
+                        if(matches && href != null) {
+                            links.add(new Link(href, updated));
+                        }
+                        inEntry = false;
+                    }
+                    depth--;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse feed: " + e.getMessage(), e);
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                }
+            }
+        }
+        return links;
+    }
+
+}
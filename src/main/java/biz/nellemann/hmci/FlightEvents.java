@@ -0,0 +1,103 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Java Flight Recorder events for HMC requests, deserialize, process and sink writes, which show
+ * the HMC, system or partition dominating a slow cycle in a continuous recording, eg.:
+ *
+ *   java -XX:StartFlightRecording=maxage=1h,disk=true,filename=/tmp/hmci.jfr -jar hmci.jar
+ *
+ * JFR is not in all Java 8 runtimes, so the events are only used when the jdk.jfr module is found.
+ * Otherwise, or when no recording is running, the begin methods return null and the commit methods
+ * do nothing.
+ */
+final class FlightEvents {
+
+    private final static Logger log = LoggerFactory.getLogger(FlightEvents.class);
+
+    static final boolean AVAILABLE = isAvailable();
+
+
+    private FlightEvents() {
+    }
+
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return JfrEvents.isAvailable();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.debug("isAvailable() - no flight recorder: {}", e.toString());
+            return false;
+        }
+    }
+
+
+    static Object beginRequest() {
+        return AVAILABLE ? JfrEvents.beginRequest() : null;
+    }
+
+    static void commitRequest(Object event, String host, String method, String endpoint, int status, long wireBytes, long decodedBytes) {
+        if(event != null) {
+            JfrEvents.commitRequest(event, host, method, endpoint, status, wireBytes, decodedBytes);
+        }
+    }
+
+
+    static Object beginDeserialize() {
+        return AVAILABLE ? JfrEvents.beginDeserialize() : null;
+    }
+
+    static void commitDeserialize(Object event, String resourceType, String resource, long length, int samples) {
+        if(event != null) {
+            JfrEvents.commitDeserialize(event, resourceType, resource, length, samples);
+        }
+    }
+
+
+    static Object beginProcess() {
+        return AVAILABLE ? JfrEvents.beginProcess() : null;
+    }
+
+    static void commitProcess(Object event, String resourceType, String resource, int samples, int processed) {
+        if(event != null) {
+            JfrEvents.commitProcess(event, resourceType, resource, samples, processed);
+        }
+    }
+
+
+    static Object beginSinkWrite() {
+        return AVAILABLE ? JfrEvents.beginSinkWrite() : null;
+    }
+
+    static void commitSinkWrite(Object event, String measurement, int points) {
+        if(event != null) {
+            JfrEvents.commitSinkWrite(event, measurement, points);
+        }
+    }
+
+
+    static void sinkFlush(long points, boolean success) {
+        if(AVAILABLE) {
+            JfrEvents.sinkFlush(points, success);
+        }
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Gorilla-style compressed block of (timestamp, value) points, written directly into a
+ * region of a (memory-mapped) buffer. Timestamps are stored as delta-of-delta and values
+ * as the XOR with the previous value, as described in the Facebook Gorilla paper.
+ *
+ * Region layout: [long blockStart][int count][int bitLength][encoded bits ...]
+ */
+final class GorillaBlock {
+
+    static final int HEADER_BYTES = 16;
+
+    // Worst case for one point: '1111' + 32 bit dod, '11' + 5 + 6 + 64 bit value
+    private static final int MAX_BITS_PER_POINT = 4 + 32 + 2 + 5 + 6 + 64;
+
+    interface PointConsumer {
+        void accept(long timestamp, double value);
+    }
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final long capacityBits;
+
+    private long blockStart;
+    private int count;
+    private long bitPos;
+
+    private long prevTimestamp;
+    private long prevDelta;
+    private long prevBits;
+    private int prevLeading = -1;
+    private int prevTrailing;
+
+
+    private GorillaBlock(ByteBuffer buffer, int offset, int sizeBytes) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.capacityBits = (long) (sizeBytes - HEADER_BYTES) * 8;
+    }
+
+
+    /**
+     * Start a new, empty block in the region, clearing any previous content.
+     */
+    static GorillaBlock create(ByteBuffer buffer, int offset, int sizeBytes, long blockStart) {
+        for(int i = 0; i < sizeBytes; i++) {
+            buffer.put(offset + i, (byte) 0);
+        }
+        GorillaBlock block = new GorillaBlock(buffer, offset, sizeBytes);
+        block.blockStart = blockStart;
+        buffer.putLong(offset, blockStart);
+        return block;
+    }
+
+
+    /**
+     * Decode all points of an existing block, leaving it ready for further appends.
+     * @param consumer receives the points, can be null when we only need to restore the state
+     */
+    static GorillaBlock open(ByteBuffer buffer, int offset, int sizeBytes, PointConsumer consumer) {
+        GorillaBlock block = new GorillaBlock(buffer, offset, sizeBytes);
+        block.blockStart = buffer.getLong(offset);
+        int storedCount = buffer.getInt(offset + 8);
+        for(int i = 0; i < storedCount; i++) {
+            block.readPoint(consumer);
+        }
+        return block;
+    }
+
+
+    static long getBlockStart(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset);
+    }
+
+
+    long getBlockStart() {
+        return blockStart;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    long getLastTimestamp() {
+        return prevTimestamp;
+    }
+
+
+    /**
+     * Append a point. Timestamps must be increasing.
+     * @return false if the point is not newer than the last one, or the block is full
+     */
+    boolean append(long timestamp, double value) {
+        if((count > 0 && timestamp <= prevTimestamp) || timestamp < blockStart) {
+            return false;
+        }
+        if(bitPos + MAX_BITS_PER_POINT > capacityBits) {
+            return false;
+        }
+
+        long bits = Double.doubleToRawLongBits(value);
+        if(count == 0) {
+            writeBits(timestamp - blockStart, 32);
+            writeBits(bits, 64);
+            prevDelta = 0;
+        } else {
+            long delta = timestamp - prevTimestamp;
+            long dod = delta - prevDelta;
+            if(dod == 0) {
+                writeBits(0, 1);
+            } else if(dod >= -64 && dod <= 63) {
+                writeBits(0b10, 2);
+                writeBits(dod, 7);
+            } else if(dod >= -256 && dod <= 255) {
+                writeBits(0b110, 3);
+                writeBits(dod, 9);
+            } else if(dod >= -2048 && dod <= 2047) {
+                writeBits(0b1110, 4);
+                writeBits(dod, 12);
+            } else {
+                writeBits(0b1111, 4);
+                writeBits(dod, 32);
+            }
+            prevDelta = delta;
+            writeValue(bits);
+        }
+
+        prevTimestamp = timestamp;
+        prevBits = bits;
+        count++;
+
+        // Header is updated last, so readers never see a partial point
+        buffer.putInt(offset + 12, (int) bitPos);
+        buffer.putInt(offset + 8, count);
+        return true;
+    }
+
+
+    private void writeValue(long bits) {
+        long xor = bits ^ prevBits;
+        if(xor == 0) {
+            writeBits(0, 1);
+            return;
+        }
+
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if(prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+            // Meaningful bits fit in the previous window
+            writeBits(0b10, 2);
+            writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+        } else {
+            int meaningful = 64 - leading - trailing;
+            writeBits(0b11, 2);
+            writeBits(leading, 5);
+            writeBits(meaningful == 64 ? 0 : meaningful, 6);
+            writeBits(xor >>> trailing, meaningful);
+            prevLeading = leading;
+            prevTrailing = trailing;
+        }
+    }
+
+
+    private void readPoint(PointConsumer consumer) {
+        long timestamp;
+        if(count == 0) {
+            timestamp = blockStart + readBits(32);
+            prevBits = readBits(64);
+            prevDelta = 0;
+        } else {
+            long dod;
+            if(readBits(1) == 0) {
+                dod = 0;
+            } else if(readBits(1) == 0) {
+                dod = signExtend(readBits(7), 7);
+            } else if(readBits(1) == 0) {
+                dod = signExtend(readBits(9), 9);
+            } else if(readBits(1) == 0) {
+                dod = signExtend(readBits(12), 12);
+            } else {
+                dod = signExtend(readBits(32), 32);
+            }
+            long delta = prevDelta + dod;
+            timestamp = prevTimestamp + delta;
+            prevDelta = delta;
+            readValue();
+        }
+
+        prevTimestamp = timestamp;
+        count++;
+        if(consumer != null) {
+            consumer.accept(timestamp, Double.longBitsToDouble(prevBits));
+        }
+    }
+
+
+    private void readValue() {
+        if(readBits(1) == 0) {
+            return; // Same value as before
+        }
+        if(readBits(1) == 0) {
+            long xor = readBits(64 - prevLeading - prevTrailing) << prevTrailing;
+            prevBits ^= xor;
+        } else {
+            int leading = (int) readBits(5);
+            int meaningful = (int) readBits(6);
+            if(meaningful == 0) {
+                meaningful = 64;
+            }
+            int trailing = 64 - leading - meaningful;
+            long xor = readBits(meaningful) << trailing;
+            prevBits ^= xor;
+            prevLeading = leading;
+            prevTrailing = trailing;
+        }
+    }
+
+
+    private void writeBits(long value, int nbits) {
+        for(int i = nbits - 1; i >= 0; i--) {
+            if(((value >>> i) & 1) == 1) {
+                int index = offset + HEADER_BYTES + (int) (bitPos >>> 3);
+                buffer.put(index, (byte) (buffer.get(index) | (0x80 >>> (bitPos & 7))));
+            }
+            bitPos++;
+        }
+    }
+
+
+    private long readBits(int nbits) {
+        long value = 0;
+        for(int i = 0; i < nbits; i++) {
+            int index = offset + HEADER_BYTES + (int) (bitPos >>> 3);
+            int bit = (buffer.get(index) >>> (7 - (bitPos & 7))) & 1;
+            value = (value << 1) | bit;
+            bitPos++;
+        }
+        return value;
+    }
+
+
+    private static long signExtend(long value, int nbits) {
+        int shift = 64 - nbits;
+        return (value << shift) >> shift;
+    }
+
+}
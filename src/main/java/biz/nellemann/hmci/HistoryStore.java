@@ -0,0 +1,549 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import biz.nellemann.hmci.dto.toml.HistoryConfiguration;
+
+/**
+ * Embedded, short-retention store of every numeric field written, kept in a
+ * memory-mapped file of fixed size. Each series (measurement, tags and field)
+ * owns a slot with a ring of time-aligned GorillaBlock's; the oldest block is
+ * overwritten when a new time period starts.
+ *
+ * File size is: 4096 + maxSeries * (512 + (hours * 60 / blockMinutes + 1) * blockSize)
+ */
+final class HistoryStore {
+
+    private final static Logger log = LoggerFactory.getLogger(HistoryStore.class);
+
+    private final static int MAGIC = 0x484D4349;   // "HMCI"
+    private final static int VERSION = 1;
+    private final static int FILE_HEADER_BYTES = 4096;
+    private final static int KEY_BYTES = 512;
+    private final static int CHUNK_BYTES = 1 << 30;
+
+    // Separators used in the persisted series key
+    private final static char UNIT_SEPARATOR = '\u001F';
+    private final static char RECORD_SEPARATOR = '\u001E';
+
+    private final File file;
+    private final int maxSeries;
+    private final int blocksPerSeries;
+    private final int blockSize;
+    private final long blockSeconds;
+    private final long retentionSeconds;
+    private final int slotSize;
+    private final int slotsPerChunk;
+
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer[] chunks;
+    private boolean readOnly = false;
+
+    private final Map<String, Series> seriesByKey = new ConcurrentHashMap<>();
+    private final Map<String, Set<Series>> seriesByMeasurement = new ConcurrentHashMap<>();
+    private final AtomicLong latestTimestamp = new AtomicLong();
+    private final AtomicLong droppedPoints = new AtomicLong();
+    private int nextSlot = 0;
+    private boolean fullWarningLogged = false;
+
+
+    HistoryStore(HistoryConfiguration configuration) {
+        this.file = new File(configuration.path);
+        this.maxSeries = configuration.maxSeries;
+        this.blockSize = configuration.blockSize;
+        this.blockSeconds = configuration.blockMinutes * 60L;
+        this.retentionSeconds = configuration.hours * 3600L;
+        this.blocksPerSeries = (int) (retentionSeconds / blockSeconds) + 1;
+        this.slotSize = KEY_BYTES + (blocksPerSeries * blockSize);
+        this.slotsPerChunk = Math.max(1, CHUNK_BYTES / slotSize);
+    }
+
+
+    long getFileSize() {
+        return FILE_HEADER_BYTES + ((long) maxSeries * slotSize);
+    }
+
+
+    void open() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if(parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Can't create directory: " + parent);
+        }
+
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        FileChannel channel = randomAccessFile.getChannel();
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_HEADER_BYTES);
+
+        boolean compatible = header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+            && header.getInt(8) == maxSeries && header.getInt(12) == blocksPerSeries
+            && header.getInt(16) == blockSize && header.getLong(20) == blockSeconds;
+
+        if(!compatible) {
+            if(header.getInt(0) == MAGIC) {
+                log.warn("open() - configuration changed, discarding history in: {}", file);
+            }
+            randomAccessFile.setLength(0);
+            randomAccessFile.setLength(getFileSize());
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_HEADER_BYTES);
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(8, maxSeries);
+            header.putInt(12, blocksPerSeries);
+            header.putInt(16, blockSize);
+            header.putLong(20, blockSeconds);
+        }
+
+        mapChunks(channel, FileChannel.MapMode.READ_WRITE);
+        loadSeries();
+        log.info("open() - {} series in {} ({} MB)", seriesByKey.size(), file, getFileSize() / (1024 * 1024));
+    }
+
+
+    /**
+     * Open an existing store for reading only, eg. while the hmci service has it mapped for writing.
+     * The file is never created or resized, which would crash the process writing to it (SIGBUS).
+     * @throws IOException if the file is missing, or was written with another configuration
+     */
+    void openReadOnly() throws IOException {
+        if(!file.isFile()) {
+            throw new IOException("History store not found: " + file);
+        }
+
+        readOnly = true;
+        randomAccessFile = new RandomAccessFile(file, "r");
+        FileChannel channel = randomAccessFile.getChannel();
+        if(channel.size() < getFileSize()) {
+            close();
+            throw new IOException("History store does not match the [history] configuration: " + file);
+        }
+
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, FILE_HEADER_BYTES);
+        boolean compatible = header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+            && header.getInt(8) == maxSeries && header.getInt(12) == blocksPerSeries
+            && header.getInt(16) == blockSize && header.getLong(20) == blockSeconds;
+        if(!compatible) {
+            close();
+            throw new IOException("History store does not match the [history] configuration: " + file);
+        }
+
+        mapChunks(channel, FileChannel.MapMode.READ_ONLY);
+        loadSeries();
+        log.info("openReadOnly() - {} series in {}", seriesByKey.size(), file);
+    }
+
+
+    private void mapChunks(FileChannel channel, FileChannel.MapMode mode) throws IOException {
+        int chunkCount = (maxSeries + slotsPerChunk - 1) / slotsPerChunk;
+        chunks = new MappedByteBuffer[chunkCount];
+        for(int i = 0; i < chunkCount; i++) {
+            int slots = Math.min(slotsPerChunk, maxSeries - (i * slotsPerChunk));
+            chunks[i] = channel.map(mode, FILE_HEADER_BYTES + ((long) i * slotsPerChunk * slotSize), (long) slots * slotSize);
+        }
+    }
+
+
+    void close() {
+        if(chunks != null && !readOnly) {
+            for(MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+        }
+        try {
+            if(randomAccessFile != null) {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            log.warn("close() - error: {}", e.getMessage());
+        }
+    }
+
+
+    /**
+     * Append all numeric fields of the measurements.
+     */
+    void append(List<Measurement> measurements, String name) {
+        if(readOnly) {
+            throw new IllegalStateException("History store is opened read-only");
+        }
+        for(Measurement m : measurements) {
+            long timestamp = m.timestamp.getEpochSecond();
+            latestTimestamp.accumulateAndGet(timestamp, Math::max);
+            for(Map.Entry<String, Object> field : m.fields.entrySet()) {
+                if(!(field.getValue() instanceof Number)) {
+                    continue;
+                }
+                Series series = getOrCreate(name, m.tags, field.getKey());
+                if(series == null) {
+                    droppedPoints.incrementAndGet();
+                    continue;
+                }
+                synchronized (series) {
+                    if(!series.append(timestamp, ((Number) field.getValue()).doubleValue())) {
+                        droppedPoints.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Read the points of all series of a measurement with matching tags (and field, if not null).
+     */
+    List<SeriesData> query(String measurement, String field, Map<String, String> tags, long from, long to) {
+        List<SeriesData> result = new ArrayList<>();
+        for(Series series : seriesByMeasurement.getOrDefault(measurement, Collections.emptySet())) {
+            if(field != null && !field.equals(series.field)) {
+                continue;
+            }
+            if(!series.tags.entrySet().containsAll(tags.entrySet())) {
+                continue;
+            }
+            SeriesData data = new SeriesData(series.measurement, series.tags, series.field);
+            synchronized (series) {
+                series.read(from, to, data::add);
+            }
+            result.add(data);
+        }
+        return result;
+    }
+
+
+    /**
+     * Rebuild measurements between from and to, one call per measurement name and tag-set,
+     * with all fields of the same timestamp merged into one Measurement (sorted by time).
+     */
+    void replay(long from, long to, BiConsumer<String, List<Measurement>> consumer) {
+        for(Map.Entry<String, Set<Series>> entry : seriesByMeasurement.entrySet()) {
+            Map<Map<String, String>, TreeMap<Long, Map<String, Object>>> byTags = new HashMap<>();
+            for(Series series : entry.getValue()) {
+                TreeMap<Long, Map<String, Object>> points = byTags.computeIfAbsent(series.tags, k -> new TreeMap<>());
+                synchronized (series) {
+                    series.read(from, to, (timestamp, value) -> points.computeIfAbsent(timestamp, k -> new HashMap<>()).put(series.field, value));
+                }
+            }
+            byTags.forEach((tags, points) -> {
+                if(points.isEmpty()) {
+                    return;
+                }
+                List<Measurement> measurements = new ArrayList<>(points.size());
+                points.forEach((timestamp, fields) -> measurements.add(new Measurement(Instant.ofEpochSecond(timestamp), tags, fields)));
+                consumer.accept(entry.getKey(), measurements);
+            });
+        }
+    }
+
+
+    /**
+     * Parse a point in time given as epoch seconds or ISO-8601 (eg. 2024-03-01T12:00:00Z).
+     */
+    static long parseTime(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            try {
+                return Instant.parse(value).getEpochSecond();
+            } catch (DateTimeParseException ex) {
+                throw new IllegalArgumentException("Invalid time: " + value);
+            }
+        }
+    }
+
+
+    Collection<String> getMeasurements() {
+        return Collections.unmodifiableSet(seriesByMeasurement.keySet());
+    }
+
+    int getSeriesCount() {
+        return seriesByKey.size();
+    }
+
+    long getDroppedPoints() {
+        return droppedPoints.get();
+    }
+
+
+    private Series getOrCreate(String measurement, Map<String, String> tags, String field) {
+        String key = seriesKey(measurement, tags, field);
+        Series series = seriesByKey.get(key);
+        if(series != null) {
+            return series;
+        }
+
+        synchronized (this) {
+            series = seriesByKey.get(key);
+            if(series != null) {
+                return series;
+            }
+
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            if(keyBytes.length > KEY_BYTES - 4) {
+                log.warn("getOrCreate() - series key too long, skipping: {}", key);
+                return null;
+            }
+
+            int slot = allocateSlot();
+            if(slot < 0) {
+                if(!fullWarningLogged) {
+                    log.warn("getOrCreate() - maxSeries ({}) reached, new series are not stored", maxSeries);
+                    fullWarningLogged = true;
+                }
+                return null;
+            }
+
+            ByteBuffer buffer = chunk(slot);
+            int offset = slotOffset(slot);
+            for(int i = 0; i < blocksPerSeries; i++) {
+                buffer.putLong(blockOffset(slot, i), 0);
+                buffer.putInt(blockOffset(slot, i) + 8, 0);
+            }
+            for(int i = 0; i < keyBytes.length; i++) {
+                buffer.put(offset + 4 + i, keyBytes[i]);
+            }
+            buffer.putInt(offset, keyBytes.length);
+
+            series = new Series(slot, measurement, new HashMap<>(tags), field);
+            index(key, series);
+            return series;
+        }
+    }
+
+
+    /**
+     * Next unused slot, or the slot of a series without data within the retention period.
+     */
+    private int allocateSlot() {
+        if(nextSlot < maxSeries) {
+            return nextSlot++;
+        }
+
+        long expired = latestTimestamp.get() - retentionSeconds;
+        for(Map.Entry<String, Series> entry : seriesByKey.entrySet()) {
+            Series series = entry.getValue();
+            synchronized (series) {
+                if(series.lastTimestamp < expired) {
+                    seriesByKey.remove(entry.getKey());
+                    seriesByMeasurement.getOrDefault(series.measurement, Collections.emptySet()).remove(series);
+                    series.released = true;
+                    return series.slot;
+                }
+            }
+        }
+        return -1;
+    }
+
+
+    private void loadSeries() {
+        for(int slot = 0; slot < maxSeries; slot++) {
+            ByteBuffer buffer = chunk(slot);
+            int offset = slotOffset(slot);
+            int keyLength = buffer.getInt(offset);
+            if(keyLength <= 0 || keyLength > KEY_BYTES - 4) {
+                break;
+            }
+
+            byte[] keyBytes = new byte[keyLength];
+            for(int i = 0; i < keyLength; i++) {
+                keyBytes[i] = buffer.get(offset + 4 + i);
+            }
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            String[] parts = key.split(String.valueOf(UNIT_SEPARATOR));
+            Map<String, String> tags = new HashMap<>();
+            for(int i = 2; i < parts.length; i++) {
+                int idx = parts[i].indexOf(RECORD_SEPARATOR);
+                tags.put(parts[i].substring(0, idx), parts[i].substring(idx + 1));
+            }
+
+            Series series = new Series(slot, parts[0], tags, parts[1]);
+            series.restore();
+            latestTimestamp.accumulateAndGet(series.lastTimestamp, Math::max);
+            index(key, series);
+            nextSlot = slot + 1;
+        }
+    }
+
+
+    private void index(String key, Series series) {
+        seriesByKey.put(key, series);
+        seriesByMeasurement.computeIfAbsent(series.measurement, k -> ConcurrentHashMap.newKeySet()).add(series);
+    }
+
+
+    private static String seriesKey(String measurement, Map<String, String> tags, String field) {
+        StringBuilder sb = new StringBuilder(measurement).append(UNIT_SEPARATOR).append(field);
+        new TreeMap<>(tags).forEach((k, v) -> sb.append(UNIT_SEPARATOR).append(k).append(RECORD_SEPARATOR).append(v));
+        return sb.toString();
+    }
+
+
+    private ByteBuffer chunk(int slot) {
+        return chunks[slot / slotsPerChunk];
+    }
+
+    private int slotOffset(int slot) {
+        return (slot % slotsPerChunk) * slotSize;
+    }
+
+    private int blockOffset(int slot, int block) {
+        return slotOffset(slot) + KEY_BYTES + (block * blockSize);
+    }
+
+
+    private final class Series {
+
+        final int slot;
+        final String measurement;
+        final Map<String, String> tags;
+        final String field;
+
+        private GorillaBlock current;
+        private int currentIndex = -1;
+        long lastTimestamp;
+        boolean released = false;
+
+        Series(int slot, String measurement, Map<String, String> tags, String field) {
+            this.slot = slot;
+            this.measurement = measurement;
+            this.tags = tags;
+            this.field = field;
+        }
+
+        /**
+         * Find and decode the newest block, so we can continue appending to it.
+         */
+        void restore() {
+            ByteBuffer buffer = chunk(slot);
+            long newest = 0;
+            for(int i = 0; i < blocksPerSeries; i++) {
+                long start = GorillaBlock.getBlockStart(buffer, blockOffset(slot, i));
+                if(start > newest) {
+                    newest = start;
+                    currentIndex = i;
+                }
+            }
+            if(currentIndex >= 0) {
+                current = GorillaBlock.open(buffer, blockOffset(slot, currentIndex), blockSize, null);
+                lastTimestamp = current.getLastTimestamp();
+            }
+        }
+
+        boolean append(long timestamp, double value) {
+            if(released) {
+                return false;
+            }
+
+            long blockStart = timestamp - Math.floorMod(timestamp, blockSeconds);
+            if(current == null || blockStart > current.getBlockStart()) {
+                currentIndex = (currentIndex + 1) % blocksPerSeries;
+                current = GorillaBlock.create(chunk(slot), blockOffset(slot, currentIndex), blockSize, blockStart);
+            } else if(blockStart < current.getBlockStart()) {
+                return false;   // Late sample for a block we have moved past
+            }
+
+            if(current.append(timestamp, value)) {
+                lastTimestamp = timestamp;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Blocks left in the ring by a series which stopped receiving data can be older than
+         * the retention period, so points before it are skipped.
+         */
+        void read(long from, long to, GorillaBlock.PointConsumer consumer) {
+            long oldest = Math.max(from, latestTimestamp.get() - retentionSeconds);
+            ByteBuffer buffer = chunk(slot);
+            TreeMap<Long, Integer> blocks = new TreeMap<>();
+            for(int i = 0; i < blocksPerSeries; i++) {
+                long start = GorillaBlock.getBlockStart(buffer, blockOffset(slot, i));
+                if(start > 0 && start <= to && start + blockSeconds > oldest) {
+                    blocks.put(start, i);
+                }
+            }
+            blocks.values().forEach(i -> GorillaBlock.open(buffer, blockOffset(slot, i), blockSize, (timestamp, value) -> {
+                if(timestamp >= oldest && timestamp <= to) {
+                    consumer.accept(timestamp, value);
+                }
+            }));
+        }
+    }
+
+
+    static final class SeriesData {
+
+        final String measurement;
+        final Map<String, String> tags;
+        final String field;
+        private long[] times = new long[64];
+        private double[] values = new double[64];
+        private int size = 0;
+
+        SeriesData(String measurement, Map<String, String> tags, String field) {
+            this.measurement = measurement;
+            this.tags = tags;
+            this.field = field;
+        }
+
+        void add(long timestamp, double value) {
+            if(size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            times[size] = timestamp;
+            values[size] = value;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long getTimestamp(int i) {
+            return times[i];
+        }
+
+        double getValue(int i) {
+            return values[i];
+        }
+    }
+
+}
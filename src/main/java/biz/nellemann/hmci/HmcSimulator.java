@@ -0,0 +1,770 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Synthetic HMC for scale and soak testing, serving the parts of the REST API used by HMCi
+ * for a generated estate of systems, partitions, VIOS and adapters:
+ *
+ *   PUT|DELETE /rest/api/web/Logon
+ *   GET /rest/api/uom/ManagementConsole
+ *   GET /rest/api/uom/ManagementConsole/<id>/ManagedSystem/<id>
+ *   GET /rest/api/uom/ManagedSystem/<id>/LogicalPartition|VirtualIOServer/<id>
+ *   GET|POST /rest/api/pcm/ManagedSystem/<id>/preferences
+ *   GET /rest/api/pcm/ManagedSystem/<id>[/LogicalPartition/<id>]/ProcessedMetrics|AggregatedMetrics?NoOfSamples=<n>|StartTS=<time>&EndTS=<time>
+ *   GET /rest/api/pcm/ProcessedMetrics/<file>.json
+ *
+ * A sample is available every 30 seconds of the clock, and its values are derived from the resource
+ * and timestamp, so the same sample always has the same values. Latency and errors can be injected.
+ */
+final class HmcSimulator {
+
+    private final static Logger log = LoggerFactory.getLogger(HmcSimulator.class);
+
+    private final static int FREQUENCY = 30;
+    private final static int MAX_SAMPLES = 24 * 3600 / FREQUENCY;   // History kept by the HMC
+    private final static String UOM_NS = "http://www.ibm.com/xmlns/systems/power/firmware/uom/mc/2012_10/";
+    private final static String PCM_NS = "http://www.ibm.com/xmlns/systems/power/firmware/pcm/mc/2012_10/";
+    private final static String WEB_NS = "http://www.ibm.com/xmlns/systems/power/firmware/web/mc/2012_10/";
+
+    private final static DateTimeFormatter FEED_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX").withZone(ZoneOffset.UTC);
+    private final static DateTimeFormatter SAMPLE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssZ").withZone(ZoneOffset.UTC);
+
+    private final static Pattern SYSTEM_PATH = Pattern.compile("/rest/api/uom/(?:ManagementConsole/[^/]+/)?ManagedSystem/([^/]+)");
+    private final static Pattern PARTITION_PATH = Pattern.compile("/rest/api/uom/ManagedSystem/([^/]+)/(LogicalPartition|VirtualIOServer)/([^/]+)");
+    private final static Pattern PREFERENCES_PATH = Pattern.compile("/rest/api/pcm/ManagedSystem/([^/]+)/preferences");
+    private final static Pattern FEED_PATH = Pattern.compile("/rest/api/pcm/ManagedSystem/([^/]+)(?:/LogicalPartition/([^/]+))?/(?:Processed|Aggregated)Metrics");
+    private final static Pattern JSON_PATH = Pattern.compile("/rest/api/pcm/ProcessedMetrics/(ManagedSystem|Energy|LogicalPartition)_([^_]+)(?:_([^_]+))?_(\\d+)_(\\d+)\\.json");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String consoleId = UUID.nameUUIDFromBytes("hmc".getBytes(StandardCharsets.UTF_8)).toString();
+    private final Map<String, SimSystem> systems = new LinkedHashMap<>();
+    private final int adapters;
+    private final Set<String> sessions = ConcurrentHashMap.newKeySet();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private Clock clock = Clock.systemUTC();
+    private int latencyMillis;
+    private int jitterMillis;
+    private double errorRate;
+
+    private HttpServer httpServer;
+    private ExecutorService executorService;
+
+
+    /**
+     * @param systems number of managed systems
+     * @param partitions logical partitions on each system
+     * @param vios virtual I/O servers on each system
+     * @param adapters adapters of each type (ethernet, vSCSI, vFC, physical) on each partition and VIOS
+     */
+    HmcSimulator(int systems, int partitions, int vios, int adapters) {
+        this.adapters = adapters;
+        for(int s = 1; s <= systems; s++) {
+            SimSystem system = new SimSystem(s);
+            for(int v = 1; v <= vios; v++) {
+                system.vios.add(new SimPartition(system, v, String.format("sim%02d-vios%d", s, v)));
+            }
+            for(int p = 1; p <= partitions; p++) {
+                system.partitions.add(new SimPartition(system, vios + p, String.format("sim%02d-lpar%04d", s, p)));
+            }
+            this.systems.put(system.id, system);
+        }
+    }
+
+
+    /**
+     * Delay each request by 'latencyMillis' plus a random part of up to 'jitterMillis'.
+     */
+    void setLatency(int latencyMillis, int jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+
+    /**
+     * Answer this fraction (0.0 - 1.0) of the requests, except logon, with a 500 error.
+     */
+    void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+
+    /**
+     * Clock deciding which samples are available, eg. to move time forward in tests.
+     */
+    void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+
+    void start(String address, int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(address, port), 0);
+        executorService = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "simulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpServer.setExecutor(executorService);
+        httpServer.createContext("/rest/api/", this::handle);
+        httpServer.start();
+        log.info("Simulating HMC with {} systems on http://{}:{}", systems.size(), address, httpServer.getAddress().getPort());
+    }
+
+
+    void stop() {
+        if(httpServer != null) {
+            httpServer.stop(0);
+            executorService.shutdownNow();
+        }
+    }
+
+
+    int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+
+    long getRequests() {
+        return requests.sum();
+    }
+
+
+    long getErrors() {
+        return errors.sum();
+    }
+
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.increment();
+            String path = exchange.getRequestURI().getPath();
+            if(path.equals("/rest/api/web/Logon")) {
+                logon(exchange);
+                return;
+            }
+            if(!sessions.contains(String.valueOf(exchange.getRequestHeaders().getFirst("X-API-Session")))) {
+                respond(exchange, 401, "text/plain", "Unauthorized");
+                return;
+            }
+
+            if(latencyMillis > 0 || jitterMillis > 0) {
+                Thread.sleep(latencyMillis + ThreadLocalRandom.current().nextInt(jitterMillis + 1));
+            }
+            if(errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                errors.increment();
+                respond(exchange, 500, "text/plain", "Injected error");
+                return;
+            }
+
+            String baseUrl = "http://" + exchange.getRequestHeaders().getFirst("Host");
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            Matcher matcher;
+            if(path.equals("/rest/api/uom/ManagementConsole")) {
+                respondUom(exchange, managementConsole(baseUrl));
+            } else if((matcher = PARTITION_PATH.matcher(path)).matches()) {
+                SimPartition partition = system(matcher.group(1)).find(matcher.group(3));
+                respondUom(exchange, matcher.group(2).equals("VirtualIOServer") ? virtualIOServer(partition) : logicalPartition(partition));
+            } else if((matcher = SYSTEM_PATH.matcher(path)).matches()) {
+                respondUom(exchange, managedSystem(baseUrl, system(matcher.group(1))));
+            } else if((matcher = PREFERENCES_PATH.matcher(path)).matches()) {
+                respond(exchange, 200, "application/atom+xml", preferences(baseUrl, system(matcher.group(1))));
+            } else if((matcher = FEED_PATH.matcher(path)).matches()) {
+                SimSystem system = system(matcher.group(1));
+                SimPartition partition = (matcher.group(2) != null) ? system.find(matcher.group(2)) : null;
+                respond(exchange, 200, "application/atom+xml", feed(baseUrl, system, partition, query));
+            } else if((matcher = JSON_PATH.matcher(path)).matches()) {
+                respond(exchange, 200, "application/json", metrics(matcher));
+            } else {
+                respond(exchange, 404, "text/plain", "Not found");
+            }
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 404, "text/plain", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("handle() - error: {}", e.getMessage());
+            respond(exchange, 500, "text/plain", "Internal error");
+        } finally {
+            exchange.close();
+        }
+    }
+
+
+    private void logon(HttpExchange exchange) throws IOException {
+        if("DELETE".equals(exchange.getRequestMethod())) {
+            sessions.remove(String.valueOf(exchange.getRequestHeaders().getFirst("X-API-Session")));
+            exchange.sendResponseHeaders(204, -1);
+            return;
+        }
+
+        String token = UUID.randomUUID().toString();
+        sessions.add(token);
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>");
+        xml.append("<LogonResponse xmlns=\"").append(WEB_NS).append("\" schemaVersion=\"V1_0\">");
+        xml.append("<Metadata><Atom/></Metadata>");
+        xml.append("<X-API-Session kb=\"ROR\" kxe=\"false\">").append(token).append("</X-API-Session>");
+        xml.append("</LogonResponse>");
+        respond(exchange, 200, "application/vnd.ibm.powervm.web+xml; type=LogonResponse", xml.toString());
+    }
+
+
+    private SimSystem system(String id) {
+        SimSystem system = systems.get(id);
+        if(system == null) {
+            throw new IllegalArgumentException("Unknown system: " + id);
+        }
+        return system;
+    }
+
+
+    /*
+        UOM documents
+     */
+
+    private String managementConsole(String baseUrl) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<feed xmlns=\"http://www.w3.org/2005/Atom\">");
+        xml.append("<id>").append(consoleId).append("</id>");
+        xml.append("<entry><id>").append(consoleId).append("</id><title>ManagementConsole</title>");
+        xml.append("<content type=\"application/vnd.ibm.powervm.uom+xml; type=ManagementConsole\">");
+        xml.append("<ManagementConsole:ManagementConsole xmlns:ManagementConsole=\"").append(UOM_NS).append("\" xmlns=\"").append(UOM_NS).append("\" schemaVersion=\"V1_0\">");
+        xml.append("<Metadata><Atom><AtomID>").append(consoleId).append("</AtomID></Atom></Metadata>");
+        machineTypeModelAndSerialNumber(xml, "MachineTypeModelAndSerialNumber", "7063", "CR2", "SIMHMC1");
+        xml.append("<ManagedSystems>");
+        for(SimSystem system : systems.values()) {
+            link(xml, String.format("%s/rest/api/uom/ManagementConsole/%s/ManagedSystem/%s", baseUrl, consoleId, system.id));
+        }
+        xml.append("</ManagedSystems>");
+        xml.append("<ManagementConsoleName>simulator</ManagementConsoleName>");
+        xml.append("</ManagementConsole:ManagementConsole></content></entry></feed>");
+        return xml.toString();
+    }
+
+
+    private String managedSystem(String baseUrl, SimSystem system) {
+        StringBuilder xml = new StringBuilder();
+        entryStart(xml, system.id, "ManagedSystem");
+        xml.append("<ActivatedLevel>145</ActivatedLevel>");
+        xml.append("<ActivatedServicePackNameAndLevel>FW950.50 (145)</ActivatedServicePackNameAndLevel>");
+        xml.append("<AssociatedLogicalPartitions>");
+        for(SimPartition partition : system.partitions) {
+            link(xml, String.format("%s/rest/api/uom/ManagedSystem/%s/LogicalPartition/%s", baseUrl, system.id, partition.id));
+        }
+        xml.append("</AssociatedLogicalPartitions>");
+        xml.append("<AssociatedVirtualIOServers>");
+        for(SimPartition vios : system.vios) {
+            link(xml, String.format("%s/rest/api/uom/ManagedSystem/%s/VirtualIOServer/%s", baseUrl, system.id, vios.id));
+        }
+        xml.append("</AssociatedVirtualIOServers>");
+        machineTypeModelAndSerialNumber(xml, "MachineTypeModelAndSerialNumber", system.machineType, system.model, system.serial);
+        xml.append("<State>operating</State>");
+        xml.append("<SystemName>").append(system.name).append("</SystemName>");
+        xml.append("<SystemFirmware>VL950_FW950.50 (145)</SystemFirmware>");
+        entryEnd(xml, "ManagedSystem");
+        return xml.toString();
+    }
+
+
+    private String logicalPartition(SimPartition partition) {
+        StringBuilder xml = new StringBuilder();
+        entryStart(xml, partition.id, "LogicalPartition");
+        xml.append("<PartitionID>").append(partition.partitionId).append("</PartitionID>");
+        xml.append("<PartitionName>").append(partition.name).append("</PartitionName>");
+        xml.append("<PartitionState>running</PartitionState>");
+        xml.append("<PartitionType>AIX/Linux</PartitionType>");
+        xml.append("<PartitionUUID>").append(partition.id).append("</PartitionUUID>");
+        xml.append("<OperatingSystemType>").append(partition.osType).append("</OperatingSystemType>");
+        entryEnd(xml, "LogicalPartition");
+        return xml.toString();
+    }
+
+
+    private String virtualIOServer(SimPartition vios) {
+        StringBuilder xml = new StringBuilder();
+        entryStart(xml, vios.id, "VirtualIOServer");
+        xml.append("<PartitionID>").append(vios.partitionId).append("</PartitionID>");
+        xml.append("<PartitionName>").append(vios.name).append("</PartitionName>");
+        xml.append("<PartitionState>running</PartitionState>");
+        xml.append("<PartitionType>Virtual IO Server</PartitionType>");
+        entryEnd(xml, "VirtualIOServer");
+        return xml.toString();
+    }
+
+
+    private String preferences(String baseUrl, SimSystem system) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<feed xmlns=\"http://www.w3.org/2005/Atom\">");
+        xml.append("<id>").append(system.id).append("</id>");
+        xml.append("<entry><id>").append(system.id).append("</id>");
+        xml.append("<content type=\"application/xml\">");
+        xml.append("<ManagedSystemPcmPreference:ManagedSystemPcmPreference xmlns:ManagedSystemPcmPreference=\"").append(PCM_NS).append("\" xmlns=\"").append(PCM_NS).append("\" schemaVersion=\"V1_0\">");
+        xml.append("<Metadata><Atom><AtomID>").append(system.id).append("</AtomID></Atom></Metadata>");
+        xml.append("<SystemName>").append(system.name).append("</SystemName>");
+        machineTypeModelAndSerialNumber(xml, "MachineTypeModelSerialNumber", system.machineType, system.model, system.serial);
+        xml.append("<EnergyMonitoringCapable>true</EnergyMonitoringCapable>");
+        xml.append("<LongTermMonitorEnabled>true</LongTermMonitorEnabled>");
+        xml.append("<AggregationEnabled>true</AggregationEnabled>");
+        xml.append("<ShortTermMonitorEnabled>false</ShortTermMonitorEnabled>");
+        xml.append("<EnergyMonitorEnabled>true</EnergyMonitorEnabled>");
+        xml.append("<AssociatedManagedSystem href=\"").append(baseUrl).append("/rest/api/uom/ManagedSystem/").append(system.id).append("\" rel=\"related\"/>");
+        xml.append("</ManagedSystemPcmPreference:ManagedSystemPcmPreference></content></entry></feed>");
+        return xml.toString();
+    }
+
+
+    private static void entryStart(StringBuilder xml, String id, String type) {
+        xml.append("<entry xmlns=\"http://www.w3.org/2005/Atom\">");
+        xml.append("<id>").append(id).append("</id><title>").append(type).append("</title>");
+        xml.append("<content type=\"application/vnd.ibm.powervm.uom+xml; type=").append(type).append("\">");
+        xml.append("<").append(type).append(":").append(type).append(" xmlns:").append(type).append("=\"").append(UOM_NS).append("\" xmlns=\"").append(UOM_NS).append("\" schemaVersion=\"V1_0\">");
+        xml.append("<Metadata><Atom><AtomID>").append(id).append("</AtomID></Atom></Metadata>");
+    }
+
+
+    private static void entryEnd(StringBuilder xml, String type) {
+        xml.append("</").append(type).append(":").append(type).append("></content></entry>");
+    }
+
+
+    private static void machineTypeModelAndSerialNumber(StringBuilder xml, String element, String machineType, String model, String serial) {
+        xml.append("<").append(element).append(" schemaVersion=\"V1_0\"><Metadata><Atom/></Metadata>");
+        xml.append("<MachineType>").append(machineType).append("</MachineType>");
+        xml.append("<Model>").append(model).append("</Model>");
+        xml.append("<SerialNumber>").append(serial).append("</SerialNumber>");
+        xml.append("</").append(element).append(">");
+    }
+
+
+    private static void link(StringBuilder xml, String href) {
+        xml.append("<link href=\"").append(href).append("\" rel=\"related\"/>");
+    }
+
+
+    /*
+        PCM feeds and metrics
+     */
+
+    /**
+     * Feed linking to one JSON document with the requested samples, like the HMC for NoOfSamples or StartTS/EndTS.
+     * The feed of a system also lists its partitions, as the HMC does.
+     */
+    private String feed(String baseUrl, SimSystem system, SimPartition partition, Map<String, String> query) {
+        long now = clock.instant().getEpochSecond() / FREQUENCY * FREQUENCY;
+        long start;
+        long end;
+        if(query.containsKey("StartTS")) {
+            start = (parseTimestamp(query.get("StartTS")) + FREQUENCY - 1) / FREQUENCY * FREQUENCY;
+            end = query.containsKey("EndTS") ? Math.min(now, parseTimestamp(query.get("EndTS")) / FREQUENCY * FREQUENCY) : now;
+        } else {
+            int samples = query.containsKey("NoOfSamples") ? Integer.parseInt(query.get("NoOfSamples")) : 1;
+            end = now;
+            start = now - (long) (samples - 1) * FREQUENCY;
+        }
+        start = Math.max(start, now - (long) (MAX_SAMPLES - 1) * FREQUENCY);
+
+        String kind = (partition != null) ? "LogicalPartition" : ("Energy".equals(query.get("Type")) ? "Energy" : "ManagedSystem");
+        String file = (partition != null)
+            ? String.format("%s_%s_%s_%d_%d.json", kind, system.id, partition.id, start, end)
+            : String.format("%s_%s_%d_%d.json", kind, system.id, start, end);
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<feed xmlns=\"http://www.w3.org/2005/Atom\">");
+        xml.append("<id>").append(partition != null ? partition.id : system.id).append("</id>");
+        xml.append("<updated>").append(FEED_FORMAT.format(Instant.ofEpochSecond(end))).append("</updated>");
+        xml.append("<title type=\"text\">ProcessedMetrics</title>");
+        if(start <= end) {
+            xml.append("<entry><id>").append(UUID.nameUUIDFromBytes(file.getBytes(StandardCharsets.UTF_8))).append("</id>");
+            xml.append("<updated>").append(FEED_FORMAT.format(Instant.ofEpochSecond(end))).append("</updated>");
+            xml.append("<title type=\"text\">").append(file).append("</title>");
+            xml.append("<published>").append(FEED_FORMAT.format(Instant.ofEpochSecond(start))).append("</published>");
+            xml.append("<link type=\"application/json\" href=\"").append(baseUrl).append("/rest/api/pcm/ProcessedMetrics/").append(file).append("\"/>");
+            xml.append("<category term=\"").append(partition != null ? "LogicalPartition" : "ManagedSystem").append("\" frequency=\"").append(FREQUENCY).append("\"/>");
+            xml.append("</entry>");
+        }
+        if(partition == null && !"Energy".equals(kind)) {
+            for(SimPartition lpar : system.partitions) {
+                xml.append("<entry><id>").append(lpar.id).append("</id>");
+                xml.append("<updated>").append(FEED_FORMAT.format(Instant.ofEpochSecond(end))).append("</updated>");
+                xml.append("<link type=\"application/atom+xml\" href=\"").append(baseUrl).append("/rest/api/pcm/ManagedSystem/").append(system.id).append("/LogicalPartition/").append(lpar.id).append("/ProcessedMetrics\"/>");
+                xml.append("<category term=\"LogicalPartition\"/>");
+                xml.append("</entry>");
+            }
+        }
+        xml.append("</feed>");
+        return xml.toString();
+    }
+
+
+    private String metrics(Matcher matcher) throws IOException {
+        String kind = matcher.group(1);
+        SimSystem system = system(matcher.group(2));
+        SimPartition partition = (matcher.group(3) != null) ? system.find(matcher.group(3)) : null;
+        long start = Long.parseLong(matcher.group(4));
+        long end = Long.parseLong(matcher.group(5));
+        if(end - start > (long) MAX_SAMPLES * FREQUENCY) {
+            throw new IllegalArgumentException("Too many samples");
+        }
+
+        List<Object> samples = new ArrayList<>();
+        for(long timestamp = start; timestamp <= end; timestamp += FREQUENCY) {
+            if(kind.equals("LogicalPartition")) {
+                samples.add(partitionSample(system, partition, timestamp));
+            } else if(kind.equals("Energy")) {
+                samples.add(energySample(system, timestamp));
+            } else {
+                samples.add(systemSample(system, timestamp));
+            }
+        }
+
+        Map<String, Object> utilInfo = map(
+            "version", "1.3.0",
+            "metricType", "Processed",
+            "frequency", FREQUENCY,
+            "startTimeStamp", SAMPLE_FORMAT.format(Instant.ofEpochSecond(start)),
+            "endTimeStamp", SAMPLE_FORMAT.format(Instant.ofEpochSecond(end)),
+            "mtms", String.format("%s-%s*%s", system.machineType, system.model, system.serial),
+            "name", system.name,
+            "uuid", system.id,
+            "metricArrayOrder", Collections.singletonList("AVG"));
+        return objectMapper.writeValueAsString(map("systemUtil", map("utilInfo", utilInfo, "utilSamples", samples)));
+    }
+
+
+    private Map<String, Object> systemSample(SimSystem system, long timestamp) {
+        SplittableRandom random = random(system.id, timestamp);
+        double utilized = system.procUnits * (0.2 + 0.6 * random.nextDouble());
+        double assignedMem = system.partitions.size() * 16384.0 + system.vios.size() * 8192.0;
+
+        List<Object> viosUtil = new ArrayList<>();
+        for(SimPartition vios : system.vios) {
+            viosUtil.add(viosSample(system, vios, timestamp));
+        }
+
+        return map(
+            "sampleType", "ManagedSystem",
+            "sampleInfo", sampleInfo(timestamp),
+            "systemFirmwareUtil", map("utilizedProcUnits", v(0.01 * random.nextDouble()), "assignedMem", v(8192.0)),
+            "serverUtil", map(
+                "processor", map("totalProcUnits", v(system.procUnits), "utilizedProcUnits", v(utilized), "availableProcUnits", v(system.procUnits - utilized), "configurableProcUnits", v(system.procUnits)),
+                "memory", map("totalMem", v(system.memory), "availableMem", v(system.memory - assignedMem), "configurableMem", v(system.memory), "assignedMemToLpars", v(assignedMem)),
+                "physicalProcessorPool", map("assignedProcUnits", v(system.procUnits), "utilizedProcUnits", v(utilized), "availableProcUnits", v(system.procUnits - utilized), "configuredProcUnits", v(0.0), "borrowedProcUnits", v(0.0)),
+                "sharedProcessorPool", Collections.singletonList(map("id", 0, "name", "DefaultPool", "assignedProcUnits", v(system.procUnits), "utilizedProcUnits", v(utilized), "availableProcUnits", v(system.procUnits - utilized), "configuredProcUnits", v(0.0), "borrowedProcUnits", v(0.0)))),
+            "viosUtil", viosUtil);
+    }
+
+
+    private Map<String, Object> viosSample(SimSystem system, SimPartition vios, long timestamp) {
+        SplittableRandom random = random(vios.id, timestamp);
+        List<Object> genericAdapters = new ArrayList<>();
+        List<Object> sharedAdapters = new ArrayList<>();
+        List<Object> virtualEthernetAdapters = new ArrayList<>();
+        List<Object> genericPhysicalAdapters = new ArrayList<>();
+        List<Object> genericVirtualAdapters = new ArrayList<>();
+        List<Object> fiberChannelAdapters = new ArrayList<>();
+        for(int a = 0; a < adapters; a++) {
+            String location = String.format("U78D5.ND1.CSS%s-P1-C%d-T1", system.serial, a + 1);
+            genericAdapters.add(ethernet(random, map("id", "ent" + a, "type", "physical", "physicalLocation", location)));
+            sharedAdapters.add(ethernet(random, map("id", "ent" + (adapters + a), "type", "sea", "physicalLocation", virtualLocation(system, vios, a), "bridgedAdapters", Collections.singletonList("ent" + a))));
+            virtualEthernetAdapters.add(virtualEthernet(random, map("physicalLocation", virtualLocation(system, vios, 100 + a), "vlanId", a + 1, "vswitchId", 0, "isPortVlanId", true)));
+            genericPhysicalAdapters.add(storage(random, map("id", "sissas" + a, "type", "sas", "physicalLocation", location)));
+            genericVirtualAdapters.add(storage(random, map("id", "vhost" + a, "type", "virtual", "physicalLocation", virtualLocation(system, vios, 200 + a))));
+            fiberChannelAdapters.add(storage(random, map("id", "fcs" + a, "wwpn", String.format("10000090fa%06x", a), "physicalLocation", location, "numOfPorts", 1, "runningSpeed", v(16.0))));
+        }
+
+        double entitled = 1.0;
+        double utilized = entitled * random.nextDouble();
+        return map(
+            "id", vios.partitionId,
+            "uuid", vios.id,
+            "name", vios.name,
+            "state", "Running",
+            "affinityScore", 100,
+            "memory", map("assignedMem", v(8192.0), "utilizedMem", v(2048.0 + 4096.0 * random.nextDouble())),
+            "processor", processor(random, entitled, utilized, "share_idle_procs_active"),
+            "network", map("genericAdapters", genericAdapters, "sharedAdapters", sharedAdapters, "virtualEthernetAdapters", virtualEthernetAdapters),
+            "storage", map("genericPhysicalAdapters", genericPhysicalAdapters, "genericVirtualAdapters", genericVirtualAdapters, "fiberChannelAdapters", fiberChannelAdapters));
+    }
+
+
+    private Map<String, Object> partitionSample(SimSystem system, SimPartition partition, long timestamp) {
+        SplittableRandom random = random(partition.id, timestamp);
+        List<Object> virtualEthernetAdapters = new ArrayList<>();
+        List<Object> genericVirtualAdapters = new ArrayList<>();
+        List<Object> virtualFiberChannelAdapters = new ArrayList<>();
+        for(int a = 0; a < adapters; a++) {
+            int viosId = system.vios.isEmpty() ? 0 : system.vios.get(a % system.vios.size()).partitionId;
+            virtualEthernetAdapters.add(virtualEthernet(random, map("physicalLocation", virtualLocation(system, partition, 32 + a), "vlanId", a + 1, "vswitchId", 0, "isPortVlanId", true, "viosId", viosId, "sharedEthernetAdapterId", "ent" + (adapters + a))));
+            genericVirtualAdapters.add(storage(random, map("id", "vhost" + a, "type", "virtual", "viosId", viosId, "physicalLocation", virtualLocation(system, partition, 2 + a))));
+            virtualFiberChannelAdapters.add(storage(random, map("wwpn", String.format("c050760b%08x", partition.partitionId * 64 + a * 2), "wwpn2", String.format("c050760b%08x", partition.partitionId * 64 + a * 2 + 1), "physicalLocation", virtualLocation(system, partition, 16 + a), "physicalPortWWPN", String.format("10000090fa%06x", a), "viosId", viosId, "runningSpeed", v(16.0))));
+        }
+
+        double entitled = 0.5 + (partition.partitionId % 8) * 0.25;
+        double utilized = entitled * 1.5 * random.nextDouble();
+        return map(
+            "sampleType", "LogicalPartition",
+            "sampleInfo", sampleInfo(timestamp),
+            "lparsUtil", Collections.singletonList(map(
+                "id", partition.partitionId,
+                "uuid", partition.id,
+                "name", partition.name,
+                "state", "Running",
+                "type", "AIX/Linux",
+                "osType", partition.osType,
+                "affinityScore", 100,
+                "memory", map("logicalMem", v(16384.0), "backedPhysicalMem", v(16384.0)),
+                "processor", processor(random, entitled, utilized, "uncap"),
+                "network", map("virtualEthernetAdapters", virtualEthernetAdapters),
+                "storage", map("genericVirtualAdapters", genericVirtualAdapters, "virtualFiberChannelAdapters", virtualFiberChannelAdapters))));
+    }
+
+
+    private Map<String, Object> energySample(SimSystem system, long timestamp) {
+        SplittableRandom random = random(system.id + "-energy", timestamp);
+        return map(
+            "sampleType", "ManagedSystem",
+            "sampleInfo", sampleInfo(timestamp),
+            "energyUtil", map(
+                "powerUtil", map("powerReading", v(1500.0 + 500.0 * random.nextDouble())),
+                "thermalUtil", map(
+                    "inletTemperatures", Collections.singletonList(temperature("Inlet air temperature(40h)", 22.0 + 4.0 * random.nextDouble())),
+                    "cpuTemperatures", Collections.singletonList(temperature("CPU temperature sensors(41h)", 50.0 + 15.0 * random.nextDouble())),
+                    "baseboardTemperatures", Collections.singletonList(temperature("Baseboard temperature sensors(42h)", 40.0 + 5.0 * random.nextDouble())))));
+    }
+
+
+    private static Map<String, Object> processor(SplittableRandom random, double entitled, double utilized, String mode) {
+        double capped = Math.min(utilized, entitled);
+        return map(
+            "poolId", 0,
+            "weight", 128,
+            "mode", mode,
+            "maxVirtualProcessors", v(Math.ceil(entitled * 2)),
+            "currentVirtualProcessors", v(Math.ceil(entitled * 2)),
+            "maxProcUnits", v(entitled * 2),
+            "entitledProcUnits", v(entitled),
+            "utilizedProcUnits", v(utilized),
+            "utilizedCappedProcUnits", v(capped),
+            "utilizedUncappedProcUnits", v(utilized - capped),
+            "idleProcUnits", v(entitled - capped),
+            "donatedProcUnits", v(0.0),
+            "timeSpentWaitingForDispatch", v(random.nextDouble()),
+            "timePerInstructionExecution", v(50.0));
+    }
+
+
+    private static Map<String, Object> ethernet(SplittableRandom random, Map<String, Object> adapter) {
+        double received = 100000.0 * random.nextDouble();
+        double sent = 100000.0 * random.nextDouble();
+        adapter.put("receivedPackets", v(received / 1000));
+        adapter.put("sentPackets", v(sent / 1000));
+        adapter.put("droppedPackets", v(0.0));
+        adapter.put("sentBytes", v(sent));
+        adapter.put("receivedBytes", v(received));
+        adapter.put("transferredBytes", v(sent + received));
+        return adapter;
+    }
+
+
+    private static Map<String, Object> virtualEthernet(SplittableRandom random, Map<String, Object> adapter) {
+        ethernet(random, adapter);
+        adapter.put("receivedPhysicalPackets", adapter.get("receivedPackets"));
+        adapter.put("sentPhysicalPackets", adapter.get("sentPackets"));
+        adapter.put("droppedPhysicalPackets", v(0.0));
+        adapter.put("sentPhysicalBytes", adapter.get("sentBytes"));
+        adapter.put("receivedPhysicalBytes", adapter.get("receivedBytes"));
+        adapter.put("transferredPhysicalBytes", adapter.get("transferredBytes"));
+        return adapter;
+    }
+
+
+    private static Map<String, Object> storage(SplittableRandom random, Map<String, Object> adapter) {
+        double read = 1000000.0 * random.nextDouble();
+        double written = 1000000.0 * random.nextDouble();
+        adapter.put("numOfReads", v(read / 4096));
+        adapter.put("numOfWrites", v(written / 4096));
+        adapter.put("readBytes", v(read));
+        adapter.put("writeBytes", v(written));
+        adapter.put("transmittedBytes", v(read + written));
+        return adapter;
+    }
+
+
+    private static Map<String, Object> temperature(String entityId, double reading) {
+        return map("entityId", entityId, "entityInstance", "1", "temperatureReading", v(reading));
+    }
+
+
+    private static Map<String, Object> sampleInfo(long timestamp) {
+        return map("timeStamp", SAMPLE_FORMAT.format(Instant.ofEpochSecond(timestamp)), "status", 0);
+    }
+
+
+    private static String virtualLocation(SimSystem system, SimPartition partition, int slot) {
+        return String.format("U%s.%s.%s-V%d-C%d", system.machineType, system.model, system.serial, partition.partitionId, slot);
+    }
+
+
+    // The same resource and timestamp always give the same values
+    private static SplittableRandom random(String id, long timestamp) {
+        return new SplittableRandom(id.hashCode() * 31L + timestamp);
+    }
+
+
+    // Metric values are arrays, with one value per entry in 'metricArrayOrder'
+    private static List<Double> v(double value) {
+        return Collections.singletonList(Math.round(value * 1000.0) / 1000.0);
+    }
+
+
+    private static Map<String, Object> map(Object... keyValues) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for(int i = 0; i < keyValues.length; i += 2) {
+            map.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return map;
+    }
+
+
+    private static long parseTimestamp(String timestamp) {
+        return Instant.from(SAMPLE_FORMAT.parse(timestamp)).getEpochSecond();
+    }
+
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new LinkedHashMap<>();
+        if(rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for(String pair : rawQuery.split("&")) {
+            int idx = pair.indexOf('=');
+            if(idx > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, idx), "UTF-8"), URLDecoder.decode(pair.substring(idx + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+
+    /**
+     * UOM documents are answered with an ETag, and 304 when the client already has them.
+     */
+    private void respondUom(HttpExchange exchange, String xml) throws IOException {
+        String etag = String.valueOf(xml.hashCode());
+        exchange.getResponseHeaders().set("ETag", etag);
+        if(etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        respond(exchange, 200, "application/atom+xml", xml);
+    }
+
+
+    private void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+
+    private static final class SimSystem {
+        final String id;
+        final String name;
+        final String machineType = "9080";
+        final String model = "HEX";
+        final String serial;
+        final double procUnits;
+        final double memory;
+        final List<SimPartition> vios = new ArrayList<>();
+        final List<SimPartition> partitions = new ArrayList<>();
+
+        SimSystem(int index) {
+            this.id = UUID.nameUUIDFromBytes(("system-" + index).getBytes(StandardCharsets.UTF_8)).toString();
+            this.serial = String.format("SIM%04d", index);
+            this.name = String.format("Server-%s-%s-SN%s", machineType, model, serial);
+            this.procUnits = 96.0;
+            this.memory = 4194304.0;
+        }
+
+        SimPartition find(String id) {
+            for(SimPartition partition : partitions) {
+                if(partition.id.equals(id)) {
+                    return partition;
+                }
+            }
+            for(SimPartition partition : vios) {
+                if(partition.id.equals(id)) {
+                    return partition;
+                }
+            }
+            throw new IllegalArgumentException("Unknown partition: " + id);
+        }
+    }
+
+
+    private static final class SimPartition {
+        final String id;
+        final int partitionId;
+        final String name;
+        final String osType;
+
+        SimPartition(SimSystem system, int partitionId, String name) {
+            this.id = UUID.nameUUIDFromBytes((system.id + "-" + partitionId).getBytes(StandardCharsets.UTF_8)).toString().toUpperCase();
+            this.partitionId = partitionId;
+            this.name = name;
+            this.osType = (partitionId % 3 == 0) ? "AIX" : "Linux";
+        }
+    }
+
+}
@@ -17,7 +17,12 @@ package biz.nellemann.hmci;
 
 import static java.lang.Thread.sleep;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +33,10 @@ import com.influxdb.client.WriteApi;
 import com.influxdb.client.WriteOptions;
 import com.influxdb.client.domain.WritePrecision;
 import com.influxdb.client.write.Point;
+import com.influxdb.client.write.events.BackpressureEvent;
+import com.influxdb.client.write.events.WriteErrorEvent;
+import com.influxdb.client.write.events.WriteRetriableErrorEvent;
+import com.influxdb.client.write.events.WriteSuccessEvent;
 
 import biz.nellemann.hmci.dto.toml.InfluxConfiguration;
 
@@ -35,6 +44,9 @@ import biz.nellemann.hmci.dto.toml.InfluxConfiguration;
 public final class InfluxClient {
 
     private final static Logger log = LoggerFactory.getLogger(InfluxClient.class);
+    private final static int BATCH_SIZE = 15_000;
+    private final static long TELEMETRY_INTERVAL_MILLIS = 60_000;
+    private final static String[] TELEMETRY_MEASUREMENTS = { "hmci_sink", "hmci_points" };
 
     final private String url;
     final private String org;   // v2 only
@@ -44,6 +56,24 @@ public final class InfluxClient {
 
     private InfluxDBClient influxDBClient;
     private WriteApi writeApi;
+    private QuantileAggregator quantileAggregator;
+    private LatestValueStore latestValueStore;
+    private HistoryStore historyStore;
+
+    // Write telemetry, emitted as 'hmci_sink' and 'hmci_points'
+    private final Map<String, LongAdder> pointsByMeasurement = new ConcurrentHashMap<>();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder backpressure = new LongAdder();
+    private final AtomicLong lastTelemetry = new AtomicLong(System.currentTimeMillis());
+
+    // Totals at the last telemetry point, as these counters also give the queue depth and are not reset
+    private volatile long reportedSubmitted = 0;
+    private volatile long reportedWritten = 0;
+    private volatile long reportedDropped = 0;
 
 
     InfluxClient(InfluxConfiguration config) {
@@ -83,13 +113,13 @@ public final class InfluxClient {
                 influxDBClient.version(); // This ensures that we actually try to connect to the db
                 Runtime.getRuntime().addShutdownHook(new Thread(influxDBClient::close));
 
-                // Todo: Handle events - https://github.com/influxdata/influxdb-client-java/tree/master/client#handle-the-events
                 writeApi = influxDBClient.makeWriteApi(
                     WriteOptions.builder()
-                        .batchSize(15_000)
+                        .batchSize(BATCH_SIZE)
                         .bufferLimit(500_000)
                         .flushInterval(5_000)
                         .build());
+                listenEvents(writeApi);
 
                 connected = true;
 
@@ -115,17 +145,179 @@ public final class InfluxClient {
     }
 
 
+    /**
+     * Enable per-series quantile sketches for the measurements passing through this client.
+     */
+    void setQuantileAggregator(QuantileAggregator quantileAggregator) {
+        this.quantileAggregator = quantileAggregator;
+    }
+
+
+    /**
+     * Keep the latest values of the measurements passing through this client.
+     */
+    void setLatestValueStore(LatestValueStore latestValueStore) {
+        this.latestValueStore = latestValueStore;
+    }
+
+
+    /**
+     * Keep a short-retention local history of the measurements passing through this client.
+     */
+    void setHistoryStore(HistoryStore historyStore) {
+        this.historyStore = historyStore;
+    }
+
+
+    /**
+     * Count the points written, and those lost when a batch fails after all retries. The error events
+     * do not tell the size of the failed batch, so the points dropped are estimated as a full batch,
+     * or what is still queued, whichever is smaller.
+     */
+    private void listenEvents(WriteApi writeApi) {
+        writeApi.listenEvents(WriteSuccessEvent.class, event -> {
+            long lines = countLines(event.getLineProtocol());
+            written.add(lines);
+            FlightEvents.sinkFlush(lines, true);
+        });
+        writeApi.listenEvents(WriteErrorEvent.class, event -> {
+            writeErrors.increment();
+            long lost = Math.min(BATCH_SIZE, getQueueDepth());
+            dropped.add(lost);
+            FlightEvents.sinkFlush(lost, false);
+            log.warn("write() - error: {}", event.getThrowable().getMessage());
+        });
+        writeApi.listenEvents(WriteRetriableErrorEvent.class, event -> retries.increment());
+        writeApi.listenEvents(BackpressureEvent.class, event -> backpressure.increment());
+    }
+
+
+    /**
+     * Count the lines of a written batch, leaving out the telemetry of this client itself,
+     * which is never counted as submitted.
+     */
+    static long countLines(String lineProtocol) {
+        if(lineProtocol == null || lineProtocol.isEmpty()) {
+            return 0;
+        }
+        long lines = 0;
+        int start = 0;
+        while(start < lineProtocol.length()) {
+            int end = lineProtocol.indexOf('\n', start);
+            if(end < 0) {
+                end = lineProtocol.length();
+            }
+            if(end > start && !isTelemetry(lineProtocol, start)) {
+                lines++;
+            }
+            start = end + 1;
+        }
+        return lines;
+    }
+
+
+    private static boolean isTelemetry(String lineProtocol, int start) {
+        for(String measurement : TELEMETRY_MEASUREMENTS) {
+            int end = start + measurement.length();
+            if(lineProtocol.startsWith(measurement, start) && end < lineProtocol.length()
+                && (lineProtocol.charAt(end) == ',' || lineProtocol.charAt(end) == ' ')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * @return points submitted to the write buffer, and not yet written or dropped
+     */
+    long getQueueDepth() {
+        return Math.max(0, submitted.sum() - written.sum() - dropped.sum());
+    }
+
+
     public void write(List<Measurement> measurements, String name) {
         log.debug("write() - measurement: {} {}", name, measurements.size());
+        writeTelemetry();
+        if(latestValueStore != null) {
+            latestValueStore.update(measurements, name);
+        }
+        if(historyStore != null) {
+            historyStore.append(measurements, name);
+        }
+
         if(!measurements.isEmpty()) {
-            processMeasurementMap(measurements, name).forEach((point) -> {
-                writeApi.writePoint(point);
-            });
+            writePoints(measurements, name);
+        }
+
+        if(quantileAggregator != null) {
+            quantileAggregator.record(measurements, name);
+            quantileAggregator.drain().forEach((quantileName, quantileMeasurements) -> writePoints(quantileMeasurements, quantileName));
         }
     }
 
 
-    private List<Point> processMeasurementMap(List<Measurement> measurements, String name) {
+    private void writePoints(List<Measurement> measurements, String name) {
+        Object event = FlightEvents.beginSinkWrite();
+        processMeasurementMap(measurements, name).forEach((point) -> {
+            writeApi.writePoint(point);
+        });
+        FlightEvents.commitSinkWrite(event, name, measurements.size());
+        submitted.add(measurements.size());
+        pointsByMeasurement.computeIfAbsent(name, k -> new LongAdder()).add(measurements.size());
+    }
+
+
+    /**
+     * Write the counters of this client about once a minute, from whichever thread is writing.
+     * Like the other internal metrics, the counts are for the interval since the last point.
+     */
+    private void writeTelemetry() {
+        long now = System.currentTimeMillis();
+        long last = lastTelemetry.get();
+        if(now - last < TELEMETRY_INTERVAL_MILLIS || !lastTelemetry.compareAndSet(last, now)) {
+            return;
+        }
+
+        long submittedTotal = submitted.sum();
+        long writtenTotal = written.sum();
+        long droppedTotal = dropped.sum();
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("submitted", submittedTotal - reportedSubmitted);
+        fields.put("written", writtenTotal - reportedWritten);
+        fields.put("dropped", droppedTotal - reportedDropped);
+        fields.put("queueDepth", getQueueDepth());
+        fields.put("writeErrors", writeErrors.sumThenReset());
+        fields.put("retries", retries.sumThenReset());
+        fields.put("backpressure", backpressure.sumThenReset());
+        reportedSubmitted = submittedTotal;
+        reportedWritten = writtenTotal;
+        reportedDropped = droppedTotal;
+        List<Measurement> sink = new ArrayList<>();
+        sink.add(new Measurement(new HashMap<>(), fields));
+        writeUncounted(sink, "hmci_sink");
+
+        List<Measurement> points = new ArrayList<>();
+        pointsByMeasurement.forEach((name, count) -> {
+            Map<String, String> tags = new HashMap<>();
+            tags.put("measurement", name);
+            Map<String, Object> countFields = new HashMap<>();
+            countFields.put("points", count.sumThenReset());
+            points.add(new Measurement(tags, countFields));
+        });
+        writeUncounted(points, "hmci_points");
+    }
+
+
+    /**
+     * Write the telemetry of this client, without counting it in the figures it reports.
+     */
+    private void writeUncounted(List<Measurement> measurements, String name) {
+        processMeasurementMap(measurements, name).forEach(writeApi::writePoint);
+    }
+
+
+    List<Point> processMeasurementMap(List<Measurement> measurements, String name) {
         List<Point> listOfPoints = new ArrayList<>();
         measurements.forEach( (m) -> {
             log.trace("processMeasurementMap() - timestamp: {}, tags: {}, fields: {}", m.timestamp, m.tags, m.fields);
@@ -0,0 +1,190 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Java Flight Recorder events of HMCi. This class is only loaded through FlightEvents, after
+ * checking that the JDK has the jdk.jfr module, so do not use it elsewhere.
+ */
+final class JfrEvents {
+
+    private JfrEvents() {
+    }
+
+
+    static boolean isAvailable() {
+        return jdk.jfr.FlightRecorder.isAvailable();
+    }
+
+
+    // Only Object is passed to FlightEvents, so loading it does not load any jdk.jfr class
+    private static Object begin(Event event) {
+        if(!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+
+    static Object beginRequest() {
+        return begin(new HmcRequest());
+    }
+
+
+    static Object beginDeserialize() {
+        return begin(new Deserialize());
+    }
+
+
+    static Object beginProcess() {
+        return begin(new ProcessSamples());
+    }
+
+
+    static Object beginSinkWrite() {
+        return begin(new SinkWrite());
+    }
+
+
+    @Name("biz.nellemann.hmci.HmcRequest")
+    @Label("HMC Request")
+    @Description("Request to an HMC, until the response body is closed")
+    @Category("HMCi")
+    @StackTrace(false)
+    static final class HmcRequest extends Event {
+        @Label("Host") String host;
+        @Label("Method") String method;
+        @Label("Endpoint") @Description("Request path with id's and file names replaced by '*'") String endpoint;
+        @Label("Status") int status;
+        @Label("Wire Bytes") @DataAmount long wireBytes;
+        @Label("Decoded Bytes") @DataAmount long decodedBytes;
+    }
+
+
+    @Name("biz.nellemann.hmci.Deserialize")
+    @Label("Deserialize Metrics")
+    @Category("HMCi")
+    @StackTrace(false)
+    static final class Deserialize extends Event {
+        @Label("Resource Type") String resourceType;
+        @Label("Resource") String resource;
+        @Label("JSON Length") @DataAmount long length;
+        @Label("Samples") int samples;
+    }
+
+
+    @Name("biz.nellemann.hmci.ProcessSamples")
+    @Label("Process Samples")
+    @Description("Building the measurements of the new samples of one resource")
+    @Category("HMCi")
+    @StackTrace(false)
+    static final class ProcessSamples extends Event {
+        @Label("Resource Type") String resourceType;
+        @Label("Resource") String resource;
+        @Label("Samples") int samples;
+        @Label("Processed") int processed;
+    }
+
+
+    @Name("biz.nellemann.hmci.SinkWrite")
+    @Label("Sink Write")
+    @Description("Measurements handed to the InfluxDB write buffer")
+    @Category("HMCi")
+    @StackTrace(false)
+    static final class SinkWrite extends Event {
+        @Label("Measurement") String measurement;
+        @Label("Points") int points;
+    }
+
+
+    @Name("biz.nellemann.hmci.SinkFlush")
+    @Label("Sink Flush")
+    @Description("Batch written to InfluxDB")
+    @Category("HMCi")
+    @StackTrace(false)
+    static final class SinkFlush extends Event {
+        @Label("Points") long points;
+        @Label("Success") boolean success;
+    }
+
+
+    static void commitRequest(Object event, String host, String method, String endpoint, int status, long wireBytes, long decodedBytes) {
+        HmcRequest request = (HmcRequest) event;
+        if(request.shouldCommit()) {
+            request.host = host;
+            request.method = method;
+            request.endpoint = endpoint;
+            request.status = status;
+            request.wireBytes = wireBytes;
+            request.decodedBytes = decodedBytes;
+            request.commit();
+        }
+    }
+
+
+    static void commitDeserialize(Object event, String resourceType, String resource, long length, int samples) {
+        Deserialize deserialize = (Deserialize) event;
+        if(deserialize.shouldCommit()) {
+            deserialize.resourceType = resourceType;
+            deserialize.resource = resource;
+            deserialize.length = length;
+            deserialize.samples = samples;
+            deserialize.commit();
+        }
+    }
+
+
+    static void commitProcess(Object event, String resourceType, String resource, int samples, int processed) {
+        ProcessSamples process = (ProcessSamples) event;
+        if(process.shouldCommit()) {
+            process.resourceType = resourceType;
+            process.resource = resource;
+            process.samples = samples;
+            process.processed = processed;
+            process.commit();
+        }
+    }
+
+
+    static void commitSinkWrite(Object event, String measurement, int points) {
+        SinkWrite sinkWrite = (SinkWrite) event;
+        if(sinkWrite.shouldCommit()) {
+            sinkWrite.measurement = measurement;
+            sinkWrite.points = points;
+            sinkWrite.commit();
+        }
+    }
+
+
+    static void sinkFlush(long points, boolean success) {
+        SinkFlush sinkFlush = new SinkFlush();
+        if(sinkFlush.shouldCommit()) {
+            sinkFlush.points = points;
+            sinkFlush.success = success;
+            sinkFlush.commit();
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+/**
+ * Histogram of durations (or sizes), reset when drained so each snapshot covers the time since the
+ * last one. Backed by a QuantileSketch, so percentiles are within 1% of the recorded values.
+ * The sketch is not thread-safe, so recording takes a lock; it is held for a few array updates,
+ * at the rate of HMC requests and decodes.
+ */
+final class LatencyHistogram {
+
+    private final static double RELATIVE_ACCURACY = 0.01;
+    private final static int MAX_BINS = 1024;
+
+    private QuantileSketch sketch = new QuantileSketch(RELATIVE_ACCURACY, MAX_BINS);
+
+
+    synchronized void record(long value) {
+        sketch.add(Math.max(0, value));
+    }
+
+
+    /**
+     * @return the values recorded since the last call
+     */
+    Snapshot drain() {
+        QuantileSketch drained;
+        synchronized (this) {
+            drained = sketch;
+            sketch = new QuantileSketch(RELATIVE_ACCURACY, MAX_BINS);
+        }
+        return new Snapshot(drained);
+    }
+
+
+    static final class Snapshot {
+
+        private final QuantileSketch sketch;
+        final long count;
+        final long sum;
+        final long max;
+
+        Snapshot(QuantileSketch sketch) {
+            this.sketch = sketch;
+            this.count = sketch.getCount();
+            this.sum = (long) sketch.getSum();
+            this.max = (count > 0) ? (long) sketch.getMax() : 0;
+        }
+
+        double mean() {
+            return (count > 0) ? (double) sum / count : 0;
+        }
+
+        /**
+         * @param quantile between 0.0 and 1.0
+         * @return approximate value at the quantile, never above the max. recorded
+         */
+        long percentile(double quantile) {
+            if(count == 0) {
+                return 0;
+            }
+            if(quantile >= 1.0) {
+                return max;
+            }
+            return Math.min(Math.round(sketch.getValueAtQuantile(quantile)), max);
+        }
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory store of the most recent measurements for each managed system,
+ * logical partition and virtual I/O server, indexed by UUID and measurement name.
+ *
+ * Resources are registered after discovery, and measurements are resolved to their
+ * resource from the servername / lparname / viosname tags when written.
+ */
+final class LatestValueStore {
+
+    private final static Logger log = LoggerFactory.getLogger(LatestValueStore.class);
+
+    static final String TYPE_SYSTEM = "system";
+    static final String TYPE_PARTITION = "lpar";
+    static final String TYPE_VIOS = "vios";
+
+    private final Map<String, Node> nodesById = new ConcurrentHashMap<>();
+    private final Map<String, SystemNode> systemsByName = new ConcurrentHashMap<>();
+
+
+    /**
+     * Register (or re-register after discovery) a managed system with its partitions and VIOS.
+     * Latest values are kept for resources which still exist.
+     */
+    void register(ManagedSystem managedSystem) {
+        if(managedSystem.id == null || managedSystem.name == null) {
+            return;
+        }
+
+        SystemNode system = (SystemNode) nodesById.computeIfAbsent(managedSystem.id, k -> new SystemNode(managedSystem.id, managedSystem.name));
+        if(!managedSystem.name.equals(system.name)) {
+            systemsByName.remove(system.name);
+            system.name = managedSystem.name;
+        }
+        systemsByName.put(system.name, system);
+
+        Map<String, Node> partitions = new ConcurrentHashMap<>();
+        for(LogicalPartition partition : managedSystem.logicalPartitions) {
+            if(partition.id != null && partition.name != null) {
+                partitions.put(partition.name, child(system, TYPE_PARTITION, partition.id, partition.name));
+            }
+        }
+
+        Map<String, Node> vioses = new ConcurrentHashMap<>();
+        for(VirtualIOServer vios : managedSystem.virtualIOServers) {
+            if(vios.id != null && vios.entry != null) {
+                vioses.put(vios.entry.getName(), child(system, TYPE_VIOS, vios.id, vios.entry.getName()));
+            }
+        }
+
+        // Forget resources which are no longer part of this system
+        system.partitionsByName.values().stream().filter(n -> !partitions.containsValue(n)).forEach(n -> nodesById.remove(n.id));
+        system.viosByName.values().stream().filter(n -> !vioses.containsValue(n)).forEach(n -> nodesById.remove(n.id));
+        system.partitionsByName = partitions;
+        system.viosByName = vioses;
+    }
+
+
+    /**
+     * Store measurements as the latest values for the resource(s) they belong to.
+     * Older samples than already stored are ignored.
+     */
+    void update(List<Measurement> measurements, String name) {
+        Map<Node, List<Measurement>> byNode = new HashMap<>();
+        for(Measurement m : measurements) {
+            Node node = resolve(name, m.tags);
+            if(node != null) {
+                byNode.computeIfAbsent(node, k -> new ArrayList<>()).add(m);
+            }
+        }
+
+        byNode.forEach((node, list) -> {
+            Snapshot snapshot = new Snapshot(list);
+            node.measurements.merge(name, snapshot, (existing, latest) -> latest.timestamp.isBefore(existing.timestamp) ? existing : latest);
+        });
+    }
+
+
+    Node get(String id) {
+        return nodesById.get(id);
+    }
+
+
+    /**
+     * Lookup a system by UUID or name.
+     */
+    SystemNode getSystem(String idOrName) {
+        Node node = nodesById.get(idOrName);
+        if(node instanceof SystemNode) {
+            return (SystemNode) node;
+        }
+        return systemsByName.get(idOrName);
+    }
+
+
+    Collection<SystemNode> getSystems() {
+        return Collections.unmodifiableCollection(systemsByName.values());
+    }
+
+
+    Collection<Node> getNodes() {
+        return Collections.unmodifiableCollection(nodesById.values());
+    }
+
+
+    private Node child(SystemNode system, String type, String id, String name) {
+        Node node = nodesById.get(id);
+        if(node == null || !node.type.equals(type)) {
+            node = new Node(type, id, name, system);
+            nodesById.put(id, node);
+        }
+        node.name = name;
+        return node;
+    }
+
+
+    private Node resolve(String measurementName, Map<String, String> tags) {
+        String servername = tags.get("servername");
+        SystemNode system = (servername != null) ? systemsByName.get(servername) : null;
+        if(system == null) {
+            log.trace("resolve() - unknown system for: {} {}", measurementName, tags);
+            return null;
+        }
+
+        if(measurementName.startsWith("lpar_")) {
+            return system.partitionsByName.get(tags.get("lparname"));
+        } else if(measurementName.startsWith("vios_")) {
+            return system.viosByName.get(tags.get("viosname"));
+        }
+        return system;
+    }
+
+
+    static class Node {
+
+        final String type;
+        final String id;
+        final SystemNode system;
+        volatile String name;
+        final Map<String, Snapshot> measurements = new ConcurrentHashMap<>();
+
+        Node(String type, String id, String name, SystemNode system) {
+            this.type = type;
+            this.id = id;
+            this.name = name;
+            this.system = system;
+        }
+    }
+
+
+    static final class SystemNode extends Node {
+
+        volatile Map<String, Node> partitionsByName = new ConcurrentHashMap<>();
+        volatile Map<String, Node> viosByName = new ConcurrentHashMap<>();
+
+        SystemNode(String id, String name) {
+            super(TYPE_SYSTEM, id, name, null);
+        }
+    }
+
+
+    static final class Snapshot {
+
+        final Instant timestamp;
+        final List<Measurement> measurements;
+
+        Snapshot(List<Measurement> measurements) {
+            Instant latest = Instant.EPOCH;
+            for(Measurement m : measurements) {
+                if(m.timestamp.isAfter(latest)) {
+                    latest = m.timestamp;
+                }
+            }
+            this.timestamp = latest;
+            this.measurements = Collections.unmodifiableList(measurements);
+        }
+    }
+
+}
@@ -15,11 +15,8 @@
  */
 package biz.nellemann.hmci;
 
-import biz.nellemann.hmci.dto.xml.Link;
 import biz.nellemann.hmci.dto.xml.LogicalPartitionEntry;
 import biz.nellemann.hmci.dto.xml.XmlEntry;
-import biz.nellemann.hmci.dto.xml.XmlFeed;
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,19 +61,21 @@ class LogicalPartition extends Resource {
     }
 
 
+    @Override
+    String getResourceName() {
+        return name;
+    }
+
+
     public void discover() {
         try {
-            String xml = restClient.getRequest(uriPath);
-
-            // Do not try to parse empty response
-            if(xml == null || xml.length() <= 1) {
+            // The client returns the entry parsed last time, if the document has not changed
+            XmlEntry xmlEntry = restClient.getXml(uriPath, XmlEntry.class);
+            if(xmlEntry == null) {
                 log.warn("discover() - no data.");
                 return;
             }
 
-            XmlMapper xmlMapper = new XmlMapper();
-            XmlEntry xmlEntry = xmlMapper.readValue(xml, XmlEntry.class);
-
             if(xmlEntry.getContent() == null){
                 log.warn("discover() - no content.");
                 return;
@@ -101,7 +100,7 @@ class LogicalPartition extends Resource {
 
         log.debug("refresh() - {}", name);
         try {
-            String xml = restClient.getRequest(String.format("/rest/api/pcm/ManagedSystem/%s/LogicalPartition/%s/ProcessedMetrics?NoOfSamples=%d", managedSystem.id, id, noOfSamples));
+            String xml = restClient.getRequest(String.format("/rest/api/pcm/ManagedSystem/%s/LogicalPartition/%s/ProcessedMetrics?NoOfSamples=%d", managedSystem.id, id, getNoOfSamples()));
 
             // Do not try to parse empty response
             if(xml == null || xml.length() <= 1) {
@@ -109,23 +108,15 @@ class LogicalPartition extends Resource {
                 return;
             }
 
-            XmlMapper xmlMapper = new XmlMapper();
-            XmlFeed xmlFeed = xmlMapper.readValue(xml, XmlFeed.class);
-
-            xmlFeed.entries.forEach((entry) -> {
-                if(entry.category.term.equals("LogicalPartition")) {
-                    Link link = entry.link;
-                    if (link.getType() != null && Objects.equals(link.getType(), "application/json")) {
-                        try {
-                            URI jsonUri = URI.create(link.getHref());
-                            String json = restClient.getRequest(jsonUri.getPath());
-                            deserialize(json);
-                        } catch (IOException e) {
-                            log.error("refresh() - error 1: {}", e.getMessage());
-                        }
-                    }
+            for (FeedLinks.Link link : FeedLinks.extract(xml, "LogicalPartition")) {
+                try {
+                    URI jsonUri = URI.create(link.href);
+                    String json = restClient.getRequest(jsonUri.getPath());
+                    deserialize(json);
+                } catch (IOException e) {
+                    log.error("refresh() - error 1: {}", e.getMessage());
                 }
-            });
+            }
 
         } catch (IOException e) {
             log.error("refresh() - error 2: {}", e.getMessage());
@@ -159,14 +150,14 @@ class LogicalPartition extends Resource {
 
         tagsMap.put("servername", managedSystem.entry.getName());
         tagsMap.put("lparname", entry.getName());
-        log.trace("getDetails() - tags: " + tagsMap);
+        log.trace("getDetails() - tags: {}", tagsMap);
 
-        fieldsMap.put("id", metric.getSample(sample).lparsUtil.id);
-        fieldsMap.put("type", metric.getSample(sample).lparsUtil.type);
-        fieldsMap.put("state", metric.getSample(sample).lparsUtil.state);
-        fieldsMap.put("osType", metric.getSample(sample).lparsUtil.osType);
-        fieldsMap.put("affinityScore", metric.getSample(sample).lparsUtil.affinityScore);
-        log.trace("getDetails() - fields: " + fieldsMap);
+        fieldsMap.put("id", metric.getSample(sample).getLparsUtil().id);
+        fieldsMap.put("type", metric.getSample(sample).getLparsUtil().type);
+        fieldsMap.put("state", metric.getSample(sample).getLparsUtil().state);
+        fieldsMap.put("osType", metric.getSample(sample).getLparsUtil().osType);
+        fieldsMap.put("affinityScore", metric.getSample(sample).getLparsUtil().affinityScore);
+        log.trace("getDetails() - fields: {}", fieldsMap);
 
         list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
 
@@ -184,11 +175,11 @@ class LogicalPartition extends Resource {
 
         tagsMap.put("servername", managedSystem.entry.getName());
         tagsMap.put("lparname", entry.getName());
-        log.trace("getMemoryMetrics() - tags: " + tagsMap);
+        log.trace("getMemoryMetrics() - tags: {}", tagsMap);
 
-        fieldsMap.put("logicalMem", metric.getSample(sample).lparsUtil.memory.logicalMem);
-        fieldsMap.put("backedPhysicalMem", metric.getSample(sample).lparsUtil.memory.backedPhysicalMem);
-        log.trace("getMemoryMetrics() - fields: " + fieldsMap);
+        fieldsMap.put("logicalMem", metric.getSample(sample).getLparsUtil().memory.logicalMem);
+        fieldsMap.put("backedPhysicalMem", metric.getSample(sample).getLparsUtil().memory.backedPhysicalMem);
+        log.trace("getMemoryMetrics() - fields: {}", fieldsMap);
 
         list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
 
@@ -206,23 +197,23 @@ class LogicalPartition extends Resource {
 
         tagsMap.put("servername", managedSystem.entry.getName());
         tagsMap.put("lparname", entry.getName());
-        log.trace("getProcessorMetrics() - tags: " + tagsMap);
-
-        fieldsMap.put("utilizedProcUnits", metric.getSample(sample).lparsUtil.processor.utilizedProcUnits);
-        fieldsMap.put("entitledProcUnits", metric.getSample(sample).lparsUtil.processor.entitledProcUnits);
-        fieldsMap.put("donatedProcUnits", metric.getSample(sample).lparsUtil.processor.donatedProcUnits);
-        fieldsMap.put("idleProcUnits", metric.getSample(sample).lparsUtil.processor.idleProcUnits);
-        fieldsMap.put("maxProcUnits", metric.getSample(sample).lparsUtil.processor.maxProcUnits);
-        fieldsMap.put("maxVirtualProcessors", metric.getSample(sample).lparsUtil.processor.maxVirtualProcessors);
-        fieldsMap.put("currentVirtualProcessors", metric.getSample(sample).lparsUtil.processor.currentVirtualProcessors);
-        fieldsMap.put("utilizedCappedProcUnits", metric.getSample(sample).lparsUtil.processor.utilizedCappedProcUnits);
-        fieldsMap.put("utilizedUncappedProcUnits", metric.getSample(sample).lparsUtil.processor.utilizedUncappedProcUnits);
-        fieldsMap.put("timePerInstructionExecution", metric.getSample(sample).lparsUtil.processor.timeSpentWaitingForDispatch);
-        fieldsMap.put("timeSpentWaitingForDispatch", metric.getSample(sample).lparsUtil.processor.timePerInstructionExecution);
-        fieldsMap.put("mode", metric.getSample(sample).lparsUtil.processor.mode);
-        fieldsMap.put("weight", metric.getSample(sample).lparsUtil.processor.weight);
-        fieldsMap.put("poolId", metric.getSample(sample).lparsUtil.processor.poolId);
-        log.trace("getProcessorMetrics() - fields: " + fieldsMap);
+        log.trace("getProcessorMetrics() - tags: {}", tagsMap);
+
+        fieldsMap.put("utilizedProcUnits", metric.getSample(sample).getLparsUtil().processor.utilizedProcUnits);
+        fieldsMap.put("entitledProcUnits", metric.getSample(sample).getLparsUtil().processor.entitledProcUnits);
+        fieldsMap.put("donatedProcUnits", metric.getSample(sample).getLparsUtil().processor.donatedProcUnits);
+        fieldsMap.put("idleProcUnits", metric.getSample(sample).getLparsUtil().processor.idleProcUnits);
+        fieldsMap.put("maxProcUnits", metric.getSample(sample).getLparsUtil().processor.maxProcUnits);
+        fieldsMap.put("maxVirtualProcessors", metric.getSample(sample).getLparsUtil().processor.maxVirtualProcessors);
+        fieldsMap.put("currentVirtualProcessors", metric.getSample(sample).getLparsUtil().processor.currentVirtualProcessors);
+        fieldsMap.put("utilizedCappedProcUnits", metric.getSample(sample).getLparsUtil().processor.utilizedCappedProcUnits);
+        fieldsMap.put("utilizedUncappedProcUnits", metric.getSample(sample).getLparsUtil().processor.utilizedUncappedProcUnits);
+        fieldsMap.put("timePerInstructionExecution", metric.getSample(sample).getLparsUtil().processor.timeSpentWaitingForDispatch);
+        fieldsMap.put("timeSpentWaitingForDispatch", metric.getSample(sample).getLparsUtil().processor.timePerInstructionExecution);
+        fieldsMap.put("mode", metric.getSample(sample).getLparsUtil().processor.mode);
+        fieldsMap.put("weight", metric.getSample(sample).getLparsUtil().processor.weight);
+        fieldsMap.put("poolId", metric.getSample(sample).getLparsUtil().processor.poolId);
+        log.trace("getProcessorMetrics() - fields: {}", fieldsMap);
 
         list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
 
@@ -235,7 +226,7 @@ class LogicalPartition extends Resource {
         log.debug("getVirtualEthernetAdapterMetrics()");
         List<Measurement> list = new ArrayList<>();
 
-        metric.getSample(sample).lparsUtil.network.virtualEthernetAdapters.forEach(adapter -> {
+        metric.getSample(sample).getLparsUtil().network.virtualEthernetAdapters.forEach(adapter -> {
 
             HashMap<String, String> tagsMap = new HashMap<>();
             HashMap<String, Object> fieldsMap = new HashMap<>();
@@ -243,10 +234,10 @@ class LogicalPartition extends Resource {
             tagsMap.put("servername", managedSystem.entry.getName());
             tagsMap.put("lparname", entry.getName());
             tagsMap.put("location", adapter.physicalLocation);
-            tagsMap.put("viosId", adapter.viosId.toString());
-            tagsMap.put("vlanId", adapter.vlanId.toString());
-            tagsMap.put("vswitchId", adapter.vswitchId.toString());
-            log.trace("getVirtualEthernetAdapterMetrics() - tags: " + tagsMap);
+            tagsMap.put("viosId", String.valueOf(adapter.viosId));
+            tagsMap.put("vlanId", String.valueOf(adapter.vlanId));
+            tagsMap.put("vswitchId", String.valueOf(adapter.vswitchId));
+            log.trace("getVirtualEthernetAdapterMetrics() - tags: {}", tagsMap);
 
             fieldsMap.put("droppedPackets", adapter.droppedPackets);
             fieldsMap.put("droppedPhysicalPackets", adapter.droppedPhysicalPackets);
@@ -262,7 +253,7 @@ class LogicalPartition extends Resource {
             fieldsMap.put("transferredBytes", adapter.transferredBytes);
             fieldsMap.put("transferredPhysicalBytes", adapter.transferredPhysicalBytes);
             fieldsMap.put("sharedEthernetAdapterId", adapter.sharedEthernetAdapterId);
-            log.trace("getVirtualEthernetAdapterMetrics() - fields: " + fieldsMap);
+            log.trace("getVirtualEthernetAdapterMetrics() - fields: {}", fieldsMap);
 
             list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
         });
@@ -276,24 +267,24 @@ class LogicalPartition extends Resource {
         log.debug("getVirtualGenericAdapterMetrics()");
         List<Measurement> list = new ArrayList<>();
 
-        metric.getSample(sample).lparsUtil.storage.genericVirtualAdapters.forEach(adapter -> {
+        metric.getSample(sample).getLparsUtil().storage.genericVirtualAdapters.forEach(adapter -> {
 
             HashMap<String, String> tagsMap = new HashMap<>();
             HashMap<String, Object> fieldsMap = new HashMap<>();
 
             tagsMap.put("servername", managedSystem.entry.getName());
             tagsMap.put("lparname", entry.getName());
-            tagsMap.put("viosId", adapter.viosId.toString());
+            tagsMap.put("viosId", String.valueOf(adapter.viosId));
             tagsMap.put("location", adapter.physicalLocation);
             tagsMap.put("id", adapter.id);
-            log.trace("getVirtualGenericAdapterMetrics() - tags: " + tagsMap);
+            log.trace("getVirtualGenericAdapterMetrics() - tags: {}", tagsMap);
 
             fieldsMap.put("numOfReads", adapter.numOfReads);
             fieldsMap.put("numOfWrites", adapter.numOfWrites);
             fieldsMap.put("writeBytes", adapter.writeBytes);
             fieldsMap.put("readBytes", adapter.readBytes);
             fieldsMap.put("type", adapter.type);
-            log.trace("getVirtualGenericAdapterMetrics() - fields: " + fieldsMap);
+            log.trace("getVirtualGenericAdapterMetrics() - fields: {}", fieldsMap);
 
             list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
         });
@@ -307,16 +298,16 @@ class LogicalPartition extends Resource {
         log.debug("getVirtualFibreChannelAdapterMetrics()");
         List<Measurement> list = new ArrayList<>();
 
-        metric.getSample(sample).lparsUtil.storage.virtualFiberChannelAdapters.forEach(adapter -> {
+        metric.getSample(sample).getLparsUtil().storage.virtualFiberChannelAdapters.forEach(adapter -> {
 
             HashMap<String, String> tagsMap = new HashMap<>();
             HashMap<String, Object> fieldsMap = new HashMap<>();
 
             tagsMap.put("servername", managedSystem.entry.getName());
             tagsMap.put("lparname", entry.getName());
-            tagsMap.put("viosId", adapter.viosId.toString());
+            tagsMap.put("viosId", String.valueOf(adapter.viosId));
             tagsMap.put("location", adapter.physicalLocation);
-            log.trace("getVirtualFibreChannelAdapterMetrics() - tags: " + tagsMap);
+            log.trace("getVirtualFibreChannelAdapterMetrics() - tags: {}", tagsMap);
 
             fieldsMap.put("numOfReads", adapter.numOfReads);
             fieldsMap.put("numOfWrites", adapter.numOfWrites);
@@ -324,7 +315,7 @@ class LogicalPartition extends Resource {
             fieldsMap.put("readBytes", adapter.readBytes);
             fieldsMap.put("runningSpeed", adapter.runningSpeed);
             fieldsMap.put("transmittedBytes", adapter.transmittedBytes);
-            log.trace("getVirtualFibreChannelAdapterMetrics() - fields: " + fieldsMap);
+            log.trace("getVirtualFibreChannelAdapterMetrics() - fields: {}", fieldsMap);
 
             list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
         });
@@ -338,7 +329,7 @@ class LogicalPartition extends Resource {
         log.debug("getSriovLogicalPorts()");
         List<Measurement> list = new ArrayList<>();
 
-        metric.getSample(sample).lparsUtil.network.sriovLogicalPorts.forEach(port -> {
+        metric.getSample(sample).getLparsUtil().network.sriovLogicalPorts.forEach(port -> {
 
             HashMap<String, String> tagsMap = new HashMap<>();
             HashMap<String, Object> fieldsMap = new HashMap<>();
@@ -346,7 +337,7 @@ class LogicalPartition extends Resource {
             tagsMap.put("servername", managedSystem.entry.getName());
             tagsMap.put("lparname", entry.getName());
             tagsMap.put("location", port.physicalLocation);
-            log.trace("getSriovLogicalPorts() - tags: " + tagsMap);
+            log.trace("getSriovLogicalPorts() - tags: {}", tagsMap);
 
             fieldsMap.put("sentBytes", port.sentBytes);
             fieldsMap.put("receivedBytes", port.receivedBytes);
@@ -356,7 +347,7 @@ class LogicalPartition extends Resource {
             fieldsMap.put("droppedPackets", port.droppedPackets);
             fieldsMap.put("errorIn", port.errorIn);
             fieldsMap.put("errorOut", port.errorOut);
-            log.trace("getSriovLogicalPorts() - fields: " + fieldsMap);
+            log.trace("getSriovLogicalPorts() - fields: {}", fieldsMap);
 
             list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
         });
@@ -17,7 +17,6 @@ package biz.nellemann.hmci;
 
 import biz.nellemann.hmci.dto.xml.*;
 import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,6 +24,10 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
 
 class ManagedSystem extends Resource {
 
@@ -38,6 +41,7 @@ class ManagedSystem extends Resource {
 
     private final RestClient restClient;
     private final InfluxClient influxClient;
+    private ResourceExecutor resourceExecutor;
 
 
     protected ManagedSystemEntry entry;
@@ -72,6 +76,12 @@ class ManagedSystem extends Resource {
     }
 
 
+    @Override
+    String getResourceName() {
+        return name;
+    }
+
+
     public void setExcludePartitions(List<String> excludePartitions) {
         this.excludePartitions = excludePartitions;
     }
@@ -80,6 +90,13 @@ class ManagedSystem extends Resource {
         this.includePartitions = includePartitions;
     }
 
+    /**
+     * Fetch partitions, VIOS and energy concurrently, instead of one by one.
+     */
+    void setResourceExecutor(ResourceExecutor resourceExecutor) {
+        this.resourceExecutor = resourceExecutor;
+    }
+
     public void setDoEnergy(Boolean enableEnergyMonitoring) {
 
         if(pcmPreference == null || !enableEnergyMonitoring) {
@@ -91,23 +108,21 @@ class ManagedSystem extends Resource {
         }
 
         systemEnergy = new SystemEnergy(restClient, influxClient, this);
+        systemEnergy.setMemoryBudget(memoryBudget);
+        systemEnergy.setDecodeTimer(decodeTimer);
     }
 
 
     public void discover() {
 
         try {
-            String xml = restClient.getRequest(uriPath);
-
-            // Do not try to parse empty response
-            if(xml == null || xml.length() <= 1) {
+            // The client returns the entry parsed last time, if the document has not changed
+            XmlEntry xmlEntry = restClient.getXml(uriPath, XmlEntry.class);
+            if(xmlEntry == null) {
                 log.warn("discover() - no data.");
                 return;
             }
 
-            XmlMapper xmlMapper = new XmlMapper();
-            XmlEntry xmlEntry = xmlMapper.readValue(xml, XmlEntry.class);
-
             if(xmlEntry.getContent() == null){
                 log.warn("discover() - no content.");
                 return;
@@ -122,11 +137,26 @@ class ManagedSystem extends Resource {
                 throw new UnsupportedOperationException("Failed to deserialize ManagedSystem");
             }
 
-            logicalPartitions.clear();
+            List<LogicalPartition> discoveredPartitions = new ArrayList<>();
+            List<VirtualIOServer> discoveredVirtualIOServers = new ArrayList<>();
+            List<Runnable> tasks = new ArrayList<>();
             for (Link link : this.entry.getAssociatedLogicalPartitions()) {
                 LogicalPartition logicalPartition = new LogicalPartition(restClient, influxClient, link.getHref(), this);
-                logicalPartition.discover();
-                if(Objects.equals(logicalPartition.entry.partitionState, "running")) {
+                logicalPartition.setMemoryBudget(memoryBudget);
+                logicalPartition.setDecodeTimer(decodeTimer);
+                discoveredPartitions.add(logicalPartition);
+                tasks.add(logicalPartition::discover);
+            }
+            for (Link link : this.entry.getAssociatedVirtualIOServers()) {
+                VirtualIOServer virtualIOServer = new VirtualIOServer(restClient, link.getHref(), this);
+                discoveredVirtualIOServers.add(virtualIOServer);
+                tasks.add(virtualIOServer::discover);
+            }
+            invokeAll(tasks);
+
+            logicalPartitions.clear();
+            for (LogicalPartition logicalPartition : discoveredPartitions) {
+                if(logicalPartition.entry != null && Objects.equals(logicalPartition.entry.partitionState, "running")) {
                     // Check exclude / include
                     if(!excludePartitions.contains(logicalPartition.name) && includePartitions.isEmpty()) {
                         logicalPartitions.add(logicalPartition);
@@ -139,11 +169,7 @@ class ManagedSystem extends Resource {
             }
 
             virtualIOServers.clear();
-            for (Link link : this.entry.getAssociatedVirtualIOServers()) {
-                VirtualIOServer virtualIOServer = new VirtualIOServer(restClient, link.getHref(), this);
-                virtualIOServer.discover();
-                virtualIOServers.add(virtualIOServer);
-            }
+            virtualIOServers.addAll(discoveredVirtualIOServers);
 
         } catch (Exception e) {
             log.warn("discover() - error: {}", e.getMessage());
@@ -153,49 +179,110 @@ class ManagedSystem extends Resource {
 
 
     public void refresh() {
+        refresh(true, partition -> true);
+    }
+
+
+    /**
+     * Refresh the metrics (and energy) of the system itself, but not its partitions.
+     */
+    void refreshSystem() {
+        refresh(true, partition -> false);
+    }
+
+
+    /**
+     * Refresh only the parts which are due.
+     * @param refreshSystem refresh the metrics (and energy) of the system itself
+     * @param refreshPartition which partitions to refresh
+     */
+    void refresh(boolean refreshSystem, Predicate<LogicalPartition> refreshPartition) {
 
         log.debug("refresh() - {}", name);
-        try {
-            String xml = restClient.getRequest(String.format("/rest/api/pcm/ManagedSystem/%s/ProcessedMetrics?NoOfSamples=%d", id, noOfSamples));
 
-            // Do not try to parse empty response
-            if(xml == null || xml.length() <= 1) {
-                log.warn("refresh() - no data.");
-                return;
-            }
+        // Our own metrics are fetched asynchronously, while partitions and energy are fetched.
+        // The JSON is decoded here afterwards, as decoding may wait for the memory budget, and must
+        // not hold an OkHttp dispatcher thread (and the slot of this HMC) meanwhile.
+        CompletableFuture<List<String>> systemMetrics = CompletableFuture.completedFuture(Collections.emptyList());
+        if(refreshSystem) {
+            systemMetrics = restClient
+                .getAsync(String.format("/rest/api/pcm/ManagedSystem/%s/ProcessedMetrics?NoOfSamples=%d", id, getNoOfSamples()))
+                .thenCompose(this::fetchMetrics);
+        }
 
-            XmlMapper xmlMapper = new XmlMapper();
-            XmlFeed xmlFeed = xmlMapper.readValue(xml, XmlFeed.class);
-
-            xmlFeed.entries.forEach((entry) -> {
-                if (entry.category.term.equals("ManagedSystem")) {
-                    Link link = entry.link;
-                    if (link.getType() != null && Objects.equals(link.getType(), "application/json")) {
-                        try {
-                            URI jsonUri = URI.create(link.getHref());
-                            String json = restClient.getRequest(jsonUri.getPath());
-                            deserialize(json);
-                        } catch (IOException e) {
-                            log.error("refresh() - error 1: {}", e.getMessage());
-                        }
-                    }
-                }
-            });
+        List<Runnable> tasks = new ArrayList<>();
+        if(systemEnergy != null && refreshSystem) {
+            tasks.add(systemEnergy::refresh);
+        }
+        logicalPartitions.stream().filter(refreshPartition).forEach(partition -> tasks.add(partition::refresh));
+        invokeAll(tasks);
 
-            if(systemEnergy != null) {
-                systemEnergy.refresh();
+        try {
+            for(String json : systemMetrics.get()) {
+                deserialize(json);
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = (e.getCause() instanceof CompletionException) ? e.getCause().getCause() : e.getCause();
+            if(cause instanceof JsonParseException) {
+                log.warn("refresh() - parse error for: {}", name);
+            } else {
+                log.error("refresh() - error 2: {} {}", cause.getClass(), cause.getMessage());
             }
+            metric = null;
+        } catch (InterruptedException e) {
+            systemMetrics.cancel(true);
+            Thread.currentThread().interrupt();
+        }
 
-            logicalPartitions.forEach(LogicalPartition::refresh);
+    }
 
-        } catch (JsonParseException e) {
-            log.warn("refresh() - parse error for: {}", name);
-            metric = null;
+
+    /**
+     * Parse the feed of processed metrics, and fetch the JSON it links to.
+     * A link which fails is logged and left out, so it does not cost the data of the other links.
+     */
+    private CompletableFuture<List<String>> fetchMetrics(String xml) {
+
+        // Do not try to parse empty response
+        if(xml == null || xml.length() <= 1) {
+            log.warn("refresh() - no data.");
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        List<FeedLinks.Link> links;
+        try {
+            links = FeedLinks.extract(xml, "ManagedSystem");
         } catch (IOException e) {
-            log.error("refresh() - error 2: {} {}", e.getClass(), e.getMessage());
-            metric = null;
+            throw new CompletionException(e);
         }
 
+        CompletableFuture<List<String>> future = CompletableFuture.completedFuture(new ArrayList<>());
+        for (FeedLinks.Link link : links) {
+            URI jsonUri = URI.create(link.href);
+            future = future.thenCompose(list -> restClient.getAsync(jsonUri.getPath())
+                .exceptionally(throwable -> {
+                    Throwable cause = (throwable instanceof CompletionException) ? throwable.getCause() : throwable;
+                    log.error("refresh() - error 1: {}", cause.getMessage());
+                    return null;
+                })
+                .thenApply(json -> {
+                    if(json != null) {
+                        list.add(json);
+                    }
+                    return list;
+                }));
+        }
+        return future;
+    }
+
+
+    @Override
+    public void process() {
+        super.process();
+        if(systemEnergy != null) {
+            systemEnergy.process();
+        }
+        logicalPartitions.forEach(Resource::process);
     }
 
 
@@ -209,9 +296,6 @@ class ManagedSystem extends Resource {
         influxClient.write(getProcessorMetrics(sample), "server_processor");
         influxClient.write(getPhysicalProcessorPool(sample),"server_physicalProcessorPool");
         influxClient.write(getSharedProcessorPools(sample),"server_sharedProcessorPool");
-        if(systemEnergy != null) {
-            systemEnergy.process();
-        }
 
         influxClient.write(getVioDetails(sample),"vios_details");
         influxClient.write(getVioProcessorMetrics(sample),"vios_processor");
@@ -225,8 +309,15 @@ class ManagedSystem extends Resource {
         influxClient.write(getVioStorageVirtualAdapters(sample),"vios_storage_virtual");
         influxClient.write(getVioStoragePhysicalAdapters(sample),"vios_storage_physical");
         // Missing:  vios_storage_SSP
+    }
 
-        logicalPartitions.forEach(Resource::process);
+
+    private void invokeAll(List<Runnable> tasks) {
+        if(resourceExecutor != null) {
+            resourceExecutor.invokeAll(tasks);
+        } else {
+            tasks.forEach(Runnable::run);
+        }
     }
 
 
@@ -235,14 +326,13 @@ class ManagedSystem extends Resource {
 
         try {
             String urlPath = String.format("/rest/api/pcm/ManagedSystem/%s/preferences", id);
-            XmlMapper xmlMapper = new XmlMapper();
 
             if(pcmPreference.energyMonitoringCapable && !pcmPreference.energyMonitorEnabled) {
                 log.warn("getPcmPreferences() - Enabling energyMonitor");
                 pcmPreference.metadata.atom = null;
                 pcmPreference.energyMonitorEnabled = true;
                 //xmlMapper.enable(SerializationFeature.INDENT_OUTPUT);
-                String updateXml = xmlMapper.writeValueAsString(pcmPreference);
+                String updateXml = Codec.writeXml(pcmPreference);
                 //log.warn(updateXml);
                 restClient.postRequest(urlPath, updateXml);
             }
@@ -267,8 +357,7 @@ class ManagedSystem extends Resource {
                 return;
             }
 
-            XmlMapper xmlMapper = new XmlMapper();
-            XmlFeed xmlFeed = xmlMapper.readValue(xml, XmlFeed.class);
+            XmlFeed xmlFeed = Codec.readXml(xml, XmlFeed.class);
 
             if(xmlFeed.getEntry().getContent() == null){
                 log.warn("getPcmPreferences() - no content.");
@@ -297,7 +386,7 @@ class ManagedSystem extends Resource {
         Map<String, Object> fieldsMap = new TreeMap<>();
 
         tagsMap.put("servername", entry.getName());
-        log.trace("getDetails() - tags: " + tagsMap);
+        log.trace("getDetails() - tags: {}", tagsMap);
 
         fieldsMap.put("mtm", String.format("%s-%s %s",
             entry.getMachineTypeModelAndSerialNumber().getMachineType(),
@@ -309,9 +398,9 @@ class ManagedSystem extends Resource {
         fieldsMap.put("frequency", metric.getUtilInfo().frequency);
         fieldsMap.put("nextract", "HMCi");
         fieldsMap.put("name", entry.getName());
-        fieldsMap.put("utilizedProcUnits", metric.getSample(sample).systemFirmwareUtil.utilizedProcUnits);
-        fieldsMap.put("assignedMem", metric.getSample(sample).systemFirmwareUtil.assignedMem);
-        log.trace("getDetails() - fields: " + fieldsMap);
+        fieldsMap.put("utilizedProcUnits", metric.getSample(sample).getSystemFirmwareUtil().utilizedProcUnits);
+        fieldsMap.put("assignedMem", metric.getSample(sample).getSystemFirmwareUtil().assignedMem);
+        log.trace("getDetails() - fields: {}", fieldsMap);
 
         list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
 
@@ -327,14 +416,14 @@ class ManagedSystem extends Resource {
         Map<String, Object> fieldsMap = new HashMap<>();
 
         tagsMap.put("servername", entry.getName());
-        log.trace("getMemoryMetrics() - tags: " + tagsMap);
+        log.trace("getMemoryMetrics() - tags: {}", tagsMap);
 
-        fieldsMap.put("totalMem", metric.getSample(sample).serverUtil.memory.totalMem);
-        fieldsMap.put("availableMem", metric.getSample(sample).serverUtil.memory.availableMem);
-        fieldsMap.put("configurableMem", metric.getSample(sample).serverUtil.memory.configurableMem);
-        fieldsMap.put("assignedMemToLpars", metric.getSample(sample).serverUtil.memory.assignedMemToLpars);
-        fieldsMap.put("virtualPersistentMem", metric.getSample(sample).serverUtil.memory.virtualPersistentMem);
-        log.trace("getMemoryMetrics() - fields: " + fieldsMap);
+        fieldsMap.put("totalMem", metric.getSample(sample).getServerUtil().memory.totalMem);
+        fieldsMap.put("availableMem", metric.getSample(sample).getServerUtil().memory.availableMem);
+        fieldsMap.put("configurableMem", metric.getSample(sample).getServerUtil().memory.configurableMem);
+        fieldsMap.put("assignedMemToLpars", metric.getSample(sample).getServerUtil().memory.assignedMemToLpars);
+        fieldsMap.put("virtualPersistentMem", metric.getSample(sample).getServerUtil().memory.virtualPersistentMem);
+        log.trace("getMemoryMetrics() - fields: {}", fieldsMap);
 
         list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
 
@@ -350,13 +439,13 @@ class ManagedSystem extends Resource {
         HashMap<String, Object> fieldsMap = new HashMap<>();
 
         tagsMap.put("servername", entry.getName());
-        log.trace("getProcessorMetrics() - tags: " + tagsMap);
+        log.trace("getProcessorMetrics() - tags: {}", tagsMap);
 
-        fieldsMap.put("totalProcUnits", metric.getSample(sample).serverUtil.processor.totalProcUnits);
-        fieldsMap.put("utilizedProcUnits", metric.getSample(sample).serverUtil.processor.utilizedProcUnits);
-        fieldsMap.put("availableProcUnits", metric.getSample(sample).serverUtil.processor.availableProcUnits);
-        fieldsMap.put("configurableProcUnits", metric.getSample(sample).serverUtil.processor.configurableProcUnits);
-        log.trace("getProcessorMetrics() - fields: " + fieldsMap);
+        fieldsMap.put("totalProcUnits", metric.getSample(sample).getServerUtil().processor.totalProcUnits);
+        fieldsMap.put("utilizedProcUnits", metric.getSample(sample).getServerUtil().processor.utilizedProcUnits);
+        fieldsMap.put("availableProcUnits", metric.getSample(sample).getServerUtil().processor.availableProcUnits);
+        fieldsMap.put("configurableProcUnits", metric.getSample(sample).getServerUtil().processor.configurableProcUnits);
+        log.trace("getProcessorMetrics() - fields: {}", fieldsMap);
 
         list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
 
@@ -367,21 +456,21 @@ class ManagedSystem extends Resource {
     List<Measurement> getSharedProcessorPools(int sample) throws NullPointerException {
         log.debug("getSharedProcessorPools()");
         List<Measurement> list = new ArrayList<>();
-        metric.getSample(sample).serverUtil.sharedProcessorPool.forEach(sharedProcessorPool -> {
+        metric.getSample(sample).getServerUtil().sharedProcessorPool.forEach(sharedProcessorPool -> {
             HashMap<String, String> tagsMap = new HashMap<>();
             HashMap<String, Object> fieldsMap = new HashMap<>();
 
             tagsMap.put("servername", entry.getName());
             tagsMap.put("pool", String.valueOf(sharedProcessorPool.id));
             tagsMap.put("poolname", sharedProcessorPool.name);
-            log.trace("getSharedProcessorPools() - tags: " + tagsMap);
+            log.trace("getSharedProcessorPools() - tags: {}", tagsMap);
 
             fieldsMap.put("assignedProcUnits", sharedProcessorPool.assignedProcUnits);
             fieldsMap.put("availableProcUnits", sharedProcessorPool.availableProcUnits);
             fieldsMap.put("utilizedProcUnits", sharedProcessorPool.utilizedProcUnits);
             fieldsMap.put("borrowedProcUnits", sharedProcessorPool.borrowedProcUnits);
             fieldsMap.put("configuredProcUnits", sharedProcessorPool.configuredProcUnits);
-            log.trace("getSharedProcessorPools() - fields: " + fieldsMap);
+            log.trace("getSharedProcessorPools() - fields: {}", fieldsMap);
 
             list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
         });
@@ -398,14 +487,14 @@ class ManagedSystem extends Resource {
         HashMap<String, Object> fieldsMap = new HashMap<>();
 
         tagsMap.put("servername", entry.getName());
-        log.trace("getPhysicalProcessorPool() - tags: " + tagsMap);
+        log.trace("getPhysicalProcessorPool() - tags: {}", tagsMap);
 
-        fieldsMap.put("assignedProcUnits", metric.getSample(sample).serverUtil.physicalProcessorPool.assignedProcUnits);
-        fieldsMap.put("availableProcUnits", metric.getSample(sample).serverUtil.physicalProcessorPool.availableProcUnits);
-        fieldsMap.put("utilizedProcUnits", metric.getSample(sample).serverUtil.physicalProcessorPool.utilizedProcUnits);
-        fieldsMap.put("configuredProcUnits", metric.getSample(sample).serverUtil.physicalProcessorPool.configuredProcUnits);
-        fieldsMap.put("borrowedProcUnits", metric.getSample(sample).serverUtil.physicalProcessorPool.borrowedProcUnits);
-        log.trace("getPhysicalProcessorPool() - fields: " + fieldsMap);
+        fieldsMap.put("assignedProcUnits", metric.getSample(sample).getServerUtil().physicalProcessorPool.assignedProcUnits);
+        fieldsMap.put("availableProcUnits", metric.getSample(sample).getServerUtil().physicalProcessorPool.availableProcUnits);
+        fieldsMap.put("utilizedProcUnits", metric.getSample(sample).getServerUtil().physicalProcessorPool.utilizedProcUnits);
+        fieldsMap.put("configuredProcUnits", metric.getSample(sample).getServerUtil().physicalProcessorPool.configuredProcUnits);
+        fieldsMap.put("borrowedProcUnits", metric.getSample(sample).getServerUtil().physicalProcessorPool.borrowedProcUnits);
+        log.trace("getPhysicalProcessorPool() - fields: {}", fieldsMap);
 
         list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
 
@@ -422,20 +511,20 @@ class ManagedSystem extends Resource {
     List<Measurement> getVioDetails(int sample) throws NullPointerException {
         log.debug("getVioDetails()");
         List<Measurement> list = new ArrayList<>();
-        metric.getSample(sample).viosUtil.forEach(vio -> {
+        metric.getSample(sample).getViosUtil().forEach(vio -> {
 
             HashMap<String, String> tagsMap = new HashMap<>();
             HashMap<String, Object> fieldsMap = new HashMap<>();
 
             tagsMap.put("servername", entry.getName());
             tagsMap.put("viosname", vio.name);
-            log.trace("getVioDetails() - tags: " + tagsMap);
+            log.trace("getVioDetails() - tags: {}", tagsMap);
 
             fieldsMap.put("viosid", vio.id);
             fieldsMap.put("viosstate", vio.state);
             fieldsMap.put("viosname", vio.name);
             fieldsMap.put("affinityScore", vio.affinityScore);
-            log.trace("getVioDetails() - fields: " + fieldsMap);
+            log.trace("getVioDetails() - fields: {}", fieldsMap);
 
             list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
         });
@@ -448,14 +537,14 @@ class ManagedSystem extends Resource {
     List<Measurement> getVioMemoryMetrics(int sample) throws NullPointerException {
         log.debug("getVioMemoryMetrics()");
         List<Measurement> list = new ArrayList<>();
-        metric.getSample(sample).viosUtil.forEach(vio -> {
+        metric.getSample(sample).getViosUtil().forEach(vio -> {
 
             HashMap<String, String> tagsMap = new HashMap<>();
             HashMap<String, Object> fieldsMap = new HashMap<>();
 
             tagsMap.put("servername", entry.getName());
             tagsMap.put("viosname", vio.name);
-            log.trace("getVioMemoryMetrics() - tags: " + tagsMap);
+            log.trace("getVioMemoryMetrics() - tags: {}", tagsMap);
 
             Number assignedMem = vio.memory.assignedMem;
             Number utilizedMem = vio.memory.utilizedMem;
@@ -463,7 +552,7 @@ class ManagedSystem extends Resource {
             fieldsMap.put("assignedMem", vio.memory.assignedMem);
             fieldsMap.put("utilizedMem", vio.memory.utilizedMem);
             fieldsMap.put("utilizedPct", usedMemPct.floatValue());
-            log.trace("getVioMemoryMetrics() - fields: " + fieldsMap);
+            log.trace("getVioMemoryMetrics() - fields: {}", fieldsMap);
 
             list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
         });
@@ -476,14 +565,14 @@ class ManagedSystem extends Resource {
     List<Measurement> getVioProcessorMetrics(int sample) throws NullPointerException {
         log.debug("getVioProcessorMetrics()");
         List<Measurement> list = new ArrayList<>();
-        metric.getSample(sample).viosUtil.forEach(vio -> {
+        metric.getSample(sample).getViosUtil().forEach(vio -> {
 
             HashMap<String, String> tagsMap = new HashMap<>();
             HashMap<String, Object> fieldsMap = new HashMap<>();
 
             tagsMap.put("servername", entry.getName());
             tagsMap.put("viosname", vio.name);
-            log.trace("getVioProcessorMetrics() - tags: " + tagsMap);
+            log.trace("getVioProcessorMetrics() - tags: {}", tagsMap);
 
             fieldsMap.put("utilizedProcUnits", vio.processor.utilizedProcUnits);
             fieldsMap.put("utilizedCappedProcUnits", vio.processor.utilizedCappedProcUnits);
@@ -498,7 +587,7 @@ class ManagedSystem extends Resource {
             fieldsMap.put("timePerInstructionExecution", vio.processor.timeSpentWaitingForDispatch);
             fieldsMap.put("weight", vio.processor.weight);
             fieldsMap.put("mode", vio.processor.mode);
-            log.trace("getVioProcessorMetrics() - fields: " + fieldsMap);
+            log.trace("getVioProcessorMetrics() - fields: {}", fieldsMap);
 
             list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
         });
@@ -511,17 +600,17 @@ class ManagedSystem extends Resource {
     List<Measurement> getVioNetworkLpars(int sample) throws NullPointerException {
         log.debug("getVioNetworkLpars()");
         List<Measurement> list = new ArrayList<>();
-        metric.getSample(sample).viosUtil.forEach(vio -> {
+        metric.getSample(sample).getViosUtil().forEach(vio -> {
 
             HashMap<String, String> tagsMap = new HashMap<>();
             HashMap<String, Object> fieldsMap = new HashMap<>();
 
             tagsMap.put("servername", entry.getName());
             tagsMap.put("viosname", vio.name);
-            log.trace("getVioNetworkLpars() - tags: " + tagsMap);
+            log.trace("getVioNetworkLpars() - tags: {}", tagsMap);
 
             fieldsMap.put("clientlpars", vio.network.clientLpars.size());
-            log.trace("getVioNetworkLpars() - fields: " + fieldsMap);
+            log.trace("getVioNetworkLpars() - fields: {}", fieldsMap);
 
             list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
         });
@@ -534,7 +623,7 @@ class ManagedSystem extends Resource {
     List<Measurement> getVioNetworkSharedAdapters(int sample) throws NullPointerException {
         log.debug("getVioNetworkSharedAdapters()");
         List<Measurement> list = new ArrayList<>();
-        metric.getSample(sample).viosUtil.forEach(vio -> {
+        metric.getSample(sample).getViosUtil().forEach(vio -> {
             vio.network.sharedAdapters.forEach(adapter -> {
                 HashMap<String, String> tagsMap = new HashMap<>();
                 HashMap<String, Object> fieldsMap = new HashMap<>();
@@ -543,7 +632,7 @@ class ManagedSystem extends Resource {
                 tagsMap.put("viosname", vio.name);
                 //tagsMap.put("id", adapter.id);
                 tagsMap.put("location", adapter.physicalLocation);
-                log.trace("getVioNetworkSharedAdapters() - tags: " + tagsMap);
+                log.trace("getVioNetworkSharedAdapters() - tags: {}", tagsMap);
 
                 fieldsMap.put("id", adapter.id);
                 fieldsMap.put("type", adapter.type);
@@ -553,7 +642,7 @@ class ManagedSystem extends Resource {
                 fieldsMap.put("receivedPackets", adapter.receivedPackets);
                 fieldsMap.put("droppedPackets", adapter.droppedPackets);
                 fieldsMap.put("transferredBytes", adapter.transferredBytes);
-                log.trace("getVioNetworkSharedAdapters() - fields: " + fieldsMap);
+                log.trace("getVioNetworkSharedAdapters() - fields: {}", fieldsMap);
 
                 list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
             });
@@ -567,7 +656,7 @@ class ManagedSystem extends Resource {
     List<Measurement> getVioNetworkVirtualAdapters(int sample) throws NullPointerException {
         log.debug("getVioNetworkVirtualAdapters()");
         List<Measurement> list = new ArrayList<>();
-        metric.getSample(sample).viosUtil.forEach( vio -> {
+        metric.getSample(sample).getViosUtil().forEach( vio -> {
             vio.network.virtualEthernetAdapters.forEach( adapter -> {
 
                 HashMap<String, String> tagsMap = new HashMap<>();
@@ -578,7 +667,7 @@ class ManagedSystem extends Resource {
                 tagsMap.put("servername", entry.getName());
                 tagsMap.put("viosname", vio.name);
                 tagsMap.put("location", adapter.physicalLocation);
-                log.trace("getVioNetworkVirtualAdapters() - tags: " + tagsMap);
+                log.trace("getVioNetworkVirtualAdapters() - tags: {}", tagsMap);
 
                 fieldsMap.put("droppedPackets", adapter.droppedPackets);
                 fieldsMap.put("droppedPhysicalPackets", adapter.droppedPhysicalPackets);
@@ -593,7 +682,7 @@ class ManagedSystem extends Resource {
                 fieldsMap.put("sentPhysicalPackets", adapter.sentPhysicalPackets);
                 fieldsMap.put("transferredBytes", adapter.transferredBytes);
                 fieldsMap.put("transferredPhysicalBytes", adapter.transferredPhysicalBytes);
-                log.trace("getVioNetworkVirtualAdapters() - fields: " + fieldsMap);
+                log.trace("getVioNetworkVirtualAdapters() - fields: {}", fieldsMap);
 
                 list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
             });
@@ -607,7 +696,7 @@ class ManagedSystem extends Resource {
     List<Measurement> getVioNetworkGenericAdapters(int sample) throws NullPointerException {
         log.debug("getVioNetworkGenericAdapters()");
         List<Measurement> list = new ArrayList<>();
-        metric.getSample(sample).viosUtil.forEach( vio -> {
+        metric.getSample(sample).getViosUtil().forEach( vio -> {
             vio.network.genericAdapters.forEach( adapter -> {
 
                 HashMap<String, String> tagsMap = new HashMap<>();
@@ -617,7 +706,7 @@ class ManagedSystem extends Resource {
                 tagsMap.put("servername", entry.getName());
                 tagsMap.put("viosname", vio.name);
                 tagsMap.put("location", adapter.physicalLocation);
-                log.trace("getVioNetworkGenericAdapters() - tags: " + tagsMap);
+                log.trace("getVioNetworkGenericAdapters() - tags: {}", tagsMap);
 
                 fieldsMap.put("sentBytes", adapter.sentBytes);
                 fieldsMap.put("sentPackets", adapter.sentPackets);
@@ -625,7 +714,7 @@ class ManagedSystem extends Resource {
                 fieldsMap.put("receivedPackets", adapter.receivedPackets);
                 fieldsMap.put("droppedPackets", adapter.droppedPackets);
                 fieldsMap.put("transferredBytes", adapter.transferredBytes);
-                log.trace("getVioNetworkGenericAdapters() - fields: " + fieldsMap);
+                log.trace("getVioNetworkGenericAdapters() - fields: {}", fieldsMap);
 
                 list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
             });
@@ -639,17 +728,17 @@ class ManagedSystem extends Resource {
     List<Measurement> getVioStorageLpars(int sample) throws NullPointerException {
         log.debug("getVioStorageLpars()");
         List<Measurement> list = new ArrayList<>();
-        metric.getSample(sample).viosUtil.forEach(vio -> {
+        metric.getSample(sample).getViosUtil().forEach(vio -> {
 
             HashMap<String, String> tagsMap = new HashMap<>();
             HashMap<String, Object> fieldsMap = new HashMap<>();
 
             tagsMap.put("servername", entry.getName());
             tagsMap.put("viosname", vio.name);
-            log.trace("getVioStorageLpars() - tags: " + tagsMap);
+            log.trace("getVioStorageLpars() - tags: {}", tagsMap);
 
             fieldsMap.put("clientlpars", vio.storage.clientLpars.size());
-            log.trace("getVioStorageLpars() - fields: " + fieldsMap);
+            log.trace("getVioStorageLpars() - fields: {}", fieldsMap);
 
             list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
         });
@@ -662,8 +751,8 @@ class ManagedSystem extends Resource {
     List<Measurement> getVioStorageFiberChannelAdapters(int sample) throws NullPointerException {
         log.debug("getVioStorageFiberChannelAdapters()");
         List<Measurement> list = new ArrayList<>();
-        metric.getSample(sample).viosUtil.forEach( vio -> {
-            log.trace("getVioStorageFiberChannelAdapters() - VIO: " + vio.name);
+        metric.getSample(sample).getViosUtil().forEach( vio -> {
+            log.trace("getVioStorageFiberChannelAdapters() - VIO: {}", vio.name);
 
             vio.storage.fiberChannelAdapters.forEach( adapter -> {
 
@@ -674,14 +763,14 @@ class ManagedSystem extends Resource {
                 tagsMap.put("servername", entry.getName());
                 tagsMap.put("viosname", vio.name);
                 tagsMap.put("location", adapter.physicalLocation);
-                log.trace("getVioStorageFiberChannelAdapters() - tags: " + tagsMap);
+                log.trace("getVioStorageFiberChannelAdapters() - tags: {}", tagsMap);
 
                 fieldsMap.put("numOfReads", adapter.numOfReads);
                 fieldsMap.put("numOfWrites", adapter.numOfWrites);
                 fieldsMap.put("readBytes", adapter.readBytes);
                 fieldsMap.put("writeBytes", adapter.writeBytes);
                 fieldsMap.put("transmittedBytes", adapter.transmittedBytes);
-                log.trace("getVioStorageFiberChannelAdapters() - fields: " + fieldsMap);
+                log.trace("getVioStorageFiberChannelAdapters() - fields: {}", fieldsMap);
 
                 list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
             });
@@ -697,8 +786,8 @@ class ManagedSystem extends Resource {
         log.debug("getVioStoragePhysicalAdapters()");
         List<Measurement> list = new ArrayList<>();
 
-        metric.getSample(sample).viosUtil.forEach( vio -> {
-            log.trace("getVioStoragePhysicalAdapters() - VIO: " + vio.name);
+        metric.getSample(sample).getViosUtil().forEach( vio -> {
+            log.trace("getVioStoragePhysicalAdapters() - VIO: {}", vio.name);
 
             vio.storage.genericPhysicalAdapters.forEach( adapter -> {
 
@@ -709,7 +798,7 @@ class ManagedSystem extends Resource {
                 tagsMap.put("viosname", vio.name);
                 tagsMap.put("id", adapter.id);
                 tagsMap.put("location", adapter.physicalLocation);
-                log.trace("getVioStoragePhysicalAdapters() - tags: " + tagsMap);
+                log.trace("getVioStoragePhysicalAdapters() - tags: {}", tagsMap);
 
                 fieldsMap.put("numOfReads", adapter.numOfReads);
                 fieldsMap.put("numOfWrites", adapter.numOfWrites);
@@ -717,7 +806,7 @@ class ManagedSystem extends Resource {
                 fieldsMap.put("writeBytes", adapter.writeBytes);
                 fieldsMap.put("transmittedBytes", adapter.transmittedBytes);
                 fieldsMap.put("type", adapter.type);
-                log.trace("getVioStoragePhysicalAdapters() - fields: " + fieldsMap);
+                log.trace("getVioStoragePhysicalAdapters() - fields: {}", fieldsMap);
 
                 list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
             });
@@ -731,7 +820,7 @@ class ManagedSystem extends Resource {
     List<Measurement> getVioStorageVirtualAdapters(int sample) throws NullPointerException {
         log.debug("getVioStorageVirtualAdapters()");
         List<Measurement> list = new ArrayList<>();
-        metric.getSample(sample).viosUtil.forEach( (vio) -> {
+        metric.getSample(sample).getViosUtil().forEach( (vio) -> {
             vio.storage.genericVirtualAdapters.forEach( (adapter) -> {
                 HashMap<String, String> tagsMap = new HashMap<>();
                 HashMap<String, Object> fieldsMap = new HashMap<>();
@@ -740,7 +829,7 @@ class ManagedSystem extends Resource {
                 tagsMap.put("viosname", vio.name);
                 tagsMap.put("location", adapter.physicalLocation);
                 tagsMap.put("id", adapter.id);
-                log.debug("getVioStorageVirtualAdapters() - tags: " + tagsMap);
+                log.debug("getVioStorageVirtualAdapters() - tags: {}", tagsMap);
 
                 fieldsMap.put("numOfReads", adapter.numOfReads);
                 fieldsMap.put("numOfWrites", adapter.numOfWrites);
@@ -748,7 +837,7 @@ class ManagedSystem extends Resource {
                 fieldsMap.put("writeBytes", adapter.writeBytes);
                 fieldsMap.put("transmittedBytes", adapter.transmittedBytes);
                 fieldsMap.put("type", adapter.type);
-                log.debug("getVioStorageVirtualAdapters() - fields: " + fieldsMap);
+                log.debug("getVioStorageVirtualAdapters() - fields: {}", fieldsMap);
 
                 list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
             });
@@ -763,7 +852,7 @@ class ManagedSystem extends Resource {
     List<Measurement> getViosStorageSharedStoragePools(int sample) throws NullPointerException {
 
         List<Measurement> list = new ArrayList<>();
-        metrics.systemUtil.getSample(sample).viosUtil.forEach( vios -> {
+        metrics.systemUtil.getSample(sample).getViosUtil().forEach( vios -> {
 
             vios.storage.fiberChannelAdapters.forEach( adapter -> {
 
@@ -772,7 +861,7 @@ class ManagedSystem extends Resource {
                 tagsMap.put("viosname", vios.name);
                 tagsMap.put("id", adapter.id);
                 tagsMap.put("location", adapter.physicalLocation);
-                log.trace("getViosStorageSharedStoragePools() - tags: " + tagsMap.toString());
+                log.trace("getViosStorageSharedStoragePools() - tags: {}", tagsMap);
 
                 HashMap<String, Object> fieldsMap = new HashMap<>();
                 fieldsMap.put("numOfReads", adapter.numOfReads);
@@ -781,12 +870,12 @@ class ManagedSystem extends Resource {
                 fieldsMap.put("writeBytes", adapter.writeBytes);
                 fieldsMap.put("transmittedBytes", adapter.transmittedBytes);
                 fieldsMap.put("physicalLocation", adapter.physicalLocation);
-                log.trace("getViosStorageSharedStoragePools() - fields: " + fieldsMap.toString());
+                log.trace("getViosStorageSharedStoragePools() - fields: {}", fieldsMap);
 
                 list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
             });
 
-            log.trace("getViosStorageSharedStoragePools() - VIOS: " + vios.name);
+            log.trace("getViosStorageSharedStoragePools() - VIOS: {}", vios.name);
         });
 
         return list;
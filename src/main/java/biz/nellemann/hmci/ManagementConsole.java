@@ -16,37 +16,53 @@
 package biz.nellemann.hmci;
 
 import java.io.IOException;
-import static java.lang.Thread.sleep;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
-
 import biz.nellemann.hmci.dto.toml.HmcConfiguration;
 import biz.nellemann.hmci.dto.xml.Link;
 import biz.nellemann.hmci.dto.xml.ManagementConsoleEntry;
 import biz.nellemann.hmci.dto.xml.XmlFeed;
 
-class ManagementConsole implements Runnable {
+class ManagementConsole {
 
     private final static Logger log = LoggerFactory.getLogger(ManagementConsole.class);
+    private final static DateTimeFormatter TRACE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
 
     private final Integer refreshValue;
     private final Integer discoverValue;
+    private final Integer deadlineValue;
+    private final String hmcName;
     private final List<ManagedSystem> managedSystems = new ArrayList<>();
 
 
     private final RestClient restClient;
     private final InfluxClient influxClient;
-    private final AtomicBoolean keepRunning = new AtomicBoolean(true);
+    private LatestValueStore latestValueStore;
+    private ResourceExecutor resourceExecutor;
+    private MemoryBudget memoryBudget;
+    private final RefreshTiers refreshTiers;
+    private final RefreshQueue refreshQueue;
+    private final DecodeTimer decodeTimer = new DecodeTimer();
+    private Backfill backfill;
+    private Instant lastDiscover;
+    private long expectedStart;     // Epoch millis the current cycle was due, following the fixed rate of the Scheduler
+    private long latenessMillis;
 
     protected Integer responseErrors = 0;
 
@@ -57,12 +73,33 @@ class ManagementConsole implements Runnable {
     private final List<String> includePartitions;
 
 
-    ManagementConsole(HmcConfiguration configuration, InfluxClient influxClient) {
+    ManagementConsole(HmcConfiguration configuration, InfluxClient influxClient) throws IOException {
         this.refreshValue = configuration.refresh;
         this.discoverValue = configuration.discover;
+        this.deadlineValue = (configuration.deadline != null) ? configuration.deadline : configuration.refresh;
+        this.hmcName = (configuration.name != null) ? configuration.name : configuration.url;
         this.doEnergy = configuration.energy;
         this.influxClient = influxClient;
         restClient = new RestClient(configuration.url, configuration.username, configuration.password, configuration.trust);
+        restClient.setSessionLifetime(configuration.session * 60L);
+        restClient.setSessions(configuration.sessions);
+        restClient.setTrafficCounter(new TrafficCounter(configuration.compression));
+        if(configuration.trace != null) {
+            Path traceDir = Paths.get(configuration.trace);
+            Files.createDirectories(traceDir);
+            String fileName = String.format("%s-%s.trace", hmcName.replaceAll("[^A-Za-z0-9._-]", "_"), TRACE_FORMAT.format(Instant.now()));
+            restClient.setTrafficRecorder(new TrafficRecorder(traceDir.resolve(fileName), configuration.traceMinutes * 60_000L));
+        }
+        if(configuration.replay != null) {
+            restClient.setTrafficReplay(TrafficReplay.load(Paths.get(configuration.replay), configuration.replaySpeed));
+        }
+        if(configuration.breakerFailures > 0) {
+            restClient.setCircuitBreaker(new CircuitBreaker(configuration.breakerFailures, configuration.breakerBackoff * 1000L, configuration.breakerMaxBackoff * 1000L));
+        }
+        int maxRequests = configuration.adaptive ? configuration.maxRequests : configuration.requests;
+        restClient.setConcurrencyLimiter(new ConcurrencyLimiter(configuration.adaptive ? 1 : configuration.requests, configuration.requests, maxRequests));
+        refreshTiers = new RefreshTiers(configuration.refresh, configuration.tiers);
+        refreshQueue = new RefreshQueue(configuration.maxSkip);
 
         this.excludeSystems = configuration.excludeSystems;
         this.includeSystems = configuration.includeSystems;
@@ -71,51 +108,72 @@ class ManagementConsole implements Runnable {
     }
 
 
-    @Override
-    public void run() {
+    void setLatestValueStore(LatestValueStore latestValueStore) {
+        this.latestValueStore = latestValueStore;
+    }
 
-        log.trace("run()");
 
-        Instant lastDiscover = Instant.now();
-        restClient.login();
-        discover();
+    void setResourceExecutor(ResourceExecutor resourceExecutor) {
+        this.resourceExecutor = resourceExecutor;
+    }
 
-        do {
-            Instant instantStart = Instant.now();
-            try {
-                refresh();
-                if(instantStart.isAfter(lastDiscover.plus(discoverValue, ChronoUnit.MINUTES))) {
-                    lastDiscover = instantStart;
-                    discover();
-                }
-            } catch (Exception e) {
-                log.error("run() - fatal error: {}", e.getMessage());
-                keepRunning.set(false);
-                throw new RuntimeException(e);
-            }
 
-            Instant instantEnd = Instant.now();
-            long timeSpend = Duration.between(instantStart, instantEnd).toMillis();
-            log.trace("run() - duration millis: " + timeSpend);
-            if(timeSpend < (refreshValue * 1000)) {
-                try {
-                    long sleepTime = (refreshValue * 1000) - timeSpend;
-                    log.trace("run() - sleeping millis: " + sleepTime);
-                    if(sleepTime > 0) {
-                        //noinspection BusyWait
-                        sleep(sleepTime);
-                    }
-                } catch (InterruptedException e) {
-                    log.error("run() - sleep interrupted", e);
-                }
-            } else {
-                log.warn("run() - possible slow response from this HMC");
-            }
+    /**
+     * Process each resource right after it is fetched, within a memory budget shared by all HMC's.
+     */
+    void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+
+    /**
+     * Recover gaps since the last run, for resources with a persisted watermark.
+     */
+    void setBackfill(Backfill backfill) {
+        this.backfill = backfill;
+    }
+
+
+    /**
+     * Run one collection cycle, called by the Scheduler every refresh interval.
+     * The first cycle logs in and discovers the systems.
+     */
+    void cycle() {
 
-        } while (keepRunning.get());
+        log.trace("cycle()");
+        Instant instantStart = Instant.now();
+        if(expectedStart == 0) {
+            expectedStart = instantStart.toEpochMilli();
+        }
+        latenessMillis = Math.max(0, instantStart.toEpochMilli() - expectedStart);
+        expectedStart += refreshValue * 1000L;
+
+        if(lastDiscover == null) {
+            restClient.login();
+            discover();
+            lastDiscover = instantStart;
+        }
+
+        refresh(instantStart.plusSeconds(deadlineValue));
+        refreshTiers.nextCycle();
+        if(backfill != null) {
+            backfill.recover(restClient, managedSystems);
+        }
+
+        if(instantStart.isAfter(lastDiscover.plus(discoverValue, ChronoUnit.MINUTES))) {
+            lastDiscover = instantStart;
+            discover();
+        }
+
+        long timeSpend = Duration.between(instantStart, Instant.now()).toMillis();
+        log.trace("cycle() - duration millis: {}", timeSpend);
+        if(timeSpend >= (refreshValue * 1000)) {
+            log.warn("cycle() - possible slow response from this HMC");
+        }
+    }
 
 
-        // Logout of HMC
+    void logoff() {
         restClient.logoff();
     }
 
@@ -123,17 +181,13 @@ class ManagementConsole implements Runnable {
     public void discover() {
 
         try {
-            String xml = restClient.getRequest("/rest/api/uom/ManagementConsole");
-
-            // Do not try to parse empty response
-            if(xml == null || xml.length() <= 1) {
+            // The client returns the feed parsed last time, if the document has not changed
+            XmlFeed xmlFeed = restClient.getXml("/rest/api/uom/ManagementConsole", XmlFeed.class);
+            if(xmlFeed == null) {
                 responseErrors++;
                 log.warn("discover() - no data.");
                 return;
             }
-
-            XmlMapper xmlMapper = new XmlMapper();
-            XmlFeed xmlFeed = xmlMapper.readValue(xml, XmlFeed.class);
             ManagementConsoleEntry entry;
 
             if(xmlFeed.getEntry() == null){
@@ -153,6 +207,9 @@ class ManagementConsole implements Runnable {
                 ManagedSystem managedSystem = new ManagedSystem(restClient, influxClient, link.getHref());
                 managedSystem.setExcludePartitions(excludePartitions);
                 managedSystem.setIncludePartitions(includePartitions);
+                managedSystem.setResourceExecutor(resourceExecutor);
+                managedSystem.setMemoryBudget(memoryBudget);
+                managedSystem.setDecodeTimer(decodeTimer);
                 managedSystem.discover();
 
                 // Only continue for powered-on operating systems
@@ -174,6 +231,10 @@ class ManagementConsole implements Runnable {
                 }
             }
 
+            if(latestValueStore != null) {
+                managedSystems.forEach(latestValueStore::register);
+            }
+
         } catch (IOException e) {
             log.warn("discover() - error: {}", e.getMessage());
         }
@@ -181,21 +242,178 @@ class ManagementConsole implements Runnable {
     }
 
 
+    /**
+     * Fetch and process metrics from 'from' to 'to' (epoch seconds) for all systems on this HMC.
+     * @return number of samples processed
+     */
+    int backfill(Backfill backfill, long from, long to) {
+        restClient.login();
+        discover();
+
+        int processed = 0;
+        for(ManagedSystem system : managedSystems) {
+            if(system.entry != null) {
+                processed += backfill.run(restClient, system, from, to);
+            }
+        }
+
+        restClient.logoff();
+        return processed;
+    }
+
+
     void refresh() {
+        refresh(Instant.MAX);
+    }
+
+
+    /**
+     * Refresh the systems and partitions which are due, in batches as wide as the concurrency limit,
+     * ordered by priority and staleness. After the deadline no more batches are started, and the
+     * remaining work is carried over to the next cycle, except for resources skipped too many times.
+     * All systems are processed at the end, and stats of the cycle are written as 'hmci_cycle', 'hmci_traffic'
+     * and 'hmci_decode'.
+     */
+    void refresh(Instant deadline) {
 
         log.debug("refresh()");
-        managedSystems.forEach( (system) -> {
+        long start = System.currentTimeMillis();
 
+        List<RefreshQueue.Item> candidates = new ArrayList<>();
+        for(ManagedSystem system : managedSystems) {
             if(system.entry == null){
                 log.warn("refresh() - no data.");
-                return;
+                continue;
+            }
+            candidates.add(new RefreshQueue.Item(system, null, refreshTiers.getPriority(system), refreshTiers.isDue(system)));
+            for(LogicalPartition partition : system.logicalPartitions) {
+                candidates.add(new RefreshQueue.Item(system, partition, refreshTiers.getPriority(system, partition), refreshTiers.isDue(system, partition)));
+            }
+        }
+
+        List<RefreshQueue.Item> plan = refreshQueue.plan(candidates);
+        int completed = 0, carried = 0, forced = 0;
+        boolean deadlineReached = false;
+
+        List<RefreshQueue.Item> batch = new ArrayList<>();
+        int width;
+        for(int i = 0; i < plan.size(); i += width) {
+            if(!deadlineReached && Instant.now().isAfter(deadline)) {
+                deadlineReached = true;
+            }
+
+            // Follow the (adaptive) limit of requests in flight to this HMC
+            width = Math.max(1, restClient.getConcurrencyLimit());
+            batch.clear();
+            for(RefreshQueue.Item item : plan.subList(i, Math.min(i + width, plan.size()))) {
+                if(deadlineReached && !item.forced) {
+                    refreshQueue.carry(item);
+                    carried++;
+                } else {
+                    batch.add(item);
+                }
+            }
+            if(batch.isEmpty()) {
+                continue;
+            }
+
+            List<Runnable> tasks = new ArrayList<>(batch.size());
+            batch.forEach(item -> tasks.add(item::refresh));
+            if(resourceExecutor != null) {
+                resourceExecutor.invokeAll(tasks);
+            } else {
+                tasks.forEach(Runnable::run);
             }
 
-            system.refresh();
-            system.process();
+            long now = System.currentTimeMillis();
+            for(RefreshQueue.Item item : batch) {
+                refreshQueue.done(item, now);
+                completed++;
+                if(item.forced) {
+                    forced++;
+                }
+            }
+        }
+
+        if(carried > 0) {
+            log.warn("refresh() - deadline reached, carrying over {} of {} resources.", carried, plan.size());
+        }
+
+        for(ManagedSystem system : managedSystems) {
+            if(system.entry != null) {
+                system.process();
+            }
+        }
+
+        writeCycleStats(plan.size(), completed, carried, forced, System.currentTimeMillis() - start, deadlineReached);
+    }
 
+
+    private void writeCycleStats(int planned, int completed, int carried, int forced, long durationMillis, boolean deadlineReached) {
+        if(influxClient == null) {
+            return;
+        }
+
+        Map<String, String> tags = new HashMap<>();
+        tags.put("hmc", hmcName);
+
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("planned", planned);
+        fields.put("completed", completed);
+        fields.put("carried", carried);
+        fields.put("forced", forced);
+        fields.put("durationMillis", durationMillis);
+        fields.put("latenessMillis", latenessMillis);
+        fields.put("deadlineReached", deadlineReached);
+        fields.put("concurrencyLimit", restClient.getConcurrencyLimit());
+        CircuitBreaker circuitBreaker = restClient.getCircuitBreaker();
+        if(circuitBreaker != null) {
+            fields.put("openCircuits", circuitBreaker.getStatus().size());
+            fields.put("rejectedRequests", circuitBreaker.drainRejected());
+        }
+
+        influxClient.write(Collections.singletonList(new Measurement(tags, fields)), "hmci_cycle");
+
+        TrafficCounter trafficCounter = restClient.getTrafficCounter();
+        if(trafficCounter != null) {
+            List<Measurement> traffic = new ArrayList<>();
+            Map<String, LatencyHistogram.Snapshot> latencies = trafficCounter.drainLatency();
+            trafficCounter.drain().forEach((endpoint, counts) -> {
+                Map<String, String> endpointTags = new HashMap<>(tags);
+                endpointTags.put("endpoint", endpoint);
+                Map<String, Object> endpointFields = new HashMap<>();
+                endpointFields.put("requests", counts[0]);
+                endpointFields.put("wireBytes", counts[1]);
+                endpointFields.put("decodedBytes", counts[2]);
+                endpointFields.put("bytesPerResponse", counts[2] / counts[0]);
+                LatencyHistogram.Snapshot latency = latencies.get(endpoint);
+                if(latency != null) {
+                    putPercentiles(endpointFields, "latencyMicros", latency);
+                }
+                traffic.add(new Measurement(endpointTags, endpointFields));
+            });
+            influxClient.write(traffic, "hmci_traffic");
+        }
+
+        List<Measurement> decode = new ArrayList<>();
+        decodeTimer.drain().forEach((resourceType, snapshot) -> {
+            Map<String, String> resourceTags = new HashMap<>(tags);
+            resourceTags.put("resource", resourceType);
+            Map<String, Object> resourceFields = new HashMap<>();
+            resourceFields.put("count", snapshot.count);
+            putPercentiles(resourceFields, "decodeMicros", snapshot);
+            decode.add(new Measurement(resourceTags, resourceFields));
         });
+        influxClient.write(decode, "hmci_decode");
+    }
+
 
+    private static void putPercentiles(Map<String, Object> fields, String prefix, LatencyHistogram.Snapshot snapshot) {
+        fields.put(prefix + "Mean", snapshot.mean());
+        fields.put(prefix + "P50", snapshot.percentile(0.5));
+        fields.put(prefix + "P90", snapshot.percentile(0.9));
+        fields.put(prefix + "P99", snapshot.percentile(0.99));
+        fields.put(prefix + "Max", snapshot.max);
     }
 
 }
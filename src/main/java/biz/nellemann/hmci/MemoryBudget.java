@@ -0,0 +1,84 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Global budget of heap used for decoded metrics, shared by all HMC's.
+ *
+ * Each payload reserves an estimate of its size before it is decoded, and releases it when its
+ * samples have been processed, so the number of decodes at the same time is throttled to fit the
+ * budget. A payload larger than the whole budget is decoded alone.
+ */
+final class MemoryBudget {
+
+    private final static Logger log = LoggerFactory.getLogger(MemoryBudget.class);
+
+    // The JSON text (1-2 bytes per char) plus the decoded samples (measured at ~0.5 byte per char)
+    private final static int BYTES_PER_CHAR = 2;
+
+    private final long budget;
+    private long used;
+
+
+    MemoryBudget(long budgetBytes) {
+        this.budget = Math.max(1, budgetBytes);
+        log.info("MemoryBudget() - {} MB for decoded metrics", budget / (1024 * 1024));
+    }
+
+
+    /**
+     * Estimated heap used while decoding and processing a payload.
+     */
+    static long estimate(String json) {
+        return (long) json.length() * BYTES_PER_CHAR;
+    }
+
+
+    /**
+     * Wait until the bytes fit within the budget.
+     * @return the bytes reserved, to be given back with release()
+     */
+    synchronized long acquire(long bytes) throws InterruptedException {
+        long reserved = Math.min(bytes, budget);
+        if(used > 0 && used + reserved > budget) {
+            log.debug("acquire() - waiting for {} bytes, {} of {} in use", reserved, used, budget);
+            do {
+                wait();
+            } while(used > 0 && used + reserved > budget);
+        }
+        used += reserved;
+        return reserved;
+    }
+
+
+    synchronized void release(long reserved) {
+        used = Math.max(0, used - reserved);
+        notifyAll();
+    }
+
+
+    long getBudget() {
+        return budget;
+    }
+
+    synchronized long getUsed() {
+        return used;
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import biz.nellemann.hmci.dto.toml.QuantileConfiguration;
+
+/**
+ * Keeps a QuantileSketch per series (measurement, tags and field) and time window.
+ * When a window closes, the quantiles are emitted as a "<measurement>_quantiles"
+ * measurement, tagged with the name of the field they were computed from.
+ */
+final class QuantileAggregator {
+
+    private final static Logger log = LoggerFactory.getLogger(QuantileAggregator.class);
+
+    private final long windowSeconds;
+    private final double accuracy;
+    private final int maxBins;
+    private final boolean emitSketch;
+    private final double[] quantiles;
+    private final Set<String> fields;
+
+    private final Map<String, Series> seriesMap = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Closed> closedWindows = new ConcurrentLinkedQueue<>();
+    private final AtomicLong latestTimestamp = new AtomicLong();
+    private volatile long lastExpireCheck = 0;
+
+
+    QuantileAggregator(QuantileConfiguration configuration) {
+        this.windowSeconds = configuration.window;
+        this.accuracy = configuration.accuracy;
+        this.maxBins = configuration.maxBins;
+        this.emitSketch = configuration.sketch;
+        this.fields = new HashSet<>(configuration.fields);
+        this.quantiles = new double[configuration.quantiles.size()];
+        for(int i = 0; i < quantiles.length; i++) {
+            quantiles[i] = configuration.quantiles.get(i);
+        }
+    }
+
+
+    /**
+     * Add the selected fields of the measurements to their series sketch.
+     */
+    void record(List<Measurement> measurements, String name) {
+        for(Measurement m : measurements) {
+            for(Map.Entry<String, Object> field : m.fields.entrySet()) {
+                if(!fields.contains(field.getKey()) || !(field.getValue() instanceof Number)) {
+                    continue;
+                }
+                latestTimestamp.accumulateAndGet(m.timestamp.getEpochSecond(), Math::max);
+                long epochSecond = m.timestamp.getEpochSecond();
+                double value = ((Number) field.getValue()).doubleValue();
+                // Look up and add in one step, so expireIdle() cannot remove the series in between
+                seriesMap.compute(seriesKey(name, m.tags, field.getKey()), (key, series) -> {
+                    if(series == null) {
+                        series = new Series(name, m.tags, field.getKey());
+                    }
+                    series.add(epochSecond, value);
+                    return series;
+                });
+            }
+        }
+    }
+
+
+    /**
+     * Return (and forget) all measurements from closed windows, grouped by measurement name.
+     * Series which received no data for a full window after closing are flushed and removed.
+     * Sample time is used rather than wall clock, so clock skew on the HMC does not matter.
+     */
+    Map<String, List<Measurement>> drain() {
+        expireIdle(latestTimestamp.get());
+
+        Map<String, List<Measurement>> result = new HashMap<>();
+        Closed closed;
+        while((closed = closedWindows.poll()) != null) {
+            result.computeIfAbsent(closed.name + "_quantiles", k -> new ArrayList<>()).add(closed.measurement);
+        }
+        return result;
+    }
+
+
+    int getSeriesCount() {
+        return seriesMap.size();
+    }
+
+
+    private void expireIdle(long now) {
+        if(now - lastExpireCheck < windowSeconds) {
+            return;
+        }
+        lastExpireCheck = now;
+
+        for(String key : seriesMap.keySet()) {
+            seriesMap.computeIfPresent(key, (k, series) -> {
+                synchronized (series) {
+                    if(series.windowStart + (2 * windowSeconds) < now) {
+                        series.close();
+                        return null;
+                    }
+                    return series;
+                }
+            });
+        }
+    }
+
+
+    private static String seriesKey(String name, Map<String, String> tags, String field) {
+        StringBuilder sb = new StringBuilder(name);
+        new TreeMap<>(tags).forEach((k, v) -> sb.append(',').append(k).append('=').append(v));
+        return sb.append(' ').append(field).toString();
+    }
+
+
+    static String quantileName(double quantile) {
+        return "p" + BigDecimal.valueOf(quantile).movePointRight(2).stripTrailingZeros().toPlainString();
+    }
+
+
+    private final class Series {
+
+        private final String name;
+        private final Map<String, String> tags;
+        private final QuantileSketch sketch;
+        private long windowStart = -1;
+
+        Series(String name, Map<String, String> tags, String field) {
+            this.name = name;
+            this.tags = new HashMap<>(tags);
+            this.tags.put("field", field);
+            this.sketch = new QuantileSketch(accuracy, maxBins);
+        }
+
+        synchronized void add(long epochSecond, double value) {
+            long window = epochSecond - (epochSecond % windowSeconds);
+            if(window > windowStart) {
+                close();
+                windowStart = window;
+            } else if(window < windowStart) {
+                log.trace("add() - late sample for closed window: {} {}", name, tags);
+                return;
+            }
+            sketch.add(value);
+        }
+
+        void close() {
+            if(sketch.getCount() == 0) {
+                return;
+            }
+
+            Map<String, Object> fieldsMap = new TreeMap<>();
+            for(double q : quantiles) {
+                fieldsMap.put(quantileName(q), sketch.getValueAtQuantile(q));
+            }
+            fieldsMap.put("min", sketch.getMin());
+            fieldsMap.put("max", sketch.getMax());
+            fieldsMap.put("mean", sketch.getSum() / sketch.getCount());
+            fieldsMap.put("count", sketch.getCount());
+            if(emitSketch) {
+                fieldsMap.put("sketch", Base64.getEncoder().encodeToString(sketch.serialize()));
+            }
+
+            closedWindows.add(new Closed(name, new Measurement(Instant.ofEpochSecond(windowStart), tags, fieldsMap)));
+            sketch.clear();
+        }
+    }
+
+
+    private static final class Closed {
+        final String name;
+        final Measurement measurement;
+
+        Closed(String name, Measurement measurement) {
+            this.name = name;
+            this.measurement = measurement;
+        }
+    }
+
+}
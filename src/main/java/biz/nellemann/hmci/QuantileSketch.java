@@ -0,0 +1,285 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Mergeable quantile sketch with relative-error guarantees (DDSketch).
+ *
+ * Values are mapped into logarithmic buckets, so any quantile is returned
+ * within the configured relative accuracy. The number of buckets is bounded;
+ * when exceeded, the lowest buckets are collapsed, which only affects the
+ * accuracy of the lowest quantiles. Negative values are counted as zero, as
+ * none of the PCM metrics we sketch can be negative.
+ */
+final class QuantileSketch {
+
+    private final static double MIN_INDEXABLE_VALUE = 1e-9;
+    private final static int INITIAL_BINS = 64;
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+    private final int maxBins;
+
+    private int[] bins = new int[0];
+    private int offset;         // Bucket index of bins[0]
+    private long zeroCount;
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+
+    QuantileSketch(double relativeAccuracy, int maxBins) {
+        if(relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("relativeAccuracy must be between 0 and 1");
+        }
+        if(maxBins < 16) {
+            throw new IllegalArgumentException("maxBins must be at least 16");
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+        this.maxBins = maxBins;
+    }
+
+
+    void add(double value) {
+        if(Double.isNaN(value)) {
+            return;
+        }
+
+        count++;
+        sum += value;
+        if(value < min) min = value;
+        if(value > max) max = value;
+
+        if(value < MIN_INDEXABLE_VALUE) {
+            zeroCount++;
+        } else {
+            increment(index(value), 1);
+        }
+    }
+
+
+    /**
+     * Merge another sketch into this one. Both sketches must use the same relative accuracy.
+     */
+    void merge(QuantileSketch other) {
+        if(other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("Can't merge sketches with different accuracy");
+        }
+        if(other.count == 0) {
+            return;
+        }
+
+        for(int i = 0; i < other.bins.length; i++) {
+            if(other.bins[i] > 0) {
+                increment(other.offset + i, other.bins[i]);
+            }
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+
+    /**
+     * @param quantile between 0 and 1
+     * @return value at quantile, or NaN if the sketch is empty
+     */
+    double getValueAtQuantile(double quantile) {
+        if(count == 0 || quantile < 0 || quantile > 1) {
+            return Double.NaN;
+        }
+
+        long rank = (long) (quantile * (count - 1));
+        if(rank < zeroCount) {
+            return Math.max(min, 0);
+        }
+
+        long n = zeroCount;
+        for(int i = 0; i < bins.length; i++) {
+            n += bins[i];
+            if(n > rank) {
+                double value = 2 * Math.pow(gamma, offset + i) / (1 + gamma);
+                return Math.min(Math.max(value, min), max);
+            }
+        }
+        return max;
+    }
+
+
+    long getCount() {
+        return count;
+    }
+
+    double getSum() {
+        return sum;
+    }
+
+    double getMin() {
+        return count > 0 ? min : Double.NaN;
+    }
+
+    double getMax() {
+        return count > 0 ? max : Double.NaN;
+    }
+
+    /**
+     * @return number of buckets currently allocated, never more than maxBins
+     */
+    int getBinCount() {
+        return bins.length;
+    }
+
+
+    void clear() {
+        bins = new int[0];
+        offset = 0;
+        zeroCount = 0;
+        count = 0;
+        sum = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+
+    /**
+     * Compact binary form: header followed by the non-empty range of buckets.
+     */
+    byte[] serialize() {
+        int first = 0, last = bins.length - 1;
+        while(first <= last && bins[first] == 0) first++;
+        while(last >= first && bins[last] == 0) last--;
+        int length = Math.max(0, last - first + 1);
+
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 4 + 8 + 8 + 8 + 8 + 8 + 4 + 4 + (length * 4));
+        buffer.put((byte) 1);   // Format version
+        buffer.putDouble(relativeAccuracy);
+        buffer.putInt(maxBins);
+        buffer.putLong(count);
+        buffer.putLong(zeroCount);
+        buffer.putDouble(sum);
+        buffer.putDouble(min);
+        buffer.putDouble(max);
+        buffer.putInt(offset + first);
+        buffer.putInt(length);
+        for(int i = 0; i < length; i++) {
+            buffer.putInt(bins[first + i]);
+        }
+        return buffer.array();
+    }
+
+
+    static QuantileSketch deserialize(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if(buffer.get() != 1) {
+            throw new IllegalArgumentException("Unknown sketch format");
+        }
+        QuantileSketch sketch = new QuantileSketch(buffer.getDouble(), buffer.getInt());
+        sketch.count = buffer.getLong();
+        sketch.zeroCount = buffer.getLong();
+        sketch.sum = buffer.getDouble();
+        sketch.min = buffer.getDouble();
+        sketch.max = buffer.getDouble();
+        sketch.offset = buffer.getInt();
+        sketch.bins = new int[buffer.getInt()];
+        for(int i = 0; i < sketch.bins.length; i++) {
+            sketch.bins[i] = buffer.getInt();
+        }
+        return sketch;
+    }
+
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+
+    private void increment(int index, int n) {
+        if(bins.length == 0) {
+            bins = new int[Math.min(INITIAL_BINS, maxBins)];
+            offset = index - (bins.length / 2);
+        }
+
+        if(index < offset) {
+            int needed = (offset + bins.length) - index;
+            if(needed > maxBins) {
+                // Collapse: values below the lowest bucket we can keep go into that bucket
+                if(bins.length < maxBins) {
+                    grow(offset + bins.length - maxBins, offset + bins.length - 1);
+                }
+                bins[0] += n;
+                return;
+            }
+            grow(index, offset + bins.length - 1);
+        } else if(index >= offset + bins.length) {
+            int needed = index - offset + 1;
+            if(needed > maxBins) {
+                collapseLowest(index - maxBins + 1);
+            } else {
+                grow(offset, index);
+            }
+        }
+        bins[index - offset] += n;
+    }
+
+
+    /**
+     * Resize to cover [low, high], with some headroom but never beyond maxBins.
+     */
+    private void grow(int low, int high) {
+        int span = high - low + 1;
+        int size = Math.min(maxBins, Math.max(span, bins.length * 2));
+        int newOffset = (low < offset) ? high - size + 1 : low;
+        int[] resized = new int[size];
+        System.arraycopy(bins, 0, resized, offset - newOffset, bins.length);
+        bins = resized;
+        offset = newOffset;
+    }
+
+
+    /**
+     * Shift the window so it starts at newOffset, folding everything below into the first bucket.
+     */
+    private void collapseLowest(int newOffset) {
+        int[] resized = new int[maxBins];
+        int collapsed = 0;
+        for(int i = 0; i < bins.length; i++) {
+            int target = offset + i - newOffset;
+            if(target <= 0) {
+                collapsed += bins[i];
+            } else if(target < maxBins) {
+                resized[target] = bins[i];
+            }
+        }
+        resized[0] += collapsed;
+        bins = resized;
+        offset = newOffset;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("QuantileSketch[count=%d, bins=%d, p50=%f, p99=%f]", count, bins.length, getValueAtQuantile(0.5), getValueAtQuantile(0.99));
+    }
+
+}
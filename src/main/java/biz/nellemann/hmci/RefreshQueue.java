@@ -0,0 +1,113 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Orders the refresh work of a cycle, and keeps track of work carried over between cycles.
+ *
+ * Work is ordered by priority, then by how long since the resource was last refreshed.
+ * Work not done before the deadline is carried over to the next cycle, and a resource
+ * which has been carried over 'maxSkip' cycles in a row is forced, even past the deadline.
+ */
+final class RefreshQueue {
+
+    private final int maxSkip;
+    private final Map<String, State> states = new HashMap<>();
+
+
+    RefreshQueue(int maxSkip) {
+        this.maxSkip = maxSkip;
+    }
+
+
+    /**
+     * @param candidates all current resources, flagged if due in this cycle
+     * @return the resources due or carried over, in the order they should be refreshed
+     */
+    List<Item> plan(List<Item> candidates) {
+        List<Item> plan = new ArrayList<>();
+        Map<String, State> current = new HashMap<>();
+        for(Item item : candidates) {
+            State state = states.getOrDefault(item.key, new State());
+            current.put(item.key, state);   // Forget resources which are gone
+            if(item.due || state.skipped > 0) {
+                item.forced = maxSkip > 0 && state.skipped >= maxSkip;
+                item.lastRefresh = state.lastRefresh;
+                plan.add(item);
+            }
+        }
+        states.clear();
+        states.putAll(current);
+
+        plan.sort(Comparator.comparing((Item item) -> !item.forced)
+            .thenComparing(item -> -item.priority)
+            .thenComparingLong(item -> item.lastRefresh));
+        return plan;
+    }
+
+
+    void done(Item item, long timestamp) {
+        State state = states.computeIfAbsent(item.key, k -> new State());
+        state.lastRefresh = timestamp;
+        state.skipped = 0;
+    }
+
+
+    void carry(Item item) {
+        states.computeIfAbsent(item.key, k -> new State()).skipped++;
+    }
+
+
+    static final class Item {
+
+        final String key;
+        final ManagedSystem system;
+        final LogicalPartition partition;   // Null for the system itself
+        final int priority;
+        final boolean due;
+        boolean forced;
+        long lastRefresh;
+
+        Item(ManagedSystem system, LogicalPartition partition, int priority, boolean due) {
+            this.key = (partition == null) ? system.id : system.id + "/" + partition.id;
+            this.system = system;
+            this.partition = partition;
+            this.priority = priority;
+            this.due = due;
+        }
+
+        void refresh() {
+            if(partition == null) {
+                system.refreshSystem();
+            } else {
+                partition.refresh();
+            }
+        }
+    }
+
+
+    private static final class State {
+        long lastRefresh = 0;
+        int skipped = 0;
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import biz.nellemann.hmci.dto.toml.TierConfiguration;
+
+/**
+ * Assigns systems and partitions a refresh interval and priority by name, and decides which are due in each cycle.
+ *
+ * A resource in a tier with an interval of N cycles is refreshed every N'th cycle. Resources in the
+ * same tier are given different phases in turn, so their refreshes are spread evenly across cycles.
+ * Resources not matching any tier are refreshed every cycle.
+ */
+final class RefreshTiers {
+
+    private final static Logger log = LoggerFactory.getLogger(RefreshTiers.class);
+
+    private final List<Tier> tiers = new ArrayList<>();
+    private final Map<String, Assignment> assignments = new ConcurrentHashMap<>();
+    private volatile long cycle = 0;
+
+
+    RefreshTiers(int refreshSeconds, List<TierConfiguration> configuration) {
+        for(TierConfiguration tierConfiguration : configuration) {
+            int every = Math.max(1, Math.round((float) tierConfiguration.refresh / refreshSeconds));
+            tiers.add(new Tier(tierConfiguration, every));
+            log.debug("RefreshTiers() - {} every {} cycle(s)", tierConfiguration.name, every);
+        }
+    }
+
+
+    /**
+     * Advance to the next cycle.
+     */
+    void nextCycle() {
+        cycle++;
+    }
+
+
+    boolean isDue(ManagedSystem system) {
+        return isDue(system.name, null);
+    }
+
+
+    boolean isDue(ManagedSystem system, LogicalPartition partition) {
+        return isDue(system.name, partition.name);
+    }
+
+
+    int getPriority(ManagedSystem system) {
+        return assignment(system.name, null).priority;
+    }
+
+
+    int getPriority(ManagedSystem system, LogicalPartition partition) {
+        return assignment(system.name, partition.name).priority;
+    }
+
+
+    private boolean isDue(String systemName, String partitionName) {
+        Assignment assignment = assignment(systemName, partitionName);
+        return (cycle + assignment.phase) % assignment.every == 0;
+    }
+
+
+    private Assignment assignment(String systemName, String partitionName) {
+        String key = (partitionName == null) ? String.valueOf(systemName) : systemName + "/" + partitionName;
+        return assignments.computeIfAbsent(key, k -> {
+            for(Tier tier : tiers) {
+                if(tier.matches(systemName, partitionName)) {
+                    return new Assignment(tier.every, tier.nextPhase(), tier.priority);
+                }
+            }
+            return new Assignment(1, 0, 0);
+        });
+    }
+
+
+    private static final class Tier {
+
+        final int every;
+        final int priority;
+        final List<Pattern> systems = new ArrayList<>();
+        final List<Pattern> partitions = new ArrayList<>();
+        int assigned = 0;
+
+        Tier(TierConfiguration configuration, int every) {
+            this.every = every;
+            this.priority = configuration.priority;
+            configuration.systems.forEach(regex -> systems.add(Pattern.compile(regex)));
+            configuration.partitions.forEach(regex -> partitions.add(Pattern.compile(regex)));
+        }
+
+        boolean matches(String systemName, String partitionName) {
+            List<Pattern> patterns = (partitionName == null) ? systems : partitions;
+            String name = (partitionName == null) ? systemName : partitionName;
+            return name != null && patterns.stream().anyMatch(p -> p.matcher(name).matches());
+        }
+
+        synchronized int nextPhase() {
+            return assigned++ % every;
+        }
+    }
+
+
+    private static final class Assignment {
+
+        final int every;
+        final int phase;
+        final int priority;
+
+        Assignment(int every, int phase, int priority) {
+            this.every = every;
+            this.phase = phase;
+            this.priority = priority;
+        }
+    }
+
+}
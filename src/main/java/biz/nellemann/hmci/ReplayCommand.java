@@ -0,0 +1,81 @@
+/*
+   Copyright 2020 mark.nellemann@gmail.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import biz.nellemann.hmci.dto.toml.Configuration;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParentCommand;
+
+/**
+ * Write measurements kept in the local history store to InfluxDB, eg. after an outage or upgrade.
+ */
+@Command(name = "replay",
+    mixinStandardHelpOptions = true,
+    description = "Replay measurements from the local history store into InfluxDB.")
+class ReplayCommand implements Callable<Integer> {
+
+    @ParentCommand
+    private Application application;
+
+    @Option(names = { "--from" }, description = "Start time, epoch seconds or ISO-8601 [default: oldest].", paramLabel = "<time>")
+    private String from;
+
+    @Option(names = { "--to" }, description = "End time, epoch seconds or ISO-8601 [default: now].", paramLabel = "<time>")
+    private String to;
+
+
+    @Override
+    public Integer call() {
+        try {
+            Configuration configuration = application.loadConfiguration();
+            if(configuration == null) {
+                return -1;
+            }
+
+            long fromTime = (from != null) ? HistoryStore.parseTime(from) : 0;
+            long toTime = (to != null) ? HistoryStore.parseTime(to) : Instant.now().getEpochSecond();
+
+            // The hmci service may have the store mapped for writing, so never create or resize it here
+            HistoryStore historyStore = new HistoryStore(configuration.history);
+            historyStore.openReadOnly();
+
+            InfluxClient influxClient = new InfluxClient(configuration.influx);
+            influxClient.login();
+
+            AtomicLong count = new AtomicLong();
+            historyStore.replay(fromTime, toTime, (name, measurements) -> {
+                influxClient.write(measurements, name);
+                count.addAndGet(measurements.size());
+            });
+
+            influxClient.logoff();
+            historyStore.close();
+            System.out.println("Replayed " + count.get() + " measurements from " + historyStore.getSeriesCount() + " series.");
+        } catch (IllegalArgumentException | IOException | InterruptedException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        }
+
+        return 0;
+    }
+
+}
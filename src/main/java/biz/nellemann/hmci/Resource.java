@@ -3,34 +3,56 @@ package biz.nellemann.hmci;
 import biz.nellemann.hmci.dto.json.ProcessedMetrics;
 import biz.nellemann.hmci.dto.json.SystemUtil;
 import biz.nellemann.hmci.dto.json.UtilSample;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.time.Clock;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
-import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public abstract class Resource {
 
     private final static Logger log = LoggerFactory.getLogger(Resource.class);
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private final ArrayList<String> sampleHistory = new ArrayList<>();
+    private final static DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss[XXX][X]");
 
     protected SystemUtil metric;
     protected final int MAX_NUMBER_OF_SAMPLES = 60;
     protected final int MIN_NUMBER_OF_SAMPLES = 5;
+    protected final int EXTRA_NUMBER_OF_SAMPLES = 2;
     protected int noOfSamples = MAX_NUMBER_OF_SAMPLES;
 
+    // Seconds between samples on the HMC, from the last metric processed
+    protected volatile int sampleSeconds = 30;
+    protected Clock clock = Clock.systemUTC();
 
+    // Epoch second of the newest sample processed, used as watermark for dedupe and backfill
+    protected volatile long lastProcessed = 0;
 
-    Resource() {
-        objectMapper.enable(DeserializationFeature.UNWRAP_SINGLE_VALUE_ARRAYS);
-        objectMapper.enable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
-        objectMapper.enable(DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT);
+    // Epoch second of the oldest sample in the last metric processed, kept after the samples are released
+    protected volatile long oldestSample = 0;
+
+    protected MemoryBudget memoryBudget;
+    protected DecodeTimer decodeTimer;
+
+
+    /**
+     * Process the samples right after they are decoded, within a global memory budget, instead of
+     * keeping them until process() is called at the end of the cycle.
+     */
+    void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+
+    void setDecodeTimer(DecodeTimer decodeTimer) {
+        this.decodeTimer = decodeTimer;
     }
 
 
@@ -39,98 +61,233 @@ public abstract class Resource {
             return;
         }
 
+        if(memoryBudget != null) {
+            deserializeWithinBudget(json);
+            return;
+        }
+
         try {
-            ProcessedMetrics processedMetrics = objectMapper.readValue(json, ProcessedMetrics.class);
-            metric = processedMetrics.systemUtil;
-            log.trace("deserialize() - samples: {}", metric.samples.size());
+            SystemUtil parsed = parse(json);
+            synchronized (this) {
+                metric = parsed;
+            }
+            log.trace("deserialize() - samples: {}", parsed.samples.size());
         } catch (Exception e) {
             log.error("deserialize() - error: {}", e.getMessage());
         }
     }
 
 
-    Instant getTimestamp() {
-        Instant instant = Instant.now();
-
-        if (metric == null) {
-            return instant;
+    private void deserializeWithinBudget(String json) {
+        long reserved;
+        try {
+            reserved = memoryBudget.acquire(MemoryBudget.estimate(json));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
         }
 
-        String timestamp = metric.getSample().sampleInfo.timestamp;
         try {
-            log.trace("getTimeStamp() - PMC Timestamp: {}", timestamp);
-            DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss[XXX][X]");
-            instant = Instant.from(dateTimeFormatter.parse(timestamp));
-            log.trace("getTimestamp() - Instant: {}", instant.toString());
-        } catch(DateTimeParseException e) {
-            log.warn("getTimestamp() - parse error: {}", timestamp);
+            SystemUtil parsed = parse(json);
+            log.trace("deserialize() - samples: {}", parsed.samples.size());
+            synchronized (this) {
+                metric = parsed;
+                processSamples();
+            }
+        } catch (Exception e) {
+            log.error("deserialize() - error: {}", e.getMessage());
+            synchronized (this) {
+                metric = null;
+            }
+        } finally {
+            memoryBudget.release(reserved);
         }
-
-        return instant;
     }
 
 
-    Instant getTimestamp(int sampleNumber) {
-        Instant instant = Instant.now();
-
-        if (metric == null) {
-            return instant;
+    /**
+     * Decode the metrics, and parse the timestamp of each sample once.
+     */
+    SystemUtil parse(String json) throws IOException {
+        Object event = FlightEvents.beginDeserialize();
+        long start = System.nanoTime();
+        ProcessedMetrics processedMetrics = Codec.readJson(json, ProcessedMetrics.class);
+        SystemUtil systemUtil = processedMetrics.systemUtil;
+        if(systemUtil != null && systemUtil.samples != null) {
+            for(UtilSample sample : systemUtil.samples) {
+                sample.epochSecond = parseTimestamp(sample.sampleInfo.timestamp);
+            }
+        }
+        if(decodeTimer != null) {
+            decodeTimer.record(getClass().getSimpleName(), (System.nanoTime() - start) / 1000);
         }
+        int samples = (systemUtil != null && systemUtil.samples != null) ? systemUtil.samples.size() : 0;
+        FlightEvents.commitDeserialize(event, getClass().getSimpleName(), getResourceName(), json.length(), samples);
+        return systemUtil;
+    }
+
 
-        String timestamp = metric.getSample(sampleNumber).sampleInfo.timestamp;
+    static long parseTimestamp(String timestamp) {
+        if(timestamp == null) {
+            return 0;
+        }
         try {
-            log.trace("getTimeStamp() - PMC Timestamp: {}", timestamp);
-            DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss[XXX][X]");
-            instant = Instant.from(dateTimeFormatter.parse(timestamp));
-            log.trace("getTimestamp() - Instant: {}", instant.toString());
+            return Instant.from(TIMESTAMP_FORMAT.parse(timestamp)).getEpochSecond();
         } catch(DateTimeParseException e) {
-            log.warn("getTimestamp() - parse error: {}", timestamp);
+            log.warn("parseTimestamp() - parse error: {}", timestamp);
+            return 0;
         }
+    }
+
+
+    Instant getTimestamp() {
+        return getTimestamp(0);
+    }
 
-        return instant;
+
+    /**
+     * Timestamp of a sample, or now if the sample has no (valid) timestamp.
+     */
+    Instant getTimestamp(int sampleNumber) {
+        long epochSecond = (metric != null) ? metric.getSample(sampleNumber).epochSecond : 0;
+        return (epochSecond > 0) ? Instant.ofEpochSecond(epochSecond) : Instant.now();
     }
 
 
     public void process() {
+        processSamples();
+    }
+
+
+    /**
+     * Process the samples of this resource only, not those of any child resources.
+     */
+    final synchronized void processSamples() {
 
         if(metric == null) {
             return;
         }
 
+        Object event = FlightEvents.beginProcess();
         int processed = 0;
         int sampleSize = metric.samples.size();
-        log.debug("process() - Samples Returned: {}, Samples in History: {}, Fetch Next Counter: {}", sampleSize, sampleHistory.size(), noOfSamples);
+        long watermark = lastProcessed;     // Samples may be newest first, so compare against the watermark from before this call
+        log.debug("process() - Samples Returned: {}, Watermark: {}, Fetch Next Counter: {}", sampleSize, watermark, noOfSamples);
         for(int i = 0; i<sampleSize; i++) {
-            UtilSample sample = metric.getSample(i);
-            String timestamp = sample.getInfo().timestamp;
-
-            if(sampleHistory.contains(timestamp)) {
-                //log.info("process() - Sample \"{}\" already processed", timestamp);
-                continue;   // Already processed
+            long epochSecond = metric.getSample(i).epochSecond;
+            if(epochSecond <= watermark) {
+                continue;   // Already processed, or without a valid timestamp
             }
 
             try {
                 process(i);
                 processed++;
-                sampleHistory.add(timestamp); // Add to processed history
+                lastProcessed = Math.max(lastProcessed, epochSecond);
             } catch (NullPointerException e) {
                 log.warn("process() - error", e);
             }
         }
 
-        // Remove old elements from history
-        for(int n = noOfSamples; n < sampleHistory.size(); n++) {
-            //log.info("process() - Removing element no. {} from sampleHistory: {}", n, sampleHistory.get(0));
-            sampleHistory.remove(0);
-        }
-
         // Decrease down to minSamples
         if(noOfSamples > MIN_NUMBER_OF_SAMPLES) {
             noOfSamples = Math.min( (noOfSamples - 1), Math.max( (noOfSamples - processed) + 5, MIN_NUMBER_OF_SAMPLES));
         }
 
+        Integer frequency = (metric.getUtilInfo() != null) ? metric.getUtilInfo().frequency : null;
+        if(frequency != null && frequency > 0) {
+            sampleSeconds = frequency;
+        }
+
+        // The samples are not used after processing, so do not retain them until the next refresh
+        oldestSample = getOldestSample();
+        metric = null;
+        FlightEvents.commitProcess(event, getClass().getSimpleName(), getResourceName(), sampleSize, processed);
     }
 
+    /**
+     * Number of samples to request, enough to cover the time since the newest sample processed.
+     * Resources not refreshed every cycle (tiers and carry-over) need more than the noOfSamples
+     * it has decreased to, or the samples in between would be skipped.
+     */
+    int getNoOfSamples() {
+        long watermark = lastProcessed;
+        if(watermark <= 0) {
+            return noOfSamples;
+        }
+        long elapsed = Math.max(0, clock.instant().getEpochSecond() - watermark);
+        long needed = (elapsed + sampleSeconds - 1) / sampleSeconds + EXTRA_NUMBER_OF_SAMPLES;
+        return (int) Math.min(MAX_NUMBER_OF_SAMPLES, Math.max(noOfSamples, needed));
+    }
+
+
+    /**
+     * Process samples recovered from the HMC history, which are newer than 'after' and older than 'before'.
+     * The current metric is restored afterwards, so this is synchronized with deserialize and process,
+     * as recovery runs in the background.
+     * @return number of samples processed
+     */
+    synchronized int backfill(SystemUtil history, long after, long before) {
+        if(history == null || history.samples == null) {
+            return 0;
+        }
+
+        SystemUtil current = metric;
+        metric = history;
+        int processed = 0;
+        try {
+            List<Integer> samples = IntStream.range(0, history.samples.size()).boxed()
+                .filter(i -> history.getSample(i).epochSecond > 0)
+                .sorted(Comparator.comparingLong(i -> history.getSample(i).epochSecond))
+                .collect(Collectors.toList());
+            for(int i : samples) {
+                long timestamp = history.getSample(i).epochSecond;
+                if(timestamp <= after || timestamp >= before) {
+                    continue;
+                }
+                try {
+                    process(i);
+                    processed++;
+                } catch (NullPointerException e) {
+                    log.warn("backfill() - error", e);
+                }
+            }
+        } finally {
+            metric = current;
+        }
+        return processed;
+    }
+
+
+    /**
+     * Epoch second of the oldest sample in the current (or last processed) metric, or 0 if none.
+     */
+    long getOldestSample() {
+        if(metric == null || metric.samples == null || metric.samples.isEmpty()) {
+            return oldestSample;
+        }
+        long oldest = Long.MAX_VALUE;
+        for(UtilSample sample : metric.samples) {
+            if(sample.epochSecond > 0) {
+                oldest = Math.min(oldest, sample.epochSecond);
+            }
+        }
+        return (oldest == Long.MAX_VALUE) ? 0 : oldest;
+    }
+
+
+    long getLastProcessed() {
+        return lastProcessed;
+    }
+
+
+    /**
+     * @return name of the system or partition, for flight recorder events
+     */
+    String getResourceName() {
+        return null;
+    }
+
+
     public abstract void process(int sample) throws NullPointerException;
 
 }
@@ -0,0 +1,131 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs resource fetches (partition refresh, VIOS discovery, energy refresh) concurrently.
+ *
+ * On Java 21 and later each task runs in its own virtual thread, which makes blocking on
+ * the HMC cheap. On older JVM's a bounded pool of platform threads is used instead.
+ * The number of requests in flight to each HMC is limited by its RestClient.
+ */
+final class ResourceExecutor {
+
+    private final static Logger log = LoggerFactory.getLogger(ResourceExecutor.class);
+
+    // Set in our own threads, so nested calls to invokeAll() run inline instead of waiting for a free thread
+    private final static ThreadLocal<Boolean> insideTask = ThreadLocal.withInitial(() -> false);
+
+    private final ExecutorService executorService;
+    private final boolean virtual;
+
+
+    ResourceExecutor(boolean virtualThreads, int platformThreads) {
+        ExecutorService virtualExecutor = virtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+        if(virtualExecutor != null) {
+            executorService = virtualExecutor;
+            virtual = true;
+        } else {
+            AtomicInteger threadNumber = new AtomicInteger();
+            executorService = Executors.newFixedThreadPool(platformThreads, runnable -> {
+                Thread thread = new Thread(runnable, "resource-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            virtual = false;
+        }
+        log.info("ResourceExecutor() - using {} threads", virtual ? "virtual" : "platform");
+    }
+
+
+    boolean isVirtual() {
+        return virtual;
+    }
+
+
+    /**
+     * Run all tasks and wait for them to complete. Errors are logged, and do not stop other tasks.
+     */
+    void invokeAll(Collection<? extends Runnable> tasks) {
+        if(insideTask.get()) {
+            for(Runnable task : tasks) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.warn("invokeAll() - error: {}", e.toString());
+                }
+            }
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(tasks.size());
+        for(Runnable task : tasks) {
+            futures.add(executorService.submit(() -> {
+                insideTask.set(true);
+                try {
+                    task.run();
+                } finally {
+                    insideTask.set(false);
+                }
+            }));
+        }
+
+        for(Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                log.warn("invokeAll() - error: {}", e.getCause().toString());
+            } catch (InterruptedException e) {
+                futures.forEach(f -> f.cancel(true));
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+
+    void shutdown() {
+        executorService.shutdownNow();
+    }
+
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() is only available on Java 21+, and we build for Java 8.
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("newVirtualThreadPerTaskExecutor() - not available: {}", e.toString());
+            return null;
+        }
+    }
+
+}
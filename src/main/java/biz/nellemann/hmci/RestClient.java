@@ -7,10 +7,24 @@ import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
@@ -20,9 +34,9 @@ import javax.net.ssl.X509TrustManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
-
 import biz.nellemann.hmci.dto.xml.LogonResponse;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -37,19 +51,42 @@ public class RestClient {
 
 
     protected OkHttpClient httpClient;
+    private final OkHttpClient baseHttpClient;
 
     // OkHttpClient timeouts
     private final static int CONNECT_TIMEOUT_SEC = 10;
     private final static int WRITE_TIMEOUT_SEC = 30;
     private final static int READ_TIMEOUT_SEC = 180;
 
-    protected String authToken;
     protected final String baseUrl;
     protected final String username;
     protected final String password;
 
-    private final static int MAX_MINUTES_BETWEEN_AUTHENTICATION = 60; // TODO: Make configurable and match HMC timeout settings
-    private Instant lastAuthenticationTimestamp;
+    // Requests in flight with the old token can finish, before a renewed session logs it off
+    private final static int SESSION_OVERLAP_SEC = WRITE_TIMEOUT_SEC + READ_TIMEOUT_SEC;
+    private final static ScheduledExecutorService sessionScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "session");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long sessionSeconds = 60 * 60;
+    private volatile List<Session> sessions = Collections.singletonList(new Session(0));
+    private final AtomicInteger nextSession = new AtomicInteger();
+
+    // Parsed UOM documents by path, re-used while the documents do not change
+    private final Map<String, CachedDocument> documentCache = new ConcurrentHashMap<>();
+
+    // Limits the number of requests in flight to this HMC, null when not limited
+    private ConcurrencyLimiter concurrencyLimiter;
+    // Fails fast on endpoints which keep failing, null when not used
+    private CircuitBreaker circuitBreaker;
+    // Negotiates compression and counts bytes per endpoint, null when not used
+    private TrafficCounter trafficCounter;
+    // Records requests and responses into an archive, null when not used
+    private TrafficRecorder trafficRecorder;
+    // Serves responses from an archive instead of the HMC, null when not used
+    private TrafficReplay trafficReplay;
 
 
     public RestClient(String baseUrl, String username, String password, Boolean trustAll) {
@@ -61,35 +98,295 @@ public class RestClient {
         } else {
             this.httpClient = getSafeOkHttpClient();
         }
+        this.baseHttpClient = this.httpClient;
 
-        /*
-        if(configuration.trace != null) {
-            try {
-                File traceDir = new File(configuration.trace);
-                traceDir.mkdirs();
-                if(traceDir.canWrite()) {
-                    Boolean doTrace = true;
-                } else {
-                    log.warn("ManagementConsole() - can't write to trace dir: " + traceDir.toString());
-                }
-            } catch (Exception e) {
-                log.error("ManagementConsole() - trace error: " + e.getMessage());
-            }
-        }*/
         Thread shutdownHook = new Thread(this::logoff);
         Runtime.getRuntime().addShutdownHook(shutdownHook);
     }
 
 
     /**
-     * Logon to the HMC and get an authentication token for further requests.
+     * Limit the requests in flight to this HMC, must be called before any requests are made.
+     */
+    void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+        // Asynchronous calls are queued by the dispatcher, instead of waiting in the limiter
+        baseHttpClient.dispatcher().setMaxRequestsPerHost(concurrencyLimiter.getMaxLimit());
+        buildHttpClient();
+    }
+
+
+    /**
+     * Fail fast on endpoints which keep failing, must be called before any requests are made.
+     * Requests to an open circuit return null, like other unexpected responses.
+     */
+    void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        buildHttpClient();
+    }
+
+
+    CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+
+    /**
+     * Negotiate compressed responses and count wire and decoded bytes, must be called before any requests are made.
+     */
+    void setTrafficCounter(TrafficCounter trafficCounter) {
+        this.trafficCounter = trafficCounter;
+        buildHttpClient();
+    }
+
+
+    TrafficCounter getTrafficCounter() {
+        return trafficCounter;
+    }
+
+
+    /**
+     * Record all requests and responses, must be called before any requests are made.
+     */
+    void setTrafficRecorder(TrafficRecorder trafficRecorder) {
+        this.trafficRecorder = trafficRecorder;
+        buildHttpClient();
+    }
+
+
+    /**
+     * Serve all requests from recorded traffic instead of the HMC, must be called before any requests are made.
+     */
+    void setTrafficReplay(TrafficReplay trafficReplay) {
+        this.trafficReplay = trafficReplay;
+        buildHttpClient();
+    }
+
+
+    // The circuit breaker goes first, so requests failing fast do not wait for the limiter, and
+    // the traffic counter last, so it sees the (compressed) response as it came from the HMC.
+    // The recorder sees the decoded response, and the replay takes the place of the network.
+    private void buildHttpClient() {
+        OkHttpClient.Builder builder = baseHttpClient.newBuilder();
+        if(circuitBreaker != null) {
+            builder.addInterceptor(circuitBreaker);
+        }
+        if(concurrencyLimiter != null) {
+            builder.addInterceptor(concurrencyLimiter);
+        }
+        if(trafficRecorder != null) {
+            builder.addInterceptor(trafficRecorder);
+        }
+        if(trafficCounter != null) {
+            builder.addInterceptor(trafficCounter);
+        }
+        if(trafficReplay != null) {
+            builder.addInterceptor(trafficReplay);
+        }
+        httpClient = builder.build();
+    }
+
+
+    /**
+     * @return the current limit of requests in flight, or 0 when not limited
+     */
+    int getConcurrencyLimit() {
+        return (concurrencyLimiter != null) ? concurrencyLimiter.getLimit() : 0;
+    }
+
+
+    /**
+     * Lifetime of a session on the HMC, it is renewed in the background before it expires.
+     */
+    void setSessionLifetime(long seconds) {
+        this.sessionSeconds = Math.max(1, seconds);
+    }
+
+
+    /**
+     * Number of sessions to log in with, requests are distributed across them.
+     * Some HMC's serialize the work of each session, so more sessions can give more throughput.
+     * Must be called before login.
+     */
+    synchronized void setSessions(int count) {
+        List<Session> pool = new ArrayList<>();
+        for(int i = 0; i < Math.max(1, count); i++) {
+            pool.add(new Session(i));
+        }
+        sessions = Collections.unmodifiableList(pool);
+    }
+
+
+    /**
+     * @return the token of the first session, or null when not logged in
+     */
+    public String getAuthToken() {
+        return sessions.get(0).token;
+    }
+
+
+    /**
+     * Logon to the HMC and get an authentication token for further requests, for each session in the pool.
      */
     public synchronized void login() {
-        if(authToken != null) {
+        if(sessions.stream().anyMatch(session -> session.token != null)) {
             logoff();
         }
 
         log.info("Connecting to HMC - {} @ {}", username, baseUrl);
+        sessions.forEach(this::login);
+    }
+
+
+    private synchronized void login(Session session) {
+        try {
+            session.token = logon();
+            session.timestamp = Instant.now();
+            log.debug("logon() - auth token: {}", session.token);
+            // Spread the renewals of the sessions in the pool
+            long delay = renewalDelay();
+            scheduleRenewal(session, delay - delay * session.index / (2L * sessions.size()));
+        } catch (Exception e) {
+            log.warn("logon() - error: {}", e.getMessage());
+            session.timestamp = null;
+        }
+    }
+
+
+    /**
+     * Get a new session token, while the current one stays valid. The old session is logged off
+     * when requests in flight with it have had time to finish, so no request waits on authentication.
+     */
+    private synchronized void renewSession(Session session) {
+        if(session.token == null) {
+            return;     // Logged off
+        }
+
+        String oldToken = session.token;
+        try {
+            session.token = logon();
+            session.timestamp = Instant.now();
+            log.debug("renewSession() - auth token: {}", session.token);
+            sessionScheduler.schedule(() -> logoff(oldToken), SESSION_OVERLAP_SEC, TimeUnit.SECONDS);
+            scheduleRenewal(session, renewalDelay());
+        } catch (Exception e) {
+            log.warn("renewSession() - error, retrying: {}", e.getMessage());
+            scheduleRenewal(session, Math.min(60, renewalDelay()));
+        }
+    }
+
+
+    /**
+     * Renew the session after a 401, unless another request already did.
+     */
+    private synchronized void renewSession(Session session, String rejectedToken) {
+        if(Objects.equals(rejectedToken, session.token)) {
+            if(session.token == null) {
+                login(session);
+            } else {
+                renewSession(session);
+            }
+        }
+    }
+
+
+    /**
+     * Renew the session after a 401, or login when no session is valid, without blocking the calling thread
+     * (eg. an OkHttp dispatcher thread). Concurrent callers share the same logon, and a session already
+     * renewed by another request is returned as is. The future always completes with the session, which
+     * keeps its old token if the logon fails, like the blocking login.
+     */
+    private CompletableFuture<Session> renewSessionAsync(Session session, String rejectedToken) {
+        synchronized (session) {
+            if(!Objects.equals(rejectedToken, session.token) && session.isValid()) {
+                return CompletableFuture.completedFuture(session);
+            }
+            if(session.renewing == null) {
+                String oldToken = session.token;
+                // The session is updated on the session thread, which can wait for the lock
+                session.renewing = logonAsync().handleAsync((token, throwable) -> renewed(session, oldToken, token, throwable), sessionScheduler);
+            }
+            return session.renewing;
+        }
+    }
+
+
+    private synchronized Session renewed(Session session, String oldToken, String token, Throwable throwable) {
+        synchronized (session) {
+            session.renewing = null;
+        }
+
+        if(throwable != null) {
+            Throwable cause = (throwable instanceof CompletionException && throwable.getCause() != null) ? throwable.getCause() : throwable;
+            log.warn("renewSessionAsync() - error: {}", cause.getMessage());
+            if(session.token != null) {
+                scheduleRenewal(session, Math.min(60, renewalDelay()));
+            }
+            return session;
+        }
+
+        if(oldToken != null && session.token == null) {
+            logoff(token);      // Logged off while renewing
+            return session;
+        }
+
+        session.token = token;
+        session.timestamp = Instant.now();
+        log.debug("renewSessionAsync() - auth token: {}", session.token);
+        if(oldToken != null) {
+            sessionScheduler.schedule(() -> logoff(oldToken), SESSION_OVERLAP_SEC, TimeUnit.SECONDS);
+        }
+        scheduleRenewal(session, renewalDelay());
+        return session;
+    }
+
+
+    private String logon() throws IOException {
+        String responseBody;
+        try (Response response = httpClient.newCall(logonRequest()).execute()) {
+            responseBody = Objects.requireNonNull(response.body()).string();
+            if (!response.isSuccessful()) {
+                log.warn("login() - Unexpected response: {}", response.code());
+                throw new IOException("Unexpected code: " + response);
+            }
+        }
+
+        LogonResponse logonResponse = Codec.readXml(responseBody, LogonResponse.class);
+        return logonResponse.getToken();
+    }
+
+
+    private CompletableFuture<String> logonAsync() {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        try {
+            httpClient.newCall(logonRequest()).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    future.completeExceptionally(e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try (Response r = response) {
+                        String responseBody = Objects.requireNonNull(r.body()).string();
+                        if (!r.isSuccessful()) {
+                            log.warn("logonAsync() - Unexpected response: {}", r.code());
+                            throw new IOException("Unexpected code: " + r);
+                        }
+                        future.complete(Codec.readXml(responseBody, LogonResponse.class).getToken());
+                    } catch (IOException | RuntimeException e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (MalformedURLException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+
+    private Request logonRequest() throws MalformedURLException {
         StringBuilder payload = new StringBuilder();
         payload.append("<?xml version='1.0' encoding='UTF-8' standalone='yes'?>");
         payload.append("<LogonRequest xmlns='http://www.ibm.com/xmlns/systems/power/firmware/web/mc/2012_10/' schemaVersion='V1_0'>");
@@ -97,66 +394,63 @@ public class RestClient {
         payload.append("<Password>").append(password).append("</Password>");
         payload.append("</LogonRequest>");
 
-        try {
-            //httpClient.start();
-            URL url = new URL(String.format("%s/rest/api/web/Logon", baseUrl));
-            Request request = new Request.Builder()
-                .url(url)
-                .addHeader("Accept", "application/vnd.ibm.powervm.web+xml; type=LogonResponse")
-                .addHeader("X-Audit-Memento", "IBM Power HMC Insights")
-                .put(RequestBody.create(payload.toString(), MEDIA_TYPE_IBM_XML_LOGIN))
-                .build();
-
-            String responseBody;
-            try (Response response = httpClient.newCall(request).execute()) {
-                responseBody = Objects.requireNonNull(response.body()).string();
-                if (!response.isSuccessful()) {
-                    log.warn("login() - Unexpected response: {}", response.code());
-                    throw new IOException("Unexpected code: " + response);
-                }
-            }
-
-            XmlMapper xmlMapper = new XmlMapper();
-            LogonResponse logonResponse = xmlMapper.readValue(responseBody, LogonResponse.class);
+        URL url = new URL(String.format("%s/rest/api/web/Logon", baseUrl));
+        return new Request.Builder()
+            .url(url)
+            .addHeader("Accept", "application/vnd.ibm.powervm.web+xml; type=LogonResponse")
+            .addHeader("X-Audit-Memento", "IBM Power HMC Insights")
+            .put(RequestBody.create(payload.toString(), MEDIA_TYPE_IBM_XML_LOGIN))
+            .build();
+    }
 
-            authToken = logonResponse.getToken();
-            lastAuthenticationTimestamp = Instant.now();
-            log.debug("logon() - auth token: {}", authToken);
 
-        } catch (Exception e) {
-            log.warn("logon() - error: {}", e.getMessage());
-            lastAuthenticationTimestamp = null;
+    private void scheduleRenewal(Session session, long delaySeconds) {
+        if(session.renewal != null) {
+            session.renewal.cancel(false);
         }
+        session.renewal = sessionScheduler.schedule(() -> renewSession(session), delaySeconds, TimeUnit.SECONDS);
+    }
+
 
+    // Renew when 80% of the lifetime has passed
+    private long renewalDelay() {
+        return Math.max(1, sessionSeconds * 4 / 5);
     }
 
 
     /**
-     * Logoff from the HMC and remove any session
+     * Logoff from the HMC and remove all sessions
      *
      */
     synchronized void logoff() {
-
-        if(authToken == null) {
-            return;
+        for(Session session : sessions) {
+            if(session.renewal != null) {
+                session.renewal.cancel(false);
+                session.renewal = null;
+            }
+            if(session.token != null) {
+                logoff(session.token);
+            }
+            session.token = null;
+            session.timestamp = null;
         }
+    }
+
 
+    private void logoff(String token) {
         try {
 
             URL url = new URL(String.format("%s/rest/api/web/Logon", baseUrl));
             Request request = new Request.Builder()
                 .url(url)
                 .addHeader("Content-Type", "application/vnd.ibm.powervm.web+xml; type=LogonRequest")
-                .addHeader("X-API-Session", authToken)
+                .addHeader("X-API-Session", token)
                 .delete()
                 .build();
 
             try (Response response = httpClient.newCall(request).execute()) {
             } catch (IOException e) {
                 log.warn("logoff() error: {}", e.getMessage());
-            } finally {
-                authToken = null;
-                lastAuthenticationTimestamp = null;
             }
 
         } catch (MalformedURLException e) {
@@ -177,67 +471,277 @@ public class RestClient {
     }
 
 
+    /**
+     * Pick the next session in the pool, and login if no session is valid (not authenticated,
+     * or expired without being renewed). Only takes the lock when we have to login,
+     * so requests do not wait on each other.
+     * @return a session to send the request with
+     */
+    private Session authenticate() {
+        List<Session> pool = sessions;
+        int start = Math.floorMod(nextSession.getAndIncrement(), pool.size());
+        Session valid = nextValidSession(pool, start);
+        if(valid != null) {
+            return valid;
+        }
+        synchronized (this) {
+            if(pool.stream().noneMatch(Session::isValid)) {
+                login();
+            }
+            return pool.get(start);
+        }
+    }
+
+
+    /**
+     * Like authenticate(), but logs in asynchronously when no session is valid.
+     */
+    private CompletableFuture<Session> authenticateAsync() {
+        List<Session> pool = sessions;
+        int start = Math.floorMod(nextSession.getAndIncrement(), pool.size());
+        Session valid = nextValidSession(pool, start);
+        if(valid != null) {
+            return CompletableFuture.completedFuture(valid);
+        }
+        Session session = pool.get(start);
+        return renewSessionAsync(session, session.token);
+    }
+
+
+    private static Session nextValidSession(List<Session> pool, int start) {
+        for(int n = 0; n < pool.size(); n++) {
+            Session session = pool.get((start + n) % pool.size());
+            if(session.isValid()) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+
     /**
      * Return a Response from the HMC
+     * Only the authentication is synchronized, so several requests can be in flight (eg. during backfill).
      * @param url to get Response from
-     * @return Response body string
+     * @return Response body string, or null on unexpected responses and open circuits
      * @throws IOException
      */
-    public synchronized String getRequest(URL url) throws IOException {
+    public String getRequest(URL url) throws IOException {
+        Fetched fetched = getRequest(url, null);
+        return (fetched != null) ? fetched.body : null;
+    }
 
-        log.debug("getRequest() - URL: {}", url.toString());
-        if (lastAuthenticationTimestamp == null || lastAuthenticationTimestamp.plus(MAX_MINUTES_BETWEEN_AUTHENTICATION, ChronoUnit.MINUTES).isBefore(Instant.now())) {
-            login();
+
+    /**
+     * Get and parse an XML document. For UOM (discovery) documents, the object parsed last time is
+     * returned when the document has not changed: the HMC answers 304 to our If-None-Match, or the
+     * document has the same content hash (when the HMC does not send an ETag).
+     * @return the parsed document, or null on empty and unexpected responses
+     */
+    public <T> T getXml(String urlPath, Class<T> type) throws IOException {
+        URL url = new URL(String.format("%s%s", baseUrl, urlPath));
+        boolean cacheable = urlPath.startsWith("/rest/api/uom/");
+        CachedDocument cached = cacheable ? documentCache.get(urlPath) : null;
+        if(cached != null && cached.type != type) {
+            cached = null;
         }
 
-        Request request = new Request.Builder()
+        Fetched fetched = getRequest(url, (cached != null) ? cached.etag : null);
+        if(fetched == null) {
+            return null;
+        }
+        if(fetched.notModified) {
+            log.debug("getXml() - not modified: {}", urlPath);
+            return (cached != null) ? type.cast(cached.parsed) : null;
+        }
+
+        // Do not try to parse empty response
+        if(fetched.body == null || fetched.body.length() <= 1) {
+            return null;
+        }
+
+        byte[] hash = cacheable ? sha256(fetched.body) : null;
+        if(cached != null && Arrays.equals(hash, cached.hash)) {
+            log.debug("getXml() - unchanged: {}", urlPath);
+            return type.cast(cached.parsed);
+        }
+
+        T parsed = Codec.readXml(fetched.body, type);
+        if(cacheable) {
+            documentCache.put(urlPath, new CachedDocument(type, parsed, fetched.etag, hash));
+        }
+        return parsed;
+    }
+
+
+    private Fetched getRequest(URL url, String ifNoneMatch) throws IOException {
+
+        log.debug("getRequest() - URL: {}", url.toString());
+        Session session = authenticate();
+        String token = session.token;
+
+        Request.Builder builder = new Request.Builder()
             .url(url)
             .addHeader("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8")
-            .addHeader("X-API-Session", (authToken == null ? "" : authToken))
-            .get().build();
+            .addHeader("X-API-Session", (token == null ? "" : token));
+        if(ifNoneMatch != null) {
+            builder.addHeader("If-None-Match", ifNoneMatch);
+        }
+        Request request = builder.get().build();
 
-        String responseBody;
+        Fetched fetched;
+        boolean unauthorized = false;
         try (Response response = httpClient.newCall(request).execute()) {
 
-            responseBody = Objects.requireNonNull(response.body()).string();;
-            if (!response.isSuccessful()) {
+            fetched = new Fetched(Objects.requireNonNull(response.body()).string(), response.header("ETag"), response.code() == 304);
+            if (!response.isSuccessful() && !fetched.notModified) {
 
                 // Auth. failure
                 if(response.code() == 401) {
                     log.warn("getRequest() - 401 - login and retry.");
-
-                    // Let's login again and retry
-                    login();
-                    return retryGetRequest(url);
+                    unauthorized = true;
+                } else {
+                    log.error("getRequest() - Unexpected response: {} for URL {}", response.code(), url);
+                    return null;
                 }
-
-                log.error("getRequest() - Unexpected response: {} for URL {}", response.code(), url);
-                return null;
             }
 
+        } catch (CircuitBreaker.OpenException e) {
+            log.debug("getRequest() - {}", e.getMessage());
+            return null;
         }
 
-        return responseBody;
+        if(unauthorized) {
+            // Let's renew the session and retry, unless another request already did
+            renewSession(session, token);
+            return retryGetRequest(url, session, ifNoneMatch);
+        }
+
+        return fetched;
     }
 
 
-    private String retryGetRequest(URL url) throws IOException {
+    private Fetched retryGetRequest(URL url, Session session, String ifNoneMatch) throws IOException {
 
         log.debug("retryGetRequest() - URL: {}", url.toString());
 
-        Request request = new Request.Builder()
+        Request.Builder builder = new Request.Builder()
             .url(url)
             .addHeader("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8")
-            .addHeader("X-API-Session", (authToken == null ? "" : authToken))
-            .get().build();
+            .addHeader("X-API-Session", (session.token == null ? "" : session.token));
+        if(ifNoneMatch != null) {
+            builder.addHeader("If-None-Match", ifNoneMatch);
+        }
+        Request request = builder.get().build();
 
-        String responseBody = null;
+        Fetched fetched = null;
         try (Response responseRetry = httpClient.newCall(request).execute()) {
-            if(responseRetry.isSuccessful()) {
-                responseBody = Objects.requireNonNull(responseRetry.body()).string();
+            if(responseRetry.isSuccessful() || responseRetry.code() == 304) {
+                fetched = new Fetched(Objects.requireNonNull(responseRetry.body()).string(), responseRetry.header("ETag"), responseRetry.code() == 304);
             }
+        } catch (CircuitBreaker.OpenException e) {
+            log.debug("retryGetRequest() - {}", e.getMessage());
+        }
+        return fetched;
+    }
+
+
+    private static byte[] sha256(String content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    public CompletableFuture<String> getAsync(String urlPath) {
+        try {
+            return getAsync(new URL(String.format("%s%s", baseUrl, urlPath)));
+        } catch (MalformedURLException e) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
         }
-        return responseBody;
+    }
+
+
+    /**
+     * Asynchronous version of getRequest(), running on the OkHttp dispatcher instead of the calling thread.
+     * The future completes with the response body (or null on unexpected responses and open circuits, like getRequest), or
+     * exceptionally on I/O errors and timeouts. Cancelling the future also cancels the HTTP call.
+     * Logins and renewals of the session are asynchronous too, so no thread waits for them.
+     * @param url to get Response from
+     * @return future of the response body string
+     */
+    public CompletableFuture<String> getAsync(URL url) {
+        log.debug("getAsync() - URL: {}", url.toString());
+        CompletableFuture<String> future = new CompletableFuture<>();
+        AtomicReference<Call> currentCall = new AtomicReference<>();
+        future.whenComplete((body, throwable) -> {
+            Call call = currentCall.get();
+            if(future.isCancelled() && call != null) {
+                call.cancel();
+            }
+        });
+        authenticateAsync().whenComplete((session, throwable) -> {
+            if(throwable != null) {
+                future.completeExceptionally(throwable);
+            } else {
+                enqueue(url, session, session.token, true, future, currentCall);
+            }
+        });
+        return future;
+    }
+
+
+    private void enqueue(URL url, Session session, String token, boolean retryOnUnauthorized, CompletableFuture<String> future, AtomicReference<Call> currentCall) {
+        Request request = new Request.Builder()
+            .url(url)
+            .addHeader("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8")
+            .addHeader("X-API-Session", (token == null ? "" : token))
+            .get().build();
+
+        Call call = httpClient.newCall(request);
+        currentCall.set(call);
+        if(future.isCancelled()) {
+            return;
+        }
+
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if(e instanceof CircuitBreaker.OpenException) {
+                    log.debug("getAsync() - {}", e.getMessage());
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    if(r.code() == 401 && retryOnUnauthorized) {
+                        log.warn("getAsync() - 401 - login and retry.");
+                        renewSessionAsync(session, token).whenComplete((renewed, throwable) -> {
+                            if(throwable != null) {
+                                future.completeExceptionally(throwable);
+                            } else {
+                                enqueue(url, renewed, renewed.token, false, future, currentCall);
+                            }
+                        });
+                    } else if(!r.isSuccessful()) {
+                        log.error("getAsync() - Unexpected response: {} for URL {}", r.code(), url);
+                        future.complete(null);
+                    } else {
+                        future.complete(Objects.requireNonNull(r.body()).string());
+                    }
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
     }
 
 
@@ -251,9 +755,7 @@ public class RestClient {
     public synchronized String postRequest(URL url, String payload) throws IOException {
 
         log.debug("sendPostRequest() - URL: {}", url.toString());
-        if (lastAuthenticationTimestamp == null || lastAuthenticationTimestamp.plus(MAX_MINUTES_BETWEEN_AUTHENTICATION, ChronoUnit.MINUTES).isBefore(Instant.now())) {
-            login();
-        }
+        String token = authenticate().token;
 
         RequestBody requestBody;
         if(payload != null) {
@@ -265,7 +767,7 @@ public class RestClient {
         Request request = new Request.Builder()
             .url(url)
             .addHeader("content-type", "application/xml")
-            .addHeader("X-API-Session", (authToken == null ? "" : authToken) )
+            .addHeader("X-API-Session", (token == null ? "" : token) )
             .post(requestBody).build();
 
         String responseBody;
@@ -284,6 +786,53 @@ public class RestClient {
     }
 
 
+    private static final class Fetched {
+        final String body;
+        final String etag;
+        final boolean notModified;
+
+        Fetched(String body, String etag, boolean notModified) {
+            this.body = body;
+            this.etag = etag;
+            this.notModified = notModified;
+        }
+    }
+
+
+    private static final class CachedDocument {
+        final Class<?> type;
+        final Object parsed;
+        final String etag;
+        final byte[] hash;
+
+        CachedDocument(Class<?> type, Object parsed, String etag, byte[] hash) {
+            this.type = type;
+            this.parsed = parsed;
+            this.etag = etag;
+            this.hash = hash;
+        }
+    }
+
+
+    private final class Session {
+
+        final int index;
+        volatile String token;
+        volatile Instant timestamp;
+        ScheduledFuture<?> renewal;     // Guarded by RestClient.this
+        CompletableFuture<Session> renewing;    // Guarded by this session
+
+        Session(int index) {
+            this.index = index;
+        }
+
+        boolean isValid() {
+            Instant t = timestamp;
+            return token != null && t != null && t.plusSeconds(sessionSeconds).isAfter(Instant.now());
+        }
+    }
+
+
     /**
      * Provide an unsafe (ignoring SSL problems) OkHttpClient
      *
@@ -341,22 +890,4 @@ public class RestClient {
         return builder.build();
     }
 
-
-
-    /*
-    private void writeTraceFile(String id, String json) {
-
-        String fileName = String.format("%s-%s.json", id, Instant.now().toString());
-        try {
-            log.debug("Writing trace file: " + fileName);
-            File traceFile = new File(traceDir, fileName);
-            BufferedWriter writer = new BufferedWriter(new FileWriter(traceFile));
-            writer.write(json);
-            writer.close();
-        } catch (IOException e) {
-            log.warn("writeTraceFile() - " + e.getMessage());
-        }
-    }
-    */
-
 }
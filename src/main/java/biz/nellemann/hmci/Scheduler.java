@@ -0,0 +1,93 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import biz.nellemann.hmci.dto.toml.SchedulerConfiguration;
+
+/**
+ * Runs the cycles of all HMC's as tasks on a shared, bounded pool of threads.
+ *
+ * Cycles are started at a fixed rate from a randomly delayed first start, so they do not
+ * drift and HMC's with the same refresh interval do not all write to InfluxDB at once.
+ * A cycle which overruns only delays the next cycle of the same HMC.
+ */
+final class Scheduler {
+
+    private final static Logger log = LoggerFactory.getLogger(Scheduler.class);
+
+    private final ScheduledExecutorService executorService;
+    private final long jitterMillis;
+
+
+    Scheduler(SchedulerConfiguration configuration) {
+        this.jitterMillis = configuration.jitter * 1000L;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executorService = Executors.newScheduledThreadPool(configuration.threads,
+            runnable -> new Thread(runnable, "scheduler-" + threadNumber.incrementAndGet()));
+    }
+
+
+    void schedule(String name, ManagementConsole managementConsole, int refreshSeconds) {
+        long periodMillis = refreshSeconds * 1000L;
+        long delayMillis = 0;
+        if(jitterMillis > 0) {
+            delayMillis = ThreadLocalRandom.current().nextLong(Math.min(jitterMillis, periodMillis));
+        }
+        log.debug("schedule() - {} every {} sec., starting in {} ms", name, refreshSeconds, delayMillis);
+        executorService.scheduleAtFixedRate(() -> run(name, managementConsole), delayMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Block until the scheduler is shut down.
+     */
+    void awaitTermination() throws InterruptedException {
+        while(!executorService.awaitTermination(1, TimeUnit.DAYS)) {
+            log.trace("awaitTermination()");
+        }
+    }
+
+
+    void shutdown() {
+        executorService.shutdownNow();
+    }
+
+
+    private void run(String name, ManagementConsole managementConsole) {
+        // Name the thread after the HMC while running its cycle, as when each HMC had its own thread
+        Thread thread = Thread.currentThread();
+        String threadName = thread.getName();
+        thread.setName(name);
+        try {
+            managementConsole.cycle();
+        } catch (Exception e) {
+            // An exception would cancel all future cycles of this HMC
+            log.error("run() - error: {}", e.getMessage());
+        } finally {
+            thread.setName(threadName);
+        }
+    }
+
+}
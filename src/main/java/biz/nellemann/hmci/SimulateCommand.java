@@ -0,0 +1,91 @@
+/*
+   Copyright 2020 mark.nellemann@gmail.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Run a synthetic HMC, to measure cycle time and heap of HMCi against a large estate.
+ */
+@Command(name = "simulate",
+    mixinStandardHelpOptions = true,
+    description = "Simulate an HMC with a generated estate of systems and partitions, for scale and soak testing.")
+class SimulateCommand implements Callable<Integer> {
+
+    @Option(names = { "--systems" }, description = "Managed systems [default: ${DEFAULT-VALUE}].", defaultValue = "30", paramLabel = "<n>")
+    private int systems;
+
+    @Option(names = { "--partitions" }, description = "Logical partitions on each system [default: ${DEFAULT-VALUE}].", defaultValue = "50", paramLabel = "<n>")
+    private int partitions;
+
+    @Option(names = { "--vios" }, description = "Virtual I/O servers on each system [default: ${DEFAULT-VALUE}].", defaultValue = "2", paramLabel = "<n>")
+    private int vios;
+
+    @Option(names = { "--adapters" }, description = "Adapters of each type on each partition and VIOS [default: ${DEFAULT-VALUE}].", defaultValue = "2", paramLabel = "<n>")
+    private int adapters;
+
+    @Option(names = { "--address" }, description = "Listen address [default: ${DEFAULT-VALUE}].", defaultValue = "127.0.0.1", paramLabel = "<address>")
+    private String address;
+
+    @Option(names = { "--port" }, description = "Listen port [default: ${DEFAULT-VALUE}].", defaultValue = "12880", paramLabel = "<port>")
+    private int port;
+
+    @Option(names = { "--latency" }, description = "Milliseconds added to each response [default: ${DEFAULT-VALUE}].", defaultValue = "0", paramLabel = "<ms>")
+    private int latency;
+
+    @Option(names = { "--jitter" }, description = "Max. random milliseconds added on top of the latency [default: ${DEFAULT-VALUE}].", defaultValue = "0", paramLabel = "<ms>")
+    private int jitter;
+
+    @Option(names = { "--errors" }, description = "Fraction of requests answered with an error, eg. 0.01 [default: ${DEFAULT-VALUE}].", defaultValue = "0", paramLabel = "<rate>")
+    private double errors;
+
+
+    @Override
+    public Integer call() {
+        HmcSimulator simulator = new HmcSimulator(systems, partitions, vios, adapters);
+        simulator.setLatency(latency, jitter);
+        simulator.setErrorRate(errors);
+        try {
+            simulator.start(address, port);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        }
+
+        System.out.println("Simulating " + systems + " systems with " + (systems * partitions) + " partitions, use in the configuration:");
+        System.out.println("  url = \"http://" + address + ":" + simulator.getPort() + "\"");
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            simulator.stop();
+            System.out.println("Served " + simulator.getRequests() + " requests, " + simulator.getErrors() + " injected errors.");
+            stopped.countDown();
+        }));
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return 0;
+    }
+
+}
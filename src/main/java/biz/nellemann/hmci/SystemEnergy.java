@@ -6,15 +6,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
-
-import biz.nellemann.hmci.dto.xml.Link;
-import biz.nellemann.hmci.dto.xml.XmlFeed;
 
 class SystemEnergy extends Resource {
 
@@ -40,7 +35,7 @@ class SystemEnergy extends Resource {
 
         log.debug("refresh()");
         try {
-            String xml = restClient.getRequest(String.format("/rest/api/pcm/ManagedSystem/%s/ProcessedMetrics?Type=Energy&NoOfSamples=%d", managedSystem.id, noOfSamples));
+            String xml = restClient.getRequest(String.format("/rest/api/pcm/ManagedSystem/%s/ProcessedMetrics?Type=Energy&NoOfSamples=%d", managedSystem.id, getNoOfSamples()));
 
             // Do not try to parse empty response
             if(xml == null || xml.length() <= 1) {
@@ -48,23 +43,15 @@ class SystemEnergy extends Resource {
                 return;
             }
 
-            XmlMapper xmlMapper = new XmlMapper();
-            XmlFeed xmlFeed = xmlMapper.readValue(xml, XmlFeed.class);
-
-            xmlFeed.entries.forEach((entry) -> {
-                if (entry.category.term.equals("ManagedSystem")) {
-                    Link link = entry.link;
-                    if (link.getType() != null && Objects.equals(link.getType(), "application/json")) {
-                        try {
-                            URI jsonUri = URI.create(link.getHref());
-                            String json = restClient.getRequest(jsonUri.getPath());
-                            deserialize(json);
-                        } catch (IOException e) {
-                            log.error("refresh() - error 1: {}", e.getMessage());
-                        }
-                    }
+            for (FeedLinks.Link link : FeedLinks.extract(xml, "ManagedSystem")) {
+                try {
+                    URI jsonUri = URI.create(link.href);
+                    String json = restClient.getRequest(jsonUri.getPath());
+                    deserialize(json);
+                } catch (IOException e) {
+                    log.error("refresh() - error 1: {}", e.getMessage());
                 }
-            });
+            }
 
         } catch (IOException e) {
             log.error("refresh() - error: {} {}", e.getClass(), e.getMessage());
@@ -74,6 +61,12 @@ class SystemEnergy extends Resource {
 
 
 
+    @Override
+    String getResourceName() {
+        return managedSystem.name;
+    }
+
+
     @Override
     public void process(int sample) {
         if(metric != null) {
@@ -94,7 +87,7 @@ class SystemEnergy extends Resource {
             tagsMap.put("servername", managedSystem.name);
             log.trace("getPowerMetrics() - tags: {}", tagsMap);
 
-            fieldsMap.put("powerReading", metric.getSample(sample).energyUtil.powerUtil.powerReading);
+            fieldsMap.put("powerReading", metric.getSample(sample).getEnergyUtil().powerUtil.powerReading);
             log.trace("getPowerMetrics() - fields: {}", fieldsMap);
 
             list.add(new Measurement(getTimestamp(sample), tagsMap, fieldsMap));
@@ -116,16 +109,16 @@ class SystemEnergy extends Resource {
             tagsMap.put("servername", managedSystem.name);
             log.trace("getThermalMetrics() - tags: {}", tagsMap);
 
-            metric.getSample(sample).energyUtil.thermalUtil.cpuTemperatures.forEach((t) -> {
+            metric.getSample(sample).getEnergyUtil().thermalUtil.cpuTemperatures.forEach((t) -> {
                 fieldsMap.put("cpuTemperature_" + t.entityInstance, t.temperatureReading);
             });
 
-            metric.getSample(sample).energyUtil.thermalUtil.inletTemperatures.forEach((t) -> {
+            metric.getSample(sample).getEnergyUtil().thermalUtil.inletTemperatures.forEach((t) -> {
                 fieldsMap.put("inletTemperature_" + t.entityInstance, t.temperatureReading);
             });
 
             /* Disabled, not sure if useful
-            for(Temperature t : metrics.systemUtil.sample.energyUtil.thermalUtil.baseboardTemperatures) {
+            for(Temperature t : metrics.systemUtil.sample.getEnergyUtil().thermalUtil.baseboardTemperatures) {
                 fieldsMap.put("baseboardTemperature_" + t.entityInstance, t.temperatureReading);
             }*/
             log.trace("getThermalMetrics() - fields: {}", fieldsMap);
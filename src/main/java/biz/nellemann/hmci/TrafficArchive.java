@@ -0,0 +1,184 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * File format of recorded HMC traffic: a header followed by one record per response.
+ *
+ * Record: [long offsetMillis][int durationMillis][utf method][utf path?query][int status]
+ *         [utf contentType][utf etag][int length][int compressedLength][deflated body ...]
+ *
+ * Bodies are compressed one by one, so a reader can keep them compressed in memory, and
+ * each record is flushed when written, so an archive cut short by a crash can still be read.
+ */
+final class TrafficArchive {
+
+    private final static int MAGIC = 0x484d4354;    // "HMCT"
+    private final static int VERSION = 1;
+
+
+    private TrafficArchive() { }
+
+
+    static final class Record {
+        final long offsetMillis;    // Since the recording started
+        final int durationMillis;   // From request until the whole body was received
+        final String method;
+        final String path;          // Encoded path and query
+        final int status;
+        final String contentType;
+        final String etag;
+        final int length;
+        final byte[] compressed;
+
+        Record(long offsetMillis, int durationMillis, String method, String path, int status, String contentType, String etag, int length, byte[] compressed) {
+            this.offsetMillis = offsetMillis;
+            this.durationMillis = durationMillis;
+            this.method = method;
+            this.path = path;
+            this.status = status;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.length = length;
+            this.compressed = compressed;
+        }
+
+        byte[] body() throws IOException {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                byte[] body = new byte[length];
+                int n = 0;
+                while(n < length && !inflater.finished()) {
+                    n += inflater.inflate(body, n, length - n);
+                }
+                return body;
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt record: " + path, e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+
+    static final class Writer implements Closeable {
+
+        private final DataOutputStream out;
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        private final byte[] buffer = new byte[64 * 1024];
+        private boolean closed;
+
+        Writer(Path path) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.flush();
+        }
+
+        synchronized void append(long offsetMillis, int durationMillis, String method, String path, int status, String contentType, String etag, byte[] body) throws IOException {
+            if(closed) {
+                return;
+            }
+            byte[] compressed = compress(body);
+            out.writeLong(offsetMillis);
+            out.writeInt(durationMillis);
+            out.writeUTF(method);
+            out.writeUTF(path);
+            out.writeInt(status);
+            out.writeUTF(contentType != null ? contentType : "");
+            out.writeUTF(etag != null ? etag : "");
+            out.writeInt(body.length);
+            out.writeInt(compressed.length);
+            out.write(compressed);
+            out.flush();
+        }
+
+        private byte[] compress(byte[] body) {
+            deflater.reset();
+            deflater.setInput(body);
+            deflater.finish();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, body.length / 8));
+            while(!deflater.finished()) {
+                bytes.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if(!closed) {
+                closed = true;
+                deflater.end();
+                out.close();
+            }
+        }
+    }
+
+
+    /**
+     * Read all records of an archive, ignoring a last record which was not completely written.
+     */
+    static List<Record> read(Path path) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a traffic archive: " + path);
+            }
+            while(true) {
+                long offsetMillis;
+                try {
+                    offsetMillis = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    int durationMillis = in.readInt();
+                    String method = in.readUTF();
+                    String urlPath = in.readUTF();
+                    int status = in.readInt();
+                    String contentType = in.readUTF();
+                    String etag = in.readUTF();
+                    int length = in.readInt();
+                    byte[] compressed = new byte[in.readInt()];
+                    in.readFully(compressed);
+                    records.add(new Record(offsetMillis, durationMillis, method, urlPath, status,
+                        contentType.isEmpty() ? null : contentType, etag.isEmpty() ? null : etag, length, compressed));
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        }
+        return records;
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Okio;
+
+/**
+ * Negotiates compressed responses (gzip or deflate) with the HMC, and counts the bytes on the wire
+ * against the decoded bytes, per endpoint class. The time until the response headers are received
+ * is kept in a histogram per endpoint class.
+ *
+ * We set Accept-Encoding ourselves, which turns off the transparent gzip of OkHttp, so we can see the
+ * compressed size. Responses are decompressed as they are read, without buffering the compressed body.
+ * The endpoint class is the request path with id's and file names replaced by '*'.
+ */
+final class TrafficCounter implements Interceptor {
+
+    private final static Pattern ID_SEGMENT = Pattern.compile("/(?:[0-9a-fA-F]{8}-[0-9a-fA-F-]{27}|[0-9]+|[^/]+\\.json)(?=/|$)");
+
+    private final boolean compression;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+
+    TrafficCounter(boolean compression) {
+        this.compression = compression;
+    }
+
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request().newBuilder()
+            .header("Accept-Encoding", compression ? "gzip, deflate" : "identity")
+            .build();
+        Object event = FlightEvents.beginRequest();
+        long start = System.nanoTime();
+        Response response = chain.proceed(request);
+
+        String endpoint = endpointClass(request.url().encodedPath());
+        Counter counter = counters.computeIfAbsent(endpoint, k -> new Counter());
+        counter.requests.increment();
+        counter.latency.record((System.nanoTime() - start) / 1000);
+
+        ResponseBody body = response.body();
+        if(body == null || body.contentLength() == 0) {
+            FlightEvents.commitRequest(event, request.url().host(), request.method(), endpoint, response.code(), 0, 0);
+            return response;
+        }
+
+        String encoding = response.header("Content-Encoding", "identity").trim().toLowerCase();
+        CountingInputStream wire = new CountingInputStream(body.byteStream(), counter.wireBytes);
+        CountingInputStream decoded;
+        switch (encoding) {
+            case "gzip":
+                decoded = new CountingInputStream(new GZIPInputStream(wire), counter.decodedBytes);
+                break;
+            case "deflate":
+                decoded = new CountingInputStream(new InflaterInputStream(wire), counter.decodedBytes);
+                break;
+            default:
+                decoded = new CountingInputStream(wire, counter.decodedBytes);
+                encoding = "identity";
+        }
+
+        // The flight recorder event covers the transfer of the body, and is committed when it is closed
+        InputStream source = decoded;
+        if(event != null) {
+            source = new FilterInputStream(decoded) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    FlightEvents.commitRequest(event, request.url().host(), request.method(), endpoint, response.code(), wire.bytes, decoded.bytes);
+                }
+            };
+        }
+
+        Response.Builder builder = response.newBuilder()
+            .body(ResponseBody.create(Okio.buffer(Okio.source(source)), body.contentType(), encoding.equals("identity") ? body.contentLength() : -1L));
+        if(!encoding.equals("identity")) {
+            builder.removeHeader("Content-Encoding").removeHeader("Content-Length");
+        }
+        return builder.build();
+    }
+
+
+    static String endpointClass(String path) {
+        return ID_SEGMENT.matcher(path).replaceAll("/*");
+    }
+
+
+    /**
+     * @return requests, wire bytes and decoded bytes per endpoint class since the last call
+     */
+    Map<String, long[]> drain() {
+        Map<String, long[]> map = new TreeMap<>();
+        counters.forEach((endpoint, counter) -> {
+            long requests = counter.requests.sumThenReset();
+            if(requests > 0) {
+                map.put(endpoint, new long[] { requests, counter.wireBytes.sumThenReset(), counter.decodedBytes.sumThenReset() });
+            }
+        });
+        return map;
+    }
+
+
+    /**
+     * @return response times in microseconds per endpoint class since the last call
+     */
+    Map<String, LatencyHistogram.Snapshot> drainLatency() {
+        Map<String, LatencyHistogram.Snapshot> map = new TreeMap<>();
+        counters.forEach((endpoint, counter) -> {
+            LatencyHistogram.Snapshot snapshot = counter.latency.drain();
+            if(snapshot.count > 0) {
+                map.put(endpoint, snapshot);
+            }
+        });
+        return map;
+    }
+
+
+    private static final class Counter {
+        final LongAdder requests = new LongAdder();
+        final LongAdder wireBytes = new LongAdder();
+        final LongAdder decodedBytes = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final LongAdder count;
+        long bytes;     // Of this response only, read by a single thread
+
+        CountingInputStream(InputStream in, LongAdder count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b >= 0) {
+                count.increment();
+                bytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if(n > 0) {
+                count.add(n);
+                bytes += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count.add(skipped);
+            bytes += skipped;
+            return skipped;
+        }
+    }
+
+}
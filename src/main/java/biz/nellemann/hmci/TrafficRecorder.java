@@ -0,0 +1,110 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Records every request to the HMC and its (decoded) response into a TrafficArchive, for a period
+ * after start, so HMCi can later be profiled and benchmarked with TrafficReplay instead of an HMC.
+ *
+ * Request bodies (eg. the password in a logon) are not recorded, and the session token in logon
+ * responses is masked. 304 responses are not recorded, as the replay answers them from the ETag.
+ */
+final class TrafficRecorder implements Interceptor {
+
+    private final static Logger log = LoggerFactory.getLogger(TrafficRecorder.class);
+    private final static Pattern SESSION_TOKEN = Pattern.compile("(<X-API-Session[^>]*>)[^<]*(</X-API-Session>)");
+
+    private final TrafficArchive.Writer writer;
+    private final long start = System.currentTimeMillis();
+    private final long stop;
+    private volatile boolean recording = true;
+
+
+    /**
+     * @param path of the archive, which is overwritten
+     * @param durationMillis to record for, after which the archive is closed
+     */
+    TrafficRecorder(Path path, long durationMillis) throws IOException {
+        this.writer = new TrafficArchive.Writer(path);
+        this.stop = start + durationMillis;
+        log.info("Recording HMC traffic into {} for {} minutes", path, durationMillis / 60000);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        long begin = System.currentTimeMillis();
+        Response response = chain.proceed(request);
+        if(!recording || response.code() == 304) {
+            return response;
+        }
+        if(begin > stop) {
+            log.info("intercept() - recording done");
+            close();
+            return response;
+        }
+
+        // The body is buffered here, and the response passed on can still be read
+        byte[] body = response.peekBody(Long.MAX_VALUE).bytes();
+        int duration = (int) (System.currentTimeMillis() - begin);
+        if(request.url().encodedPath().endsWith("/web/Logon")) {
+            body = SESSION_TOKEN.matcher(new String(body, StandardCharsets.UTF_8)).replaceAll("$1recorded$2").getBytes(StandardCharsets.UTF_8);
+        }
+
+        MediaType contentType = (response.body() != null) ? response.body().contentType() : null;
+        try {
+            writer.append(begin - start, duration, request.method(), pathAndQuery(request.url()), response.code(),
+                (contentType != null) ? contentType.toString() : null, response.header("ETag"), body);
+        } catch (IOException e) {
+            log.warn("intercept() - error, recording stopped: {}", e.getMessage());
+            close();
+        }
+        return response;
+    }
+
+
+    static String pathAndQuery(HttpUrl url) {
+        String query = url.encodedQuery();
+        return (query != null) ? url.encodedPath() + "?" + query : url.encodedPath();
+    }
+
+
+    void close() {
+        recording = false;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.warn("close() - error: {}", e.getMessage());
+        }
+    }
+
+}
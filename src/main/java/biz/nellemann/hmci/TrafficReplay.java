@@ -0,0 +1,131 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Serves requests from a TrafficArchive instead of the HMC, to profile and benchmark HMCi with
+ * production payloads without HMC access. Added as the last interceptor, so it replaces the network.
+ *
+ * A request is answered with the responses recorded for the same method, path and query, in turn,
+ * and when there are none (eg. another NoOfSamples or StartTS), with those recorded for the same path.
+ * Each response is delayed by its recorded duration divided by 'speed', or not at all when speed is 0.
+ * When the recording is used up it starts over, and as the samples then are the same, they are not
+ * processed again.
+ */
+final class TrafficReplay implements Interceptor {
+
+    private final static Logger log = LoggerFactory.getLogger(TrafficReplay.class);
+
+    private final Map<String, Responses> byRequest = new HashMap<>();
+    private final Map<String, Responses> byPath = new HashMap<>();
+    private final double speed;
+
+
+    TrafficReplay(List<TrafficArchive.Record> records, double speed) {
+        this.speed = speed;
+        for(TrafficArchive.Record record : records) {
+            byRequest.computeIfAbsent(record.method + " " + record.path, k -> new Responses()).records.add(record);
+            byPath.computeIfAbsent(record.method + " " + stripQuery(record.path), k -> new Responses()).records.add(record);
+        }
+    }
+
+
+    static TrafficReplay load(Path path, double speed) throws IOException {
+        List<TrafficArchive.Record> records = TrafficArchive.read(path);
+        log.info("Replaying {} responses from {} at speed {}", records.size(), path, speed);
+        return new TrafficReplay(records, speed);
+    }
+
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String urlPath = request.url().encodedPath();
+        Responses responses = byRequest.get(request.method() + " " + TrafficRecorder.pathAndQuery(request.url()));
+        if(responses == null) {
+            responses = byPath.get(request.method() + " " + urlPath);
+        }
+        if(responses == null) {
+            log.debug("intercept() - not recorded: {} {}", request.method(), urlPath);
+            return response(request, request.method().equals("DELETE") ? 204 : 404, null, null, new byte[0]);
+        }
+
+        TrafficArchive.Record record = responses.next();
+        if(speed > 0 && record.durationMillis > 0) {
+            try {
+                Thread.sleep((long) (record.durationMillis / speed));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(e.getMessage());
+            }
+        }
+
+        if(record.etag != null && record.etag.equals(request.header("If-None-Match"))) {
+            return response(request, 304, null, record.etag, new byte[0]);
+        }
+        return response(request, record.status, record.contentType, record.etag, record.body());
+    }
+
+
+    private static Response response(Request request, int status, String contentType, String etag, byte[] body) {
+        Response.Builder builder = new Response.Builder()
+            .request(request)
+            .protocol(Protocol.HTTP_1_1)
+            .code(status)
+            .message("Replay")
+            .body(ResponseBody.create(body, (contentType != null) ? MediaType.parse(contentType) : null));
+        if(etag != null) {
+            builder.header("ETag", etag);
+        }
+        return builder.build();
+    }
+
+
+    private static String stripQuery(String pathAndQuery) {
+        int idx = pathAndQuery.indexOf('?');
+        return (idx < 0) ? pathAndQuery : pathAndQuery.substring(0, idx);
+    }
+
+
+    private static final class Responses {
+        final List<TrafficArchive.Record> records = new ArrayList<>();
+        final AtomicInteger next = new AtomicInteger();
+
+        TrafficArchive.Record next() {
+            return records.get(Math.floorMod(next.getAndIncrement(), records.size()));
+        }
+    }
+
+}
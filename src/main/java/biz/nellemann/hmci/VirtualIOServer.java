@@ -7,8 +7,6 @@ import java.net.URISyntaxException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
-
 import biz.nellemann.hmci.dto.xml.VirtualIOServerEntry;
 import biz.nellemann.hmci.dto.xml.XmlEntry;
 
@@ -38,22 +36,19 @@ public class VirtualIOServer {
 
     public void discover() {
         try {
-            String xml = restClient.getRequest(uriPath);
-
-            // Do not try to parse empty response
-            if(xml == null || xml.length() <= 1) {
+            // The client returns the entry parsed last time, if the document has not changed
+            XmlEntry xmlEntry = restClient.getXml(uriPath, XmlEntry.class);
+            if(xmlEntry == null) {
                 log.warn("discover() - no data.");
                 return;
             }
 
-            XmlMapper xmlMapper = new XmlMapper();
-            XmlEntry xmlEntry = xmlMapper.readValue(xml, XmlEntry.class);
-
             if(xmlEntry.getContent() == null){
                 log.warn("discover() - no content.");
                 return;
             }
 
+            this.id = xmlEntry.id;
             if(xmlEntry.getContent().isVirtualIOServer()) {
                 entry = xmlEntry.getContent().getVirtualIOServerEntry();
                 log.debug("discover() - {}", entry.getName());
@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2020 Mark Nellemann <mark.nellemann@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package biz.nellemann.hmci;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Persisted epoch second of the newest sample processed for each resource (by UUID),
+ * so gaps from while HMCi or InfluxDB was down can be found after a restart.
+ */
+final class WatermarkStore {
+
+    private final static Logger log = LoggerFactory.getLogger(WatermarkStore.class);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final File file;
+    private final Map<String, Long> watermarks = new ConcurrentHashMap<>();
+    private volatile boolean changed = false;
+
+
+    WatermarkStore(String path) {
+        this.file = new File(path);
+    }
+
+
+    void load() {
+        if(!file.exists()) {
+            return;
+        }
+        try {
+            Map<String, Long> map = objectMapper.readValue(file, new TypeReference<Map<String, Long>>() {});
+            watermarks.putAll(map);
+            log.debug("load() - {} watermarks from: {}", map.size(), file);
+        } catch (IOException e) {
+            log.warn("load() - error: {}", e.getMessage());
+        }
+    }
+
+
+    /**
+     * Write to a temporary file first, so a crash never leaves a truncated file behind.
+     * Nothing is written when no watermark has advanced since the last save.
+     */
+    synchronized void save() {
+        if(!changed) {
+            return;
+        }
+        changed = false;
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            objectMapper.writeValue(tmp, watermarks);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            changed = true;
+            log.warn("save() - error: {}", e.getMessage());
+        }
+    }
+
+
+    long get(String id) {
+        return watermarks.getOrDefault(id, 0L);
+    }
+
+
+    void update(String id, long epochSecond) {
+        if(id != null && epochSecond > 0 && epochSecond > get(id)) {
+            watermarks.merge(id, epochSecond, Math::max);
+            changed = true;
+        }
+    }
+
+}
@@ -3,16 +3,16 @@ package biz.nellemann.hmci.dto.json;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public final class Storage {
 
-    public List<String> clientLpars = new ArrayList<>();
-    public List<GenericPhysicalAdapters> genericPhysicalAdapters = new ArrayList<>();
-    public List<GenericVirtualAdapter> genericVirtualAdapters = new ArrayList<>();
-    public List<FiberChannelAdapter> fiberChannelAdapters = new ArrayList<>();
-    public List<VirtualFiberChannelAdapter> virtualFiberChannelAdapters = new ArrayList<>();
+    public List<String> clientLpars = Collections.emptyList();
+    public List<GenericPhysicalAdapters> genericPhysicalAdapters = Collections.emptyList();
+    public List<GenericVirtualAdapter> genericVirtualAdapters = Collections.emptyList();
+    public List<FiberChannelAdapter> fiberChannelAdapters = Collections.emptyList();
+    public List<VirtualFiberChannelAdapter> virtualFiberChannelAdapters = Collections.emptyList();
 
 }
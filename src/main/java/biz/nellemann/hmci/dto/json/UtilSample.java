@@ -1,12 +1,18 @@
 package biz.nellemann.hmci.dto.json;
 
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+/**
+ * The sub-trees are only bound when present in the sample, eg. a partition sample has no serverUtil,
+ * energyUtil or viosUtil. Use the getters, which create an empty instance for a missing sub-tree
+ * when it is first asked for.
+ */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public final class UtilSample {
 
@@ -19,13 +25,50 @@ public final class UtilSample {
         return sampleInfo;
     }
 
+    // Epoch second of sampleInfo.timestamp, parsed once when decoded (0 if missing or invalid)
+    @JsonIgnore
+    public long epochSecond;
+
 
     @JsonProperty("systemFirmwareUtil")
-    public SystemFirmware systemFirmwareUtil = new SystemFirmware();
+    public SystemFirmware systemFirmwareUtil;
+
+    public ServerUtil serverUtil;
+    public EnergyUtil energyUtil;
+    public List<ViosUtil> viosUtil;
+    public LparUtil lparsUtil;
+
+
+    public SystemFirmware getSystemFirmwareUtil() {
+        if(systemFirmwareUtil == null) {
+            systemFirmwareUtil = new SystemFirmware();
+        }
+        return systemFirmwareUtil;
+    }
+
+    public ServerUtil getServerUtil() {
+        if(serverUtil == null) {
+            serverUtil = new ServerUtil();
+        }
+        return serverUtil;
+    }
+
+    public EnergyUtil getEnergyUtil() {
+        if(energyUtil == null) {
+            energyUtil = new EnergyUtil();
+        }
+        return energyUtil;
+    }
 
-    public ServerUtil serverUtil = new ServerUtil();
-    public EnergyUtil energyUtil = new EnergyUtil();
-    public List<ViosUtil> viosUtil = new ArrayList<>();
-    public LparUtil lparsUtil = new LparUtil();
+    public List<ViosUtil> getViosUtil() {
+        return viosUtil != null ? viosUtil : Collections.emptyList();
+    }
+
+    public LparUtil getLparsUtil() {
+        if(lparsUtil == null) {
+            lparsUtil = new LparUtil();
+        }
+        return lparsUtil;
+    }
 
 }
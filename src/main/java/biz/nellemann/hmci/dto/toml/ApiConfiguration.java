@@ -0,0 +1,13 @@
+package biz.nellemann.hmci.dto.toml;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ApiConfiguration {
+
+    public Boolean enabled = false;
+    public String address = "127.0.0.1";
+    public Integer port = 8088;
+    public Integer threads = 2;
+
+}
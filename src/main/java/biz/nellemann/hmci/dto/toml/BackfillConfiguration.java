@@ -0,0 +1,15 @@
+package biz.nellemann.hmci.dto.toml;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class BackfillConfiguration {
+
+    public Boolean enabled = false;
+    public String path = "/var/tmp/hmci-watermarks.json";
+    public Integer threads = 4;           // Concurrent requests to each HMC
+    public Integer chunkMinutes = 60;     // Time range of each request
+    public Integer maxHours = 24;         // Gaps older than this are not recovered
+    public Integer processedHours = 2;    // How long the HMC keeps ProcessedMetrics, AggregatedMetrics are used before that
+
+}
@@ -8,5 +8,10 @@ public class Configuration {
 
     public InfluxConfiguration influx;
     public Map<String, HmcConfiguration> hmc;
+    public QuantileConfiguration quantiles = new QuantileConfiguration();
+    public ApiConfiguration api = new ApiConfiguration();
+    public HistoryConfiguration history = new HistoryConfiguration();
+    public BackfillConfiguration backfill = new BackfillConfiguration();
+    public SchedulerConfiguration scheduler = new SchedulerConfiguration();
 
 }
@@ -0,0 +1,15 @@
+package biz.nellemann.hmci.dto.toml;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class HistoryConfiguration {
+
+    public Boolean enabled = false;
+    public String path = "/var/tmp/hmci-history.dat";
+    public Integer hours = 6;             // Retention
+    public Integer blockMinutes = 30;     // Time covered by each compressed block
+    public Integer blockSize = 1024;      // Bytes per block
+    public Integer maxSeries = 50000;     // Upper bound of series (measurement, tags and field)
+
+}
@@ -15,14 +15,30 @@ public class HmcConfiguration {
 
     public Integer refresh = 30;
     public Integer discover = 120;
-
-    public String trace;
+    public Integer session = 60;          // Minutes before a session expires on the HMC, renewed in the background before that
+    public Integer sessions = 1;          // Sessions to distribute requests across
+    public Integer deadline;              // Seconds before a cycle stops starting more work, defaults to refresh
+    public Integer requests = 4;          // Requests in flight to this HMC, initial limit when adaptive
+    public Integer maxRequests = 16;      // Upper bound of the adaptive limit
+    public Boolean adaptive = true;       // Adjust the limit to the latency and errors of this HMC
+    public Integer breakerFailures = 3;   // Errors in a row before requests to an endpoint are stopped, 0 to disable
+    public Integer breakerBackoff = 60;   // Seconds before the first retry of a stopped endpoint, doubled on each failed retry
+    public Integer breakerMaxBackoff = 3600;
+    public Integer maxSkip = 3;           // Max. cycles a resource can be skipped at the deadline, before it is forced
+
+    public String trace;                  // Folder to record all requests and responses into
+    public Integer traceMinutes = 60;     // Minutes to record, after start
+    public String replay;                 // Archive to serve requests from, instead of the HMC
+    public Double replaySpeed = 1.0;      // Relative to the recorded response times, 0 to not delay responses
     public Boolean energy = true;
     public Boolean trust = true;
+    public Boolean compression = true;    // Ask the HMC for compressed (gzip or deflate) responses
 
     public List<String> excludeSystems = new ArrayList<>();
     public List<String> includeSystems = new ArrayList<>();
     public List<String> excludePartitions = new ArrayList<>();
     public List<String> includePartitions = new ArrayList<>();
 
+    public List<TierConfiguration> tiers = new ArrayList<>();   // Refresh intervals by name, first match wins
+
 }
@@ -0,0 +1,25 @@
+package biz.nellemann.hmci.dto.toml;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class QuantileConfiguration {
+
+    public Boolean enabled = false;
+    public Integer window = 300;        // Seconds per sketch window
+    public Double accuracy = 0.01;      // Relative accuracy of quantiles
+    public Integer maxBins = 1024;       // Upper bound of buckets per sketch
+    public Boolean sketch = false;      // Also emit the serialized sketch (base64) for merging across windows
+
+    public List<Double> quantiles = new ArrayList<>(Arrays.asList(0.5, 0.9, 0.95, 0.99));
+    public List<String> fields = new ArrayList<>(Arrays.asList(
+        "utilizedProcUnits", "utilizedPct",
+        "receivedBytes", "sentBytes", "transferredBytes",
+        "readBytes", "writeBytes"
+    ));
+
+}
@@ -0,0 +1,14 @@
+package biz.nellemann.hmci.dto.toml;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class SchedulerConfiguration {
+
+    public Integer threads = 4;           // Shared by all HMC's, one cycle of each HMC runs at a time
+    public Integer jitter = 30;           // Max. seconds to delay the first cycle of each HMC (capped by its refresh)
+    public Boolean virtualThreads = true; // Fetch resources in virtual threads, when running on Java 21+
+    public Integer resourceThreads = 16;  // Platform threads used to fetch resources, on older Java versions
+    public Integer memoryBudget = 0;      // MB of heap for decoded metrics, processed right after fetch (0 to disable)
+
+}
@@ -0,0 +1,18 @@
+package biz.nellemann.hmci.dto.toml;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class TierConfiguration {
+
+    public String name;
+    public Integer refresh = 30;          // Seconds between refresh of resources in this tier
+    public Integer priority = 0;          // Higher priority is refreshed first, when a cycle is short on time
+
+    public List<String> systems = new ArrayList<>();      // Regular expressions matching system names
+    public List<String> partitions = new ArrayList<>();   // Regular expressions matching partition names
+
+}
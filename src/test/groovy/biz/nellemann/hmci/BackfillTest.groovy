@@ -0,0 +1,178 @@
+package biz.nellemann.hmci
+
+import biz.nellemann.hmci.dto.json.SystemUtil
+import biz.nellemann.hmci.dto.toml.BackfillConfiguration
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Path
+import java.time.Instant
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class BackfillTest extends Specification {
+
+    @TempDir
+    Path tempDir
+
+    // Samples from 2022-12-02T12:59:30+0100 to 13:02:00+0100, every 30 seconds
+    private static final long FIRST_SAMPLE = 1669982370L
+
+    private List<Long> processed = []
+
+    private Resource resource = new Resource() {
+        @Override
+        void process(int sample) {
+            processed.add(getTimestamp(sample).getEpochSecond())
+        }
+    }
+
+
+    void "test only samples inside the gap are processed, in order"() {
+
+        setup:
+        def testFile = new File(getClass().getResource('/3-logical-partition-perf-data.json').toURI())
+        SystemUtil history = resource.parse(testFile.getText('UTF-8'))
+        Collections.reverse(history.samples)
+
+        when:
+        int count = resource.backfill(history, FIRST_SAMPLE, FIRST_SAMPLE + 120)
+
+        then:
+        count == 3
+        processed == [ FIRST_SAMPLE + 30, FIRST_SAMPLE + 60, FIRST_SAMPLE + 90 ]
+        resource.metric == null
+    }
+
+
+    void "test oldest sample and watermark of processed samples"() {
+
+        setup:
+        def testFile = new File(getClass().getResource('/3-logical-partition-perf-data.json').toURI())
+
+        when:
+        resource.deserialize(testFile.getText('UTF-8'))
+        resource.process()
+
+        then:
+        resource.getOldestSample() == FIRST_SAMPLE
+        resource.getLastProcessed() == FIRST_SAMPLE + 150
+        resource.metric == null
+    }
+
+
+    void "test samples are only processed once"() {
+
+        setup:
+        def testFile = new File(getClass().getResource('/3-logical-partition-perf-data.json').toURI())
+
+        when:
+        resource.deserialize(testFile.getText('UTF-8'))
+        resource.process()
+        resource.deserialize(testFile.getText('UTF-8'))
+        resource.process()
+
+        then:
+        processed.size() == 6
+        processed.toSet() == (0..5).collect { FIRST_SAMPLE + it * 30 }.toSet()
+    }
+
+
+    void "test watermarks are persisted and only move forward"() {
+
+        setup:
+        String path = tempDir.resolve("watermarks.json").toString()
+        WatermarkStore store = new WatermarkStore(path)
+
+        when:
+        store.update("2DE05DB6-8AD5-448F-8327-0F488D287E82", FIRST_SAMPLE)
+        store.update("2DE05DB6-8AD5-448F-8327-0F488D287E82", FIRST_SAMPLE - 60)
+        store.save()
+        WatermarkStore loaded = new WatermarkStore(path)
+        loaded.load()
+
+        then:
+        loaded.get("2DE05DB6-8AD5-448F-8327-0F488D287E82") == FIRST_SAMPLE
+        loaded.get("unknown") == 0
+    }
+
+
+    void "test watermarks are only written when one has advanced"() {
+
+        setup:
+        File file = tempDir.resolve("watermarks.json").toFile()
+        WatermarkStore store = new WatermarkStore(file.getPath())
+        store.update("2DE05DB6-8AD5-448F-8327-0F488D287E82", FIRST_SAMPLE)
+        store.save()
+        file.delete()
+
+        when:
+        store.update("2DE05DB6-8AD5-448F-8327-0F488D287E82", FIRST_SAMPLE)
+        store.save()
+
+        then:
+        !file.exists()
+
+        when:
+        store.update("2DE05DB6-8AD5-448F-8327-0F488D287E82", FIRST_SAMPLE + 30)
+        store.save()
+
+        then:
+        file.exists()
+    }
+
+
+    void "test gap is found again when closed before it is recovered"() {
+
+        setup:
+        String path = tempDir.resolve("watermarks.json").toString()
+        long now = Instant.now().getEpochSecond()
+        WatermarkStore store = new WatermarkStore(path)
+        store.update("b597e4da-2aab-3f52-8616-341d62153559", now - 3600)
+        store.save()
+        store.load()
+        ManagedSystem system = new ManagedSystem(null, null, "https://localhost:12443/rest/api/uom/ManagedSystem/b597e4da-2aab-3f52-8616-341d62153559")
+        system.id = "b597e4da-2aab-3f52-8616-341d62153559"
+        system.oldestSample = now - 600
+        system.lastProcessed = now
+        CountDownLatch fetching = new CountDownLatch(1)
+        RestClient restClient = new RestClient("http://127.0.0.1:1", "user", "password", false) {
+            @Override
+            String getRequest(String urlPath) throws IOException {
+                fetching.countDown()
+                Thread.sleep(60_000)    // Until interrupted by close()
+                return null
+            }
+        }
+        Backfill backfill = new Backfill(new BackfillConfiguration(), store)
+
+        when:
+        backfill.recover(restClient, [ system ])
+        fetching.await(10, TimeUnit.SECONDS)
+        backfill.checkpoint([ system ])
+        backfill.close()
+        WatermarkStore loaded = new WatermarkStore(path)
+        loaded.load()
+
+        then:
+        loaded.get(system.id) == now - 3600
+
+        when:
+        List<String> requested = Collections.synchronizedList([])
+        CountDownLatch restarted = new CountDownLatch(1)
+        RestClient replaying = new RestClient("http://127.0.0.1:1", "user", "password", false) {
+            @Override
+            String getRequest(String urlPath) throws IOException {
+                requested.add(urlPath)
+                restarted.countDown()
+                return null
+            }
+        }
+        new Backfill(new BackfillConfiguration(), loaded).recover(replaying, [ system ])
+        restarted.await(10, TimeUnit.SECONDS)
+
+        then:
+        requested.first().contains("StartTS=" + Backfill.format(now - 3600 + 1))
+    }
+
+}
@@ -0,0 +1,149 @@
+package biz.nellemann.hmci
+
+import biz.nellemann.hmci.dto.xml.XmlEntry
+import org.mockserver.integration.ClientAndServer
+import org.mockserver.model.HttpRequest
+import org.mockserver.model.HttpResponse
+import org.mockserver.model.MediaType
+import org.mockserver.socket.PortFactory
+import org.mockserver.verify.VerificationTimes
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class CircuitBreakerTest extends Specification {
+
+    @Shared
+    private static ClientAndServer mockServer
+
+    private RestClient restClient
+    private CircuitBreaker circuitBreaker
+
+
+    def setupSpec() {
+        mockServer = ClientAndServer.startClientAndServer(PortFactory.findFreePort())
+    }
+
+    def cleanupSpec() {
+        mockServer.stop()
+    }
+
+    def setup() {
+        mockServer.reset()
+        def responseFile = new File(getClass().getResource('/hmc-logon-response.xml').toURI())
+        mockServer.when(HttpRequest.request().withMethod("PUT").withPath("/rest/api/web/Logon"))
+            .respond(HttpResponse.response().withStatusCode(200).withBody(responseFile.getText('UTF-8'), MediaType.XML_UTF_8))
+
+        restClient = new RestClient(String.format("http://localhost:%d", mockServer.getPort()), "user", "password", true)
+        circuitBreaker = new CircuitBreaker(3, 200, 1000)
+        restClient.setCircuitBreaker(circuitBreaker)
+    }
+
+
+    void "test endpoint keys include the resource and type, but not json files or logon"() {
+        expect:
+        CircuitBreaker.endpointKey("/rest/api/pcm/ManagedSystem/abc/ProcessedMetrics", "Energy") == "/rest/api/pcm/ManagedSystem/abc/ProcessedMetrics?Type=Energy"
+        CircuitBreaker.endpointKey("/rest/api/pcm/ManagedSystem/abc/ProcessedMetrics", null) == "/rest/api/pcm/ManagedSystem/abc/ProcessedMetrics"
+        CircuitBreaker.endpointKey("/rest/api/pcm/ProcessedMetrics/ManagedSystem_abc_20221202T134000+0100_20221202T134230+0100_30.json", null) == null
+        CircuitBreaker.endpointKey("/rest/api/web/Logon", null) == null
+    }
+
+
+    void "test failing endpoint stops receiving requests after the threshold"() {
+
+        setup:
+        def failing = HttpRequest.request().withMethod("GET").withPath("/test/failing")
+        mockServer.when(failing).respond(HttpResponse.response().withStatusCode(500))
+
+        when:
+        List<String> responses = (1..6).collect { restClient.getRequest("/test/failing") }
+
+        then:
+        responses.every { it == null }
+        circuitBreaker.getState("/test/failing") == CircuitBreaker.State.OPEN
+        circuitBreaker.getStatus().keySet() == [ "/test/failing" ] as Set
+        circuitBreaker.drainRejected() == 3
+        mockServer.verify(failing, VerificationTimes.exactly(3))
+    }
+
+
+    void "test other endpoints are not affected by an open circuit"() {
+
+        setup:
+        mockServer.when(HttpRequest.request().withMethod("GET").withPath("/test/failing")).respond(HttpResponse.response().withStatusCode(500))
+        mockServer.when(HttpRequest.request().withMethod("GET").withPath("/test/ok")).respond(HttpResponse.response().withStatusCode(200).withBody("ok"))
+        3.times { restClient.getRequest("/test/failing") }
+
+        expect:
+        restClient.getRequest("/test/ok") == "ok"
+        restClient.getAsync("/test/failing").get(5, TimeUnit.SECONDS) == null
+    }
+
+
+    void "test circuit closes after a successful probe"() {
+
+        setup:
+        def request = HttpRequest.request().withMethod("GET").withPath("/test/recovering")
+        mockServer.when(request).respond(HttpResponse.response().withStatusCode(500))
+        3.times { restClient.getRequest("/test/recovering") }
+
+        when:
+        mockServer.clear(request)
+        mockServer.when(request).respond(HttpResponse.response().withStatusCode(200).withBody("recovered"))
+        Thread.sleep(300)
+        String response = restClient.getRequest("/test/recovering")
+
+        then:
+        response == "recovered"
+        circuitBreaker.getState("/test/recovering") == CircuitBreaker.State.CLOSED
+        circuitBreaker.getStatus().isEmpty()
+    }
+
+
+    void "test failed probe opens the circuit again"() {
+
+        setup:
+        def request = HttpRequest.request().withMethod("GET").withPath("/test/sick")
+        mockServer.when(request).respond(HttpResponse.response().withStatusCode(500))
+        3.times { restClient.getRequest("/test/sick") }
+
+        when:
+        Thread.sleep(300)
+        restClient.getRequest("/test/sick")     // Probe
+        restClient.getRequest("/test/sick")     // Rejected, backoff is doubled
+
+        then:
+        circuitBreaker.getState("/test/sick") == CircuitBreaker.State.OPEN
+        mockServer.verify(request, VerificationTimes.exactly(4))
+    }
+
+
+    void "test unchanged documents answered with 304 keep the circuit closed"() {
+
+        setup:
+        def responseFile = new File(getClass().getResource('/2-managed-system.xml').toURI())
+        def conditional = HttpRequest.request()
+            .withMethod("GET")
+            .withPath("/rest/api/uom/ManagedSystem/unchanged")
+            .withHeader("If-None-Match", '"v1"')
+        mockServer.when(conditional).respond(HttpResponse.response().withStatusCode(304))
+        mockServer.when(HttpRequest.request().withMethod("GET").withPath("/rest/api/uom/ManagedSystem/unchanged"))
+            .respond(HttpResponse.response()
+                .withStatusCode(200)
+                .withHeader("ETag", '"v1"')
+                .withBody(responseFile.getText('UTF-8'), MediaType.XML_UTF_8))
+
+        when:
+        def first = restClient.getXml("/rest/api/uom/ManagedSystem/unchanged", XmlEntry.class)
+        List<XmlEntry> unchanged = (1..6).collect { restClient.getXml("/rest/api/uom/ManagedSystem/unchanged", XmlEntry.class) }
+
+        then:
+        first != null
+        unchanged.every { it.is(first) }
+        circuitBreaker.getState("/rest/api/uom/ManagedSystem/unchanged") == CircuitBreaker.State.CLOSED
+        circuitBreaker.drainRejected() == 0
+        mockServer.verify(conditional, VerificationTimes.exactly(6))
+    }
+
+}
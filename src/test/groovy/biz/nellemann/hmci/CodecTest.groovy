@@ -0,0 +1,49 @@
+package biz.nellemann.hmci
+
+import biz.nellemann.hmci.dto.json.ProcessedMetrics
+import biz.nellemann.hmci.dto.xml.XmlEntry
+import biz.nellemann.hmci.dto.xml.XmlFeed
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+class CodecTest extends Specification {
+
+    void "test parsing of xml and json documents"() {
+
+        setup:
+        String feed = new File(getClass().getResource('/processed-metrics.xml').toURI()).getText('UTF-8')
+        String entry = new File(getClass().getResource('/2-managed-system.xml').toURI()).getText('UTF-8')
+        String json = new File(getClass().getResource('/2-managed-system-perf-data.json').toURI()).getText('UTF-8')
+
+        when:
+        XmlFeed xmlFeed = Codec.readXml(feed, XmlFeed.class)
+        XmlEntry xmlEntry = Codec.readXml(entry, XmlEntry.class)
+        ProcessedMetrics processedMetrics = Codec.readJson(json, ProcessedMetrics.class)
+
+        then:
+        xmlFeed.entries.size() > 0
+        xmlEntry.id == "b597e4da-2aab-3f52-8616-341d62153559"
+        processedMetrics.systemUtil.samples.size() > 0
+    }
+
+
+    void "test shared readers can be used from many threads"() {
+
+        setup:
+        String json = new File(getClass().getResource('/2-managed-system-perf-data.json').toURI()).getText('UTF-8')
+        def executor = Executors.newFixedThreadPool(8)
+
+        when:
+        def futures = (1..64).collect { executor.submit({ Codec.readJson(json, ProcessedMetrics.class).systemUtil.samples.size() } as Callable<Integer>) }
+        List<Integer> sizes = futures*.get()
+
+        then:
+        sizes.unique().size() == 1
+
+        cleanup:
+        executor.shutdown()
+    }
+
+}
@@ -0,0 +1,98 @@
+package biz.nellemann.hmci
+
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class ConcurrencyLimiterTest extends Specification {
+
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(10)
+
+    private static void round(ConcurrencyLimiter limiter, long rttNanos) {
+        List<Integer> inFlight = (1..limiter.getLimit()).collect { limiter.acquire() }
+        inFlight.each { limiter.release(rttNanos, it, ConcurrencyLimiter.Outcome.SUCCESS) }
+    }
+
+
+    void "test limit grows while latency is stable, up to the max"() {
+
+        setup:
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 4, 16)
+
+        when:
+        500.times { round(limiter, RTT) }
+
+        then:
+        limiter.getLimit() == 16
+        limiter.getInFlight() == 0
+    }
+
+
+    void "test limit backs off on latency spikes"() {
+
+        setup:
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 4, 16)
+        500.times { round(limiter, RTT) }
+
+        when:
+        10.times { round(limiter, RTT * 10) }
+
+        then:
+        limiter.getLimit() < 16
+    }
+
+
+    void "test limit is cut in half on errors and timeouts"() {
+
+        setup:
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 8, 16)
+
+        when:
+        int inFlight = limiter.acquire()
+        limiter.release(RTT, inFlight, ConcurrencyLimiter.Outcome.OVERLOAD)
+
+        then:
+        limiter.getLimit() == 4
+    }
+
+
+    void "test fixed limit does not change"() {
+
+        setup:
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 4, 4)
+
+        when:
+        100.times { round(limiter, RTT) }
+        int inFlight = limiter.acquire()
+        limiter.release(RTT, inFlight, ConcurrencyLimiter.Outcome.OVERLOAD)
+
+        then:
+        limiter.getLimit() == 4
+    }
+
+
+    void "test requests wait for a permit when the limit is reached"() {
+
+        setup:
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1)
+        CountDownLatch acquired = new CountDownLatch(1)
+        int inFlight = limiter.acquire()
+
+        when:
+        Thread.start {
+            limiter.acquire()
+            acquired.countDown()
+        }
+
+        then:
+        !acquired.await(200, TimeUnit.MILLISECONDS)
+
+        when:
+        limiter.release(RTT, inFlight, ConcurrencyLimiter.Outcome.IGNORE)
+
+        then:
+        acquired.await(5, TimeUnit.SECONDS)
+    }
+
+}
@@ -0,0 +1,62 @@
+package biz.nellemann.hmci
+
+import biz.nellemann.hmci.dto.xml.XmlFeed
+import spock.lang.Specification
+
+class FeedLinksTest extends Specification {
+
+    void "test extracting json link of managed system"() {
+
+        setup:
+        String xml = new File(getClass().getResource('/processed-metrics.xml').toURI()).getText('UTF-8')
+
+        when:
+        List<FeedLinks.Link> links = FeedLinks.extract(xml, "ManagedSystem")
+
+        then:
+        links.size() == 1
+        links[0].href.endsWith("ManagedSystem_b597e4da-2aab-3f52-8616-341d62153559_20200807T082500+0200_20200807T102400+0200_30.json")
+        links[0].updated == "2020-08-07T10:24:00.000+02:00"
+    }
+
+
+    void "test entries without json link are skipped"() {
+
+        setup:
+        String xml = new File(getClass().getResource('/processed-metrics.xml').toURI()).getText('UTF-8')
+
+        when:
+        List<FeedLinks.Link> links = FeedLinks.extract(xml, "LogicalPartition")
+
+        then:
+        links.isEmpty()
+    }
+
+
+    void "test same links as the full binding"() {
+
+        setup:
+        String xml = new File(getClass().getResource('/4-managed-system-energy.xml').toURI()).getText('UTF-8')
+        def feed = Codec.readXml(xml, XmlFeed.class)
+        def expected = feed.entries
+            .findAll { it.category.term == "ManagedSystem" && it.link.type == "application/json" }
+            .collect { it.link.href }
+
+        when:
+        List<FeedLinks.Link> links = FeedLinks.extract(xml, "ManagedSystem")
+
+        then:
+        links*.href == expected
+    }
+
+
+    void "test invalid feed"() {
+
+        when:
+        FeedLinks.extract("<feed><entry>", "ManagedSystem")
+
+        then:
+        thrown(IOException)
+    }
+
+}
@@ -0,0 +1,46 @@
+package biz.nellemann.hmci
+
+import spock.lang.Requires
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+// The jdk.jfr classes are looked up by name, as we also build on Java 8
+@Requires({ FlightEvents.AVAILABLE })
+class FlightEventsTest extends Specification {
+
+    void "test no events are created without a recording"() {
+        expect:
+        FlightEvents.beginRequest() == null
+        FlightEvents.beginDeserialize() == null
+    }
+
+
+    void "test events are written to a recording"() {
+
+        setup:
+        def recording = Class.forName("jdk.jfr.Recording").getDeclaredConstructor().newInstance()
+        recording.enable("biz.nellemann.hmci.HmcRequest")
+        recording.enable("biz.nellemann.hmci.ProcessSamples")
+        Path file = Files.createTempFile("hmci", ".jfr")
+
+        when:
+        recording.start()
+        FlightEvents.commitRequest(FlightEvents.beginRequest(), "hmc1", "GET", "/rest/api/pcm/ProcessedMetrics/*", 200, 1000, 4000)
+        FlightEvents.commitProcess(FlightEvents.beginProcess(), "LogicalPartition", "lpar01", 5, 3)
+        recording.stop()
+        recording.dump(file)
+        List events = Class.forName("jdk.jfr.consumer.RecordingFile").readAllEvents(file)
+
+        then:
+        events.size() == 2
+        events.find { it.getEventType().getName() == "biz.nellemann.hmci.HmcRequest" }.getLong("decodedBytes") == 4000
+        events.find { it.getEventType().getName() == "biz.nellemann.hmci.ProcessSamples" }.getString("resource") == "lpar01"
+
+        cleanup:
+        recording.close()
+        Files.deleteIfExists(file)
+    }
+
+}
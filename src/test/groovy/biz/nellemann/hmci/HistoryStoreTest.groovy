@@ -0,0 +1,168 @@
+package biz.nellemann.hmci
+
+import biz.nellemann.hmci.dto.toml.HistoryConfiguration
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Path
+import java.time.Instant
+
+class HistoryStoreTest extends Specification {
+
+    @TempDir
+    Path tempDir
+
+    private HistoryConfiguration configuration() {
+        HistoryConfiguration configuration = new HistoryConfiguration()
+        configuration.path = tempDir.resolve("history.dat").toString()
+        configuration.hours = 1
+        configuration.blockMinutes = 10
+        configuration.blockSize = 512
+        configuration.maxSeries = 10
+        return configuration
+    }
+
+    private static List<Measurement> measurements(long timestamp, double value) {
+        return [ new Measurement(Instant.ofEpochSecond(timestamp), [ servername: 'Server-9009-42A-SN21F64EV', lparname: 'rhel8-ocp-helper' ], [ utilizedProcUnits: value, state: 'running' ] as Map<String, Object>) ]
+    }
+
+
+    void "test points are stored and read back"() {
+
+        setup:
+        HistoryStore store = new HistoryStore(configuration())
+        store.open()
+
+        when:
+        (0..<100).each { store.append(measurements(1_700_000_000L + (it * 30), it / 100d), "lpar_processor") }
+        List<HistoryStore.SeriesData> result = store.query("lpar_processor", "utilizedProcUnits", [ lparname: 'rhel8-ocp-helper' ], 0, Long.MAX_VALUE)
+
+        then:
+        store.getSeriesCount() == 1
+        store.getDroppedPoints() == 0
+        result.size() == 1
+        result[0].size() == 100
+        result[0].getTimestamp(99) == 1_700_000_000L + (99 * 30)
+        result[0].getValue(42) == 0.42d
+
+        cleanup:
+        store.close()
+    }
+
+
+    void "test history survives reopen and old blocks are overwritten"() {
+
+        setup:
+        HistoryStore store = new HistoryStore(configuration())
+        store.open()
+        (0..<100).each { store.append(measurements(1_700_000_000L + (it * 60), it), "lpar_processor") }
+        store.close()
+
+        when:
+        store = new HistoryStore(configuration())
+        store.open()
+        store.append(measurements(1_700_000_000L + (100 * 60), 100), "lpar_processor")
+        HistoryStore.SeriesData data = store.query("lpar_processor", null, [:], 0, Long.MAX_VALUE).first()
+
+        then:
+        store.getSeriesCount() == 1
+        data.getTimestamp(data.size() - 1) == 1_700_000_000L + (100 * 60)
+        data.getValue(data.size() - 1) == 100d
+        data.getTimestamp(0) > 1_700_000_000L   // Older than retention is gone
+        data.size() < 101
+
+        cleanup:
+        store.close()
+    }
+
+
+    void "test replay rebuilds measurements"() {
+
+        setup:
+        HistoryStore store = new HistoryStore(configuration())
+        store.open()
+        (0..<10).each { store.append(measurements(1_700_000_000L + (it * 30), it), "lpar_processor") }
+        Map<String, List<Measurement>> replayed = [:]
+
+        when:
+        store.replay(1_700_000_000L + 60, Long.MAX_VALUE, { name, list -> replayed.put(name, list) })
+
+        then:
+        replayed['lpar_processor'].size() == 8
+        replayed['lpar_processor'].first().tags['lparname'] == 'rhel8-ocp-helper'
+        replayed['lpar_processor'].first().fields['utilizedProcUnits'] == 2d
+
+        cleanup:
+        store.close()
+    }
+
+
+    void "test read-only open never creates or resizes the file"() {
+
+        setup:
+        HistoryConfiguration configuration = configuration()
+        File file = new File(configuration.path)
+
+        when:
+        new HistoryStore(configuration).openReadOnly()
+
+        then:
+        thrown(IOException)
+        !file.exists()
+
+        when:
+        HistoryStore store = new HistoryStore(configuration)
+        store.open()
+        store.append(measurements(1_700_000_000L, 1), "lpar_processor")
+        store.close()
+        long size = file.length()
+        HistoryConfiguration changed = configuration()
+        changed.maxSeries = 20
+        new HistoryStore(changed).openReadOnly()
+
+        then:
+        thrown(IOException)
+        file.length() == size
+
+        when:
+        HistoryStore reader = new HistoryStore(configuration)
+        reader.openReadOnly()
+
+        then:
+        reader.query("lpar_processor", "utilizedProcUnits", [:], 0, Long.MAX_VALUE).first().size() == 1
+
+        cleanup:
+        reader?.close()
+    }
+
+
+    void "test series without new data are not read past the retention"() {
+
+        setup:
+        HistoryStore store = new HistoryStore(configuration())
+        store.open()
+        store.append([ new Measurement(Instant.ofEpochSecond(1_700_000_000L), [ lparname: 'stopped' ], [ utilizedProcUnits: 1d ] as Map<String, Object>) ], "lpar_processor")
+        (0..<100).each { store.append(measurements(1_700_000_000L + (it * 60), it), "lpar_processor") }
+        Map<String, List<Measurement>> replayed = [:]
+
+        when:
+        List<HistoryStore.SeriesData> stopped = store.query("lpar_processor", null, [ lparname: 'stopped' ], 0, Long.MAX_VALUE)
+        store.replay(0, Long.MAX_VALUE, { name, list -> replayed.put(name, list) })
+
+        then:
+        stopped.first().size() == 0
+        replayed['lpar_processor'].every { it.tags['lparname'] != 'stopped' }
+        replayed['lpar_processor'].every { it.timestamp.epochSecond >= 1_700_000_000L + (99 * 60) - 3600 }
+
+        cleanup:
+        store.close()
+    }
+
+
+    void "test file size is predictable"() {
+
+        expect:
+        new HistoryStore(configuration()).getFileSize() == 4096 + 10 * (512 + 7 * 512)
+    }
+
+}
@@ -0,0 +1,152 @@
+package biz.nellemann.hmci
+
+import biz.nellemann.hmci.dto.toml.HmcConfiguration
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.time.Clock
+import java.time.Duration
+
+class HmcSimulatorTest extends Specification {
+
+    @Shared
+    private HmcSimulator simulator
+
+    @Shared
+    private ManagementConsole managementConsole
+
+    def setupSpec() {
+        simulator = new HmcSimulator(2, 3, 2, 2)
+        simulator.start("127.0.0.1", 0)
+        HmcConfiguration configuration = new HmcConfiguration()
+        configuration.url = String.format("http://127.0.0.1:%d", simulator.getPort())
+        configuration.username = "user"
+        configuration.password = "password"
+        configuration.trust = false
+        configuration.energy = false
+        managementConsole = new ManagementConsole(configuration, null)
+        managementConsole.restClient.login()
+        managementConsole.discover()
+    }
+
+    def cleanupSpec() {
+        managementConsole.logoff()
+        simulator.stop()
+    }
+
+    def setup() {
+        simulator.setErrorRate(0)
+        simulator.setClock(Clock.systemUTC())
+    }
+
+
+    void "test all systems, partitions and VIOS are discovered"() {
+
+        expect:
+        managementConsole.managedSystems.size() == 2
+        managementConsole.managedSystems.every { it.logicalPartitions.size() == 3 && it.virtualIOServers.size() == 2 }
+        managementConsole.managedSystems.first().name == 'Server-9080-HEX-SNSIM0001'
+        managementConsole.managedSystems.first().logicalPartitions.first().name == 'sim01-lpar0001'
+    }
+
+
+    void "test partition metrics are generated with adapters"() {
+
+        setup:
+        LogicalPartition partition = managementConsole.managedSystems.first().logicalPartitions.first()
+
+        when:
+        partition.refresh()
+
+        then:
+        partition.metric.samples.size() == 60
+        partition.getVirtualEthernetAdapterMetrics(0).size() == 2
+        partition.getVirtualFibreChannelAdapterMetrics(0).size() == 2
+        partition.getProcessorMetrics(0).first().fields['entitledProcUnits'] > 0
+    }
+
+
+    void "test newer samples are served as time advances"() {
+
+        setup:
+        LogicalPartition partition = managementConsole.managedSystems.first().logicalPartitions.first()
+        partition.refresh()
+        long newest = partition.metric.samples.last().epochSecond
+
+        when:
+        simulator.setClock(Clock.offset(Clock.systemUTC(), Duration.ofMinutes(5)))
+        partition.refresh()
+
+        then:
+        partition.metric.samples.last().epochSecond >= newest + 300
+    }
+
+
+    void "test partitions refreshed less often than every cycle do not skip samples"() {
+
+        setup:
+        List<Long> processed = Collections.synchronizedList([])
+        ManagedSystem system = managementConsole.managedSystems.last()
+        LogicalPartition partition = new LogicalPartition(managementConsole.restClient, null, system.logicalPartitions.last().uriPath, system) {
+            @Override
+            void process(int sample) {
+                processed.add(metric.getSample(sample).epochSecond)
+            }
+        }
+        partition.discover()
+
+        when:
+        (0..6).each { n ->      // A refresh every 5 minutes, as for a lower tier
+            Clock clock = Clock.offset(Clock.systemUTC(), Duration.ofMinutes(5 * n))
+            simulator.setClock(clock)
+            partition.clock = clock
+            partition.refresh()
+            partition.process()
+        }
+        List<Long> timestamps = processed.sort(false)
+
+        then:
+        timestamps.size() >= 60 + 6 * 10
+        timestamps.toSet().size() == timestamps.size()
+        (1..<timestamps.size()).every { timestamps[it] - timestamps[it - 1] == 30 }
+    }
+
+
+    void "test system metrics fetched async are decoded within the memory budget, off the OkHttp threads"() {
+
+        setup:
+        List<String> threads = Collections.synchronizedList([])
+        ManagedSystem discovered = managementConsole.managedSystems.first()
+        ManagedSystem system = new ManagedSystem(managementConsole.restClient, null, discovered.uriPath) {
+            @Override
+            void process(int sample) {
+                threads.add(Thread.currentThread().getName())
+            }
+        }
+        system.discover()
+        system.setMemoryBudget(new MemoryBudget(1))     // Smaller than any payload, so decoding is serialized
+        system.setResourceExecutor(new ResourceExecutor(false, 2))
+
+        when:
+        Thread refresh = Thread.start("refresh") { system.refreshSystem() }
+        refresh.join(10_000)
+
+        then:
+        !refresh.isAlive()
+        threads.size() == 60
+        threads.every { it == "refresh" }
+    }
+
+
+    void "test errors are injected"() {
+
+        when:
+        simulator.setErrorRate(1.0)
+        String xml = managementConsole.restClient.getRequest("/rest/api/pcm/ManagedSystem/" + managementConsole.managedSystems.first().id + "/ProcessedMetrics?NoOfSamples=1")
+
+        then:
+        xml == null
+        simulator.getErrors() >= 1
+    }
+
+}
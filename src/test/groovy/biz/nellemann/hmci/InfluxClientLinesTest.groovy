@@ -0,0 +1,36 @@
+package biz.nellemann.hmci
+
+import spock.lang.Specification
+
+class InfluxClientLinesTest extends Specification {
+
+    void "test lines are counted in written batches"() {
+
+        expect:
+        InfluxClient.countLines(lineProtocol) == lines
+
+        where:
+        lineProtocol                    | lines
+        null                            | 0
+        ""                              | 0
+        "cpu value=1 1"                 | 1
+        "cpu value=1 1\n"               | 1
+        "cpu value=1 1\nmem value=2 1"  | 2
+    }
+
+    void "test self-telemetry is not counted in written batches"() {
+
+        setup:
+        def lineProtocol = [
+            "cpu value=1 1",
+            "hmci_sink written=3i,submitted=3i 2",
+            "hmci_points,measurement=cpu points=1i 2",
+            "hmci_sinks value=1 3",
+            "mem value=2 4"
+        ].join("\n")
+
+        expect:
+        InfluxClient.countLines(lineProtocol) == 3
+    }
+
+}
@@ -0,0 +1,74 @@
+package biz.nellemann.hmci
+
+import spock.lang.Specification
+
+class LatencyHistogramTest extends Specification {
+
+    void "test percentiles are within the relative accuracy"() {
+
+        setup:
+        LatencyHistogram histogram = new LatencyHistogram()
+
+        when:
+        (1..10000).each { histogram.record(it) }
+        LatencyHistogram.Snapshot snapshot = histogram.drain()
+
+        then:
+        snapshot.count == 10000
+        snapshot.max == 10000
+        snapshot.mean() == 5000.5d
+        Math.abs(snapshot.percentile(0.5) - 5000) <= 5000 * 0.02
+        Math.abs(snapshot.percentile(0.99) - 9900) <= 9900 * 0.02
+        snapshot.percentile(1.0) == 10000
+    }
+
+
+    void "test small values are near exact"() {
+
+        setup:
+        LatencyHistogram histogram = new LatencyHistogram()
+
+        when:
+        histogram.record(value)
+
+        then:
+        histogram.drain().percentile(0.5) == value
+
+        where:
+        value << [ 0, 1, 7, 15, 16, 31 ]
+    }
+
+
+    void "test concurrent records are all counted"() {
+
+        setup:
+        LatencyHistogram histogram = new LatencyHistogram()
+
+        when:
+        List<Thread> threads = (1..4).collect { Thread.start { (1..5000).each { histogram.record(it) } } }
+        threads*.join()
+        LatencyHistogram.Snapshot snapshot = histogram.drain()
+
+        then:
+        snapshot.count == 20000
+        snapshot.sum == 4 * (5000L * 5001 / 2)
+    }
+
+
+    void "test drain resets the histogram"() {
+
+        setup:
+        LatencyHistogram histogram = new LatencyHistogram()
+        histogram.record(100)
+
+        when:
+        histogram.drain()
+        LatencyHistogram.Snapshot snapshot = histogram.drain()
+
+        then:
+        snapshot.count == 0
+        snapshot.max == 0
+        snapshot.percentile(0.5) == 0
+    }
+
+}
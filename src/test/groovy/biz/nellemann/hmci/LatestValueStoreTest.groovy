@@ -0,0 +1,94 @@
+package biz.nellemann.hmci
+
+import biz.nellemann.hmci.dto.toml.ApiConfiguration
+import com.fasterxml.jackson.databind.ObjectMapper
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.time.Instant
+
+class LatestValueStoreTest extends Specification {
+
+    @Shared
+    private LatestValueStore store
+
+    @Shared
+    private ApiServer apiServer
+
+    def setupSpec() {
+        ManagedSystem system = new ManagedSystem(null, null, "https://localhost:12443/rest/api/uom/ManagedSystem/b597e4da-2aab-3f52-8616-341d62153559")
+        system.id = "b597e4da-2aab-3f52-8616-341d62153559"
+        system.name = "Server-9009-42A-SN21F64EV"
+
+        LogicalPartition partition = new LogicalPartition(null, null, "https://localhost:12443/rest/api/uom/LogicalPartition/2DE05DB6-8AD5-448F-8327-0F488D287E82", system)
+        partition.id = "2DE05DB6-8AD5-448F-8327-0F488D287E82"
+        partition.name = "rhel8-ocp-helper"
+        system.logicalPartitions.add(partition)
+
+        store = new LatestValueStore()
+        store.register(system)
+
+        ApiConfiguration configuration = new ApiConfiguration()
+        configuration.port = 0
+        apiServer = new ApiServer(configuration, store)
+        apiServer.start()
+    }
+
+    def cleanupSpec() {
+        apiServer.stop()
+    }
+
+
+    void "test latest value is kept per resource and measurement"() {
+
+        setup:
+        Map<String, String> tags = [ servername: 'Server-9009-42A-SN21F64EV', lparname: 'rhel8-ocp-helper' ]
+
+        when:
+        store.update([ new Measurement(Instant.ofEpochSecond(1060), tags, [ utilizedProcUnits: 0.5d ] as Map<String, Object>) ], "lpar_processor")
+        store.update([ new Measurement(Instant.ofEpochSecond(1030), tags, [ utilizedProcUnits: 0.1d ] as Map<String, Object>) ], "lpar_processor")
+
+        then:
+        store.get("2DE05DB6-8AD5-448F-8327-0F488D287E82").measurements.get("lpar_processor").measurements.first().fields['utilizedProcUnits'] == 0.5d
+    }
+
+
+    void "test system measurements and unknown systems"() {
+
+        when:
+        store.update([ new Measurement(Instant.ofEpochSecond(1060), [ servername: 'Server-9009-42A-SN21F64EV' ], [ totalProcUnits: 8.0d ] as Map<String, Object>) ], "server_processor")
+        store.update([ new Measurement(Instant.ofEpochSecond(1060), [ servername: 'unknown' ], [ totalProcUnits: 8.0d ] as Map<String, Object>) ], "server_processor")
+
+        then:
+        store.getSystem("Server-9009-42A-SN21F64EV").measurements.containsKey("server_processor")
+        store.getSystems().size() == 1
+    }
+
+
+    void "test API query by system and type"() {
+
+        setup:
+        store.update([ new Measurement(Instant.ofEpochSecond(1090), [ servername: 'Server-9009-42A-SN21F64EV', lparname: 'rhel8-ocp-helper' ], [ logicalMem: 8192.0d ] as Map<String, Object>) ], "lpar_memory")
+
+        when:
+        URL url = new URL("http://127.0.0.1:${apiServer.getPort()}/api/v1/resources?system=Server-9009-42A-SN21F64EV&type=lpar&measurement=lpar_memory")
+        def json = new ObjectMapper().readValue(url.getText('UTF-8'), List.class)
+
+        then:
+        json.size() == 1
+        json.first().id == "2DE05DB6-8AD5-448F-8327-0F488D287E82"
+        json.first().measurements.keySet() == [ 'lpar_memory' ] as Set
+        json.first().measurements.lpar_memory.first().fields.logicalMem == 8192.0d
+    }
+
+
+    void "test API returns 404 for unknown resource"() {
+
+        when:
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:${apiServer.getPort()}/api/v1/resources/nope").openConnection()
+
+        then:
+        connection.getResponseCode() == 404
+    }
+
+}
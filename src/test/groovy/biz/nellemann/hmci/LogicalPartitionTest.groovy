@@ -96,6 +96,47 @@ class LogicalPartitionTest extends Specification {
     }
 
 
+    void "test only the partition sub-tree is bound"() {
+        when:
+        logicalPartition.deserialize(metricsFile.getText('UTF-8'))
+
+        then:
+        logicalPartition.metric.getSample().@lparsUtil != null
+        logicalPartition.metric.getSample().@serverUtil == null
+        logicalPartition.metric.getSample().@energyUtil == null
+        logicalPartition.metric.getSample().@viosUtil == null
+        logicalPartition.metric.getSample().viosUtil.isEmpty()
+        logicalPartition.metric.getSample().serverUtil.processor.totalProcUnits == 0.0
+    }
+
+
+    void "test null values from the HMC are left out, not written as zero"() {
+
+        setup:
+        String json = metricsFile.getText('UTF-8')
+            .replaceFirst(/"utilizedProcUnits": \[\s*[0-9.]+\s*\]/, '"utilizedProcUnits": [ null ]')
+            .replaceFirst(/"donatedProcUnits": \[\s*[0-9.]+\s*\]/, '"donatedProcUnits": null')
+
+        when:
+        logicalPartition.deserialize(json)
+        List<Measurement> listOfMeasurements = logicalPartition.getProcessorMetrics(0)
+
+        then:
+        listOfMeasurements.first().fields['utilizedProcUnits'] == null
+        listOfMeasurements.first().fields['donatedProcUnits'] == null
+        listOfMeasurements.first().fields['idleProcUnits'] == 0.00482
+    }
+
+
+    void "test missing sub-trees are not shared between samples"() {
+        when:
+        logicalPartition.deserialize(metricsFile.getText('UTF-8'))
+
+        then:
+        !logicalPartition.metric.getSample(0).getServerUtil().is(logicalPartition.metric.getSample(1).getServerUtil())
+    }
+
+
     void "test getDetails"() {
 
         when:
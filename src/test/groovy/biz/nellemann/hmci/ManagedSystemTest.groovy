@@ -2,12 +2,17 @@ package biz.nellemann.hmci
 
 import org.mockserver.integration.ClientAndServer
 import org.mockserver.logging.MockServerLogger
+import org.mockserver.model.HttpError
+import org.mockserver.model.HttpRequest
+import org.mockserver.model.HttpResponse
+import org.mockserver.model.MediaType
 import org.mockserver.socket.PortFactory
 import org.mockserver.socket.tls.KeyStoreFactory
 import spock.lang.Shared
 import spock.lang.Specification
 
 import javax.net.ssl.HttpsURLConnection
+import java.util.concurrent.TimeUnit
 
 class ManagedSystemTest extends Specification {
 
@@ -113,5 +118,23 @@ class ManagedSystemTest extends Specification {
     }
 
 
-}
+    void "test a failing JSON link does not lose the other links"() {
+
+        setup:
+        String feed = new File(getClass().getResource('/processed-metrics.xml').toURI()).getText('UTF-8')
+        String entry = feed.substring(feed.indexOf("<entry>"), feed.indexOf("</entry>") + "</entry>".length())
+        String xml = feed.replace(entry, entry + entry.replace("_30.json", "_30-failing.json"))
+        mockServer.when(HttpRequest.request().withMethod("GET").withPath("/rest/api/pcm/ProcessedMetrics/ManagedSystem_.*_30-failing\\.json"))
+            .error(HttpError.error().withDropConnection(true))
+        mockServer.when(HttpRequest.request().withMethod("GET").withPath("/rest/api/pcm/ProcessedMetrics/ManagedSystem_.*_30\\.json"))
+            .respond(HttpResponse.response().withStatusCode(200).withBody(metricsFile.getText('UTF-8'), MediaType.APPLICATION_JSON_UTF_8))
+
+        when:
+        List<String> fetched = managedSystem.fetchMetrics(xml).get(10, TimeUnit.SECONDS)
 
+        then:
+        fetched.size() == 1
+        fetched.first() == metricsFile.getText('UTF-8')
+    }
+
+}
@@ -0,0 +1,79 @@
+package biz.nellemann.hmci
+
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class MemoryBudgetTest extends Specification {
+
+    void "test decodes wait until they fit within the budget"() {
+
+        setup:
+        MemoryBudget budget = new MemoryBudget(1000)
+        long first = budget.acquire(600)
+        CountDownLatch acquired = new CountDownLatch(1)
+
+        when:
+        Thread.start {
+            budget.acquire(600)
+            acquired.countDown()
+        }
+
+        then:
+        !acquired.await(200, TimeUnit.MILLISECONDS)
+
+        when:
+        budget.release(first)
+
+        then:
+        acquired.await(5, TimeUnit.SECONDS)
+        budget.getUsed() == 600
+    }
+
+
+    void "test payload larger than the budget is decoded alone"() {
+
+        setup:
+        MemoryBudget budget = new MemoryBudget(1000)
+
+        when:
+        long reserved = budget.acquire(5000)
+
+        then:
+        reserved == 1000
+        budget.getUsed() == 1000
+
+        when:
+        budget.release(reserved)
+
+        then:
+        budget.getUsed() == 0
+    }
+
+
+    void "test samples are processed and released right after decode"() {
+
+        setup:
+        List<Integer> processed = []
+        Resource resource = new Resource() {
+            @Override
+            void process(int sample) {
+                processed.add(sample)
+            }
+        }
+        MemoryBudget budget = new MemoryBudget(1024 * 1024)
+        resource.setMemoryBudget(budget)
+        def testFile = new File(getClass().getResource('/3-logical-partition-perf-data.json').toURI())
+
+        when:
+        resource.deserialize(testFile.getText('UTF-8'))
+
+        then:
+        processed.size() == 6
+        resource.metric == null
+        resource.getOldestSample() > 0
+        budget.getUsed() == 0
+    }
+
+}
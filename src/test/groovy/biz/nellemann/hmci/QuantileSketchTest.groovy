@@ -0,0 +1,128 @@
+package biz.nellemann.hmci
+
+import biz.nellemann.hmci.dto.toml.QuantileConfiguration
+import spock.lang.Specification
+
+import java.time.Instant
+
+class QuantileSketchTest extends Specification {
+
+    void "test quantiles are within relative accuracy"() {
+
+        setup:
+        QuantileSketch sketch = new QuantileSketch(0.01, 1024)
+
+        when:
+        (1..10000).each { sketch.add(it as double) }
+
+        then:
+        sketch.getCount() == 10000
+        Math.abs(sketch.getValueAtQuantile(0.5) - 5000) / 5000 <= 0.01
+        Math.abs(sketch.getValueAtQuantile(0.95) - 9500) / 9500 <= 0.01
+        Math.abs(sketch.getValueAtQuantile(0.99) - 9900) / 9900 <= 0.01
+        sketch.getMin() == 1.0
+        sketch.getMax() == 10000.0
+    }
+
+    void "test zero values"() {
+
+        setup:
+        QuantileSketch sketch = new QuantileSketch(0.01, 1024)
+
+        when:
+        (1..90).each { sketch.add(0.0) }
+        (1..10).each { sketch.add(2.0) }
+
+        then:
+        sketch.getValueAtQuantile(0.5) == 0.0
+        Math.abs(sketch.getValueAtQuantile(0.99) - 2.0) <= 0.02
+    }
+
+    void "test buckets are bounded"() {
+
+        setup:
+        QuantileSketch sketch = new QuantileSketch(0.01, 128)
+
+        when:
+        (0..100).each { sketch.add(Math.pow(10, it / 5.0)) }
+
+        then:
+        sketch.getBinCount() <= 128
+        sketch.getCount() == 101
+        Math.abs(sketch.getValueAtQuantile(1.0) - 1e20) / 1e20 <= 0.01
+    }
+
+    void "test merge and serialization"() {
+
+        setup:
+        QuantileSketch a = new QuantileSketch(0.01, 1024)
+        QuantileSketch b = new QuantileSketch(0.01, 1024)
+        (1..500).each { a.add(it as double) }
+        (501..1000).each { b.add(it as double) }
+
+        when:
+        QuantileSketch merged = QuantileSketch.deserialize(a.serialize())
+        merged.merge(QuantileSketch.deserialize(b.serialize()))
+
+        then:
+        merged.getCount() == 1000
+        Math.abs(merged.getValueAtQuantile(0.9) - 900) / 900 <= 0.01
+    }
+
+    void "test aggregator emits quantiles when window closes"() {
+
+        setup:
+        QuantileConfiguration configuration = new QuantileConfiguration()
+        configuration.window = 300
+        QuantileAggregator aggregator = new QuantileAggregator(configuration)
+        Map<String, String> tags = [ servername: 'sys1', lparname: 'lpar1' ]
+
+        when:
+        (0..9).each {
+            aggregator.record([ new Measurement(Instant.ofEpochSecond(600 + (it * 30)), tags, [ utilizedProcUnits: (it as double), mode: 'uncap' ] as Map<String, Object>) ], "lpar_processor")
+        }
+        def beforeClose = aggregator.drain()
+        aggregator.record([ new Measurement(Instant.ofEpochSecond(900), tags, [ utilizedProcUnits: 1.0d ] as Map<String, Object>) ], "lpar_processor")
+        def afterClose = aggregator.drain()
+
+        then:
+        beforeClose.isEmpty()
+        afterClose.get("lpar_processor_quantiles").size() == 1
+        afterClose.get("lpar_processor_quantiles").first().timestamp == Instant.ofEpochSecond(600)
+        afterClose.get("lpar_processor_quantiles").first().tags['field'] == 'utilizedProcUnits'
+        afterClose.get("lpar_processor_quantiles").first().fields['count'] == 10
+        afterClose.get("lpar_processor_quantiles").first().fields['max'] == 9.0d
+    }
+
+    void "test aggregator does not lose samples to idle series being expired"() {
+
+        setup:
+        QuantileConfiguration configuration = new QuantileConfiguration()
+        configuration.window = 60
+        QuantileAggregator aggregator = new QuantileAggregator(configuration)
+        Map<String, String> tags = [ servername: 'sys1', lparname: 'lpar1' ]
+        int samples = 100000
+        List<Measurement> emitted = Collections.synchronizedList(new ArrayList<>())
+        Thread recorder = new Thread({
+            (1..samples).each {
+                aggregator.record([ new Measurement(Instant.ofEpochSecond(0), tags, [ utilizedProcUnits: 1.0d ] as Map<String, Object>) ], "lpar_processor")
+            }
+        })
+
+        when:
+        recorder.start()
+        long clock = 0
+        while(recorder.isAlive()) {
+            clock += 180
+            aggregator.record([ new Measurement(Instant.ofEpochSecond(clock), [ servername: 'clock' ], [ utilizedProcUnits: 1.0d ] as Map<String, Object>) ], "clock")
+            emitted.addAll(aggregator.drain().getOrDefault("lpar_processor_quantiles", []))
+        }
+        recorder.join()
+        aggregator.record([ new Measurement(Instant.ofEpochSecond(clock + 1000), [ servername: 'clock' ], [ utilizedProcUnits: 1.0d ] as Map<String, Object>) ], "clock")
+        emitted.addAll(aggregator.drain().getOrDefault("lpar_processor_quantiles", []))
+
+        then:
+        emitted.sum { it.fields['count'] as long } == samples
+    }
+
+}
@@ -0,0 +1,98 @@
+package biz.nellemann.hmci
+
+import spock.lang.Specification
+
+class RefreshQueueTest extends Specification {
+
+    private ManagedSystem system
+    private List<LogicalPartition> partitions = []
+
+    def setup() {
+        system = new ManagedSystem(null, null, "https://localhost:12443/rest/api/uom/ManagedSystem/b597e4da-2aab-3f52-8616-341d62153559")
+        system.id = "b597e4da-2aab-3f52-8616-341d62153559"
+        system.name = "Server-9009-42A-SN21F64EV"
+        (1..4).each { n ->
+            LogicalPartition partition = new LogicalPartition(null, null, "https://localhost:12443/rest/api/uom/LogicalPartition/${n}", system)
+            partition.id = "${n}"
+            partition.name = "lpar-${n}"
+            partitions.add(partition)
+        }
+    }
+
+
+    private List<RefreshQueue.Item> candidates(Map<String, Integer> priorities = [:]) {
+        partitions.collect { partition ->
+            new RefreshQueue.Item(system, partition, priorities.getOrDefault(partition.name, 0), true)
+        }
+    }
+
+
+    void "test work is ordered by priority, then by staleness"() {
+
+        setup:
+        RefreshQueue refreshQueue = new RefreshQueue(3)
+        List<RefreshQueue.Item> first = refreshQueue.plan(candidates())
+        first.each { refreshQueue.done(it, 100) }
+        refreshQueue.done(first.find { it.partition.name == 'lpar-1' }, 50)
+
+        when:
+        List<RefreshQueue.Item> plan = refreshQueue.plan(candidates(['lpar-4': 10]))
+
+        then:
+        plan*.partition*.name.take(2) == [ 'lpar-4', 'lpar-1' ]
+        plan.size() == 4
+    }
+
+
+    void "test work carried over is planned in the next cycle, even when not due"() {
+
+        setup:
+        RefreshQueue refreshQueue = new RefreshQueue(3)
+        List<RefreshQueue.Item> first = refreshQueue.plan(candidates())
+        refreshQueue.carry(first[0])
+
+        when:
+        List<RefreshQueue.Item> plan = refreshQueue.plan(partitions.collect { new RefreshQueue.Item(system, it, 0, false) })
+
+        then:
+        plan.size() == 1
+        plan[0].key == first[0].key
+        !plan[0].forced
+    }
+
+
+    void "test resources skipped too many times are forced ahead of higher priority work"() {
+
+        setup:
+        RefreshQueue refreshQueue = new RefreshQueue(2)
+        Map<String, Integer> priorities = ['lpar-1': 5, 'lpar-2': 5, 'lpar-3': 5]
+        2.times {
+            refreshQueue.plan(candidates(priorities)).each { item ->
+                item.partition.name == 'lpar-4' ? refreshQueue.carry(item) : refreshQueue.done(item, 100)
+            }
+        }
+
+        when:
+        List<RefreshQueue.Item> plan = refreshQueue.plan(candidates(priorities))
+
+        then:
+        plan[0].partition.name == 'lpar-4'
+        plan[0].forced
+    }
+
+
+    void "test resources which are gone are forgotten"() {
+
+        setup:
+        RefreshQueue refreshQueue = new RefreshQueue(3)
+        refreshQueue.plan(candidates()).each { refreshQueue.carry(it) }
+
+        when:
+        partitions.remove(0)
+        List<RefreshQueue.Item> plan = refreshQueue.plan(candidates())
+
+        then:
+        plan.size() == 3
+    }
+
+}
@@ -0,0 +1,68 @@
+package biz.nellemann.hmci
+
+import biz.nellemann.hmci.dto.toml.TierConfiguration
+import spock.lang.Specification
+
+class RefreshTiersTest extends Specification {
+
+    private ManagedSystem system
+    private List<LogicalPartition> partitions = []
+
+    def setup() {
+        system = new ManagedSystem(null, null, "https://localhost:12443/rest/api/uom/ManagedSystem/b597e4da-2aab-3f52-8616-341d62153559")
+        system.name = "Server-9009-42A-SN21F64EV"
+        (1..20).each { n ->
+            LogicalPartition partition = new LogicalPartition(null, null, "https://localhost:12443/rest/api/uom/LogicalPartition/${n}", system)
+            partition.name = "dev-${n}"
+            partitions.add(partition)
+        }
+        LogicalPartition production = new LogicalPartition(null, null, "https://localhost:12443/rest/api/uom/LogicalPartition/prod", system)
+        production.name = "prod-db1"
+        partitions.add(production)
+    }
+
+
+    void "test lower tier refreshes are spread evenly across cycles"() {
+
+        setup:
+        TierConfiguration dev = new TierConfiguration()
+        dev.name = "dev"
+        dev.refresh = 300
+        dev.partitions = [ 'dev-.*' ]
+        RefreshTiers refreshTiers = new RefreshTiers(30, [ dev ])
+        Map<String, Integer> refreshed = [:]
+        List<Integer> perCycle = []
+
+        when:
+        10.times {
+            int due = 0
+            partitions.each { partition ->
+                if(refreshTiers.isDue(system, partition)) {
+                    refreshed.merge(partition.name, 1, Integer::sum)
+                    due++
+                }
+            }
+            perCycle.add(due)
+            refreshTiers.nextCycle()
+        }
+
+        then:
+        refreshed['prod-db1'] == 10
+        refreshed.findAll { k, v -> k.startsWith('dev-') }.values().every { it == 1 }
+        perCycle.every { it == 3 }      // prod-db1 + 2 of the 20 dev partitions
+    }
+
+
+    void "test resources without a tier are refreshed every cycle"() {
+
+        setup:
+        RefreshTiers refreshTiers = new RefreshTiers(30, [])
+
+        expect:
+        (1..5).every {
+            refreshTiers.nextCycle()
+            refreshTiers.isDue(system) && refreshTiers.isDue(system, partitions.first())
+        }
+    }
+
+}
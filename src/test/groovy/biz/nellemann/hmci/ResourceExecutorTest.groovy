@@ -0,0 +1,48 @@
+package biz.nellemann.hmci
+
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentLinkedQueue
+
+class ResourceExecutorTest extends Specification {
+
+    void "test all tasks complete even if some fail"() {
+
+        setup:
+        ResourceExecutor executor = new ResourceExecutor(false, 2)
+        Queue<Integer> completed = new ConcurrentLinkedQueue<>()
+        List<Runnable> tasks = (1..10).collect { n ->
+            ({ ->
+                if(n == 5) {
+                    throw new IllegalStateException("task fails")
+                }
+                completed.add(n)
+            } as Runnable)
+        }
+
+        when:
+        executor.invokeAll(tasks)
+
+        then:
+        !executor.isVirtual()
+        completed.size() == 9
+        !completed.contains(5)
+
+        cleanup:
+        executor.shutdown()
+    }
+
+
+    void "test virtual threads are used when the JVM has them"() {
+
+        setup:
+        ResourceExecutor executor = new ResourceExecutor(true, 2)
+
+        expect:
+        executor.isVirtual() == (ResourceExecutor.newVirtualThreadPerTaskExecutor() != null)
+
+        cleanup:
+        executor.shutdown()
+    }
+
+}
@@ -1,5 +1,7 @@
 package biz.nellemann.hmci;
 
+import biz.nellemann.hmci.dto.xml.LogonResponse
+import biz.nellemann.hmci.dto.xml.XmlEntry
 import org.mockserver.integration.ClientAndServer
 import org.mockserver.logging.MockServerLogger
 import org.mockserver.model.Header
@@ -8,11 +10,13 @@ import org.mockserver.model.HttpResponse
 import org.mockserver.model.MediaType
 import org.mockserver.socket.PortFactory
 import org.mockserver.socket.tls.KeyStoreFactory
+import org.mockserver.verify.VerificationTimes
 import spock.lang.Shared
 import spock.lang.Specification
 import spock.lang.Stepwise
 
 import javax.net.ssl.HttpsURLConnection
+import java.util.concurrent.CompletableFuture
 import java.util.concurrent.TimeUnit
 
 @Stepwise
@@ -137,6 +141,193 @@ class RestClientTest extends Specification {
     }
 
 
+    def "Test UOM document is not parsed again when not modified"() {
+        setup:
+        def responseFile = new File(getClass().getResource('/2-managed-system.xml').toURI())
+        def conditional = HttpRequest.request()
+            .withMethod("GET")
+            .withPath("/rest/api/uom/ManagedSystem/etag")
+            .withHeader("If-None-Match", '"v1"')
+        mockServer.when(conditional).respond(HttpResponse.response().withStatusCode(304))
+        mockServer.when(HttpRequest.request().withMethod("GET").withPath("/rest/api/uom/ManagedSystem/etag"))
+            .respond(HttpResponse.response()
+                .withStatusCode(200)
+                .withHeader("ETag", '"v1"')
+                .withBody(responseFile.getText('UTF-8'), MediaType.XML_UTF_8))
+
+        when:
+        def first = serviceClient.getXml("/rest/api/uom/ManagedSystem/etag", XmlEntry.class)
+        def second = serviceClient.getXml("/rest/api/uom/ManagedSystem/etag", XmlEntry.class)
+
+        then:
+        first.id == "b597e4da-2aab-3f52-8616-341d62153559"
+        second.is(first)
+        mockServer.verify(conditional, VerificationTimes.exactly(1))
+    }
+
+
+    def "Test UOM document without ETag is not parsed again when content is the same"() {
+        setup:
+        def responseFile = new File(getClass().getResource('/2-managed-system.xml').toURI())
+        mockServer.when(HttpRequest.request().withMethod("GET").withPath("/rest/api/uom/ManagedSystem/hash"))
+            .respond(HttpResponse.response()
+                .withStatusCode(200)
+                .withBody(responseFile.getText('UTF-8'), MediaType.XML_UTF_8))
+
+        when:
+        def first = serviceClient.getXml("/rest/api/uom/ManagedSystem/hash", XmlEntry.class)
+        def second = serviceClient.getXml("/rest/api/uom/ManagedSystem/hash", XmlEntry.class)
+
+        then:
+        first != null
+        second.is(first)
+    }
+
+
+    def "Test asynchronous GET Request"() {
+        setup:
+        def req = HttpRequest.request()
+            .withMethod("GET")
+            .withPath("/test/async")
+        def res = HttpResponse.response()
+            .withDelay(TimeUnit.SECONDS, 1)
+            .withStatusCode(200)
+            .withHeaders(
+                new Header("Content-Type", "text/plain"),
+            )
+            .withBody("myAsyncData", MediaType.TEXT_PLAIN)
+        mockServer.when(req).respond(res)
+
+        when:
+        CompletableFuture<String> future = serviceClient.getAsync("/test/async")
+
+        then:
+        !future.isDone()
+        future.get(5, TimeUnit.SECONDS) == "myAsyncData"
+    }
+
+
+    def "Test asynchronous GET Request is cancelled"() {
+        setup:
+        def req = HttpRequest.request()
+            .withMethod("GET")
+            .withPath("/test/slow")
+        def res = HttpResponse.response()
+            .withDelay(TimeUnit.SECONDS, 10)
+            .withStatusCode(200)
+            .withBody("tooLate", MediaType.TEXT_PLAIN)
+        mockServer.when(req).respond(res)
+
+        when:
+        CompletableFuture<String> future = serviceClient.getAsync("/test/slow")
+        long deadline = System.currentTimeMillis() + 5000
+        while(mockServer.retrieveRecordedRequests(req).length == 0 && System.currentTimeMillis() < deadline) {
+            sleep(50)
+        }
+        int running = serviceClient.httpClient.dispatcher().runningCallsCount()
+        future.cancel(true)
+        while(serviceClient.httpClient.dispatcher().runningCallsCount() > 0 && System.currentTimeMillis() < deadline) {
+            sleep(50)
+        }
+
+        then:
+        future.isCancelled()
+        running >= 1
+        serviceClient.httpClient.dispatcher().runningCallsCount() == 0     // Aborted, long before the response is sent
+    }
+
+
+    def "Test asynchronous GET Requests share one login, without blocking the caller"() {
+        setup:
+        def responseFile = new File(getClass().getResource('/hmc-logon-response.xml').toURI())
+        String token = Codec.readXml(responseFile.getText('UTF-8'), LogonResponse).getToken()
+        def logon = HttpRequest.request()
+            .withMethod("PUT")
+            .withPath("/rest/api/web/Logon")
+        mockServer.when(logon).respond(HttpResponse.response()
+            .withDelay(TimeUnit.SECONDS, 1)
+            .withStatusCode(200)
+            .withBody(responseFile.getText('UTF-8'), MediaType.XML_UTF_8))
+        mockServer.when(HttpRequest.request().withMethod("GET").withPath("/test/auth").withHeader("X-API-Session", token))
+            .respond(HttpResponse.response().withStatusCode(200).withBody("authenticated", MediaType.TEXT_PLAIN))
+        mockServer.when(HttpRequest.request().withMethod("GET").withPath("/test/auth"))
+            .respond(HttpResponse.response().withStatusCode(401))
+        RestClient asyncClient = new RestClient(String.format("http://localhost:%d", mockServer.getPort()), "user", "password", true)
+
+        when:
+        long start = System.currentTimeMillis()
+        List<CompletableFuture<String>> futures = (1..3).collect { asyncClient.getAsync("/test/auth") }
+        long elapsed = System.currentTimeMillis() - start
+
+        then:
+        elapsed < 1000      // The login is delayed by a second, and not waited for
+        futures.every { it.get(5, TimeUnit.SECONDS) == "authenticated" }
+        mockServer.verify(logon, VerificationTimes.exactly(1))
+
+        cleanup:
+        asyncClient.logoff()
+    }
+
+
+    def "Test HMC session is renewed in the background"() {
+        setup:
+        def responseFile = new File(getClass().getResource('/hmc-logon-response.xml').toURI())
+        def logon = HttpRequest.request()
+            .withMethod("PUT")
+            .withPath("/rest/api/web/Logon")
+        def logoff = HttpRequest.request()
+            .withMethod("DELETE")
+            .withPath("/rest/api/web/Logon")
+        mockServer.when(logon).respond(HttpResponse.response()
+            .withStatusCode(200)
+            .withBody(responseFile.getText('UTF-8'), MediaType.XML_UTF_8))
+        RestClient renewingClient = new RestClient(String.format("http://localhost:%d", mockServer.getPort()), "user", "password", true)
+        renewingClient.setSessionLifetime(2)
+
+        when:
+        renewingClient.login()
+        Thread.sleep(2500)
+
+        then:
+        renewingClient.authToken != null
+        mockServer.verify(logon, VerificationTimes.atLeast(2))
+        mockServer.verify(logoff, VerificationTimes.exactly(0))     // Old session is kept while requests may use it
+
+        cleanup:
+        renewingClient.logoff()
+    }
+
+
+    def "Test HMC session pool logs in and off all sessions"() {
+        setup:
+        def responseFile = new File(getClass().getResource('/hmc-logon-response.xml').toURI())
+        def logon = HttpRequest.request()
+            .withMethod("PUT")
+            .withPath("/rest/api/web/Logon")
+        def logoff = HttpRequest.request()
+            .withMethod("DELETE")
+            .withPath("/rest/api/web/Logon")
+        mockServer.when(logon).respond(HttpResponse.response()
+            .withStatusCode(200)
+            .withBody(responseFile.getText('UTF-8'), MediaType.XML_UTF_8))
+        mockServer.when(HttpRequest.request().withMethod("GET").withPath("/test/pool"))
+            .respond(HttpResponse.response().withStatusCode(200).withBody("pooled", MediaType.TEXT_PLAIN))
+        RestClient pooledClient = new RestClient(String.format("http://localhost:%d", mockServer.getPort()), "user", "password", true)
+        pooledClient.setSessions(3)
+
+        when:
+        pooledClient.login()
+        List<String> responses = (1..6).collect { pooledClient.getRequest("/test/pool") }
+        pooledClient.logoff()
+
+        then:
+        responses.every { it == "pooled" }
+        mockServer.verify(logon, VerificationTimes.exactly(3))
+        mockServer.verify(logoff, VerificationTimes.exactly(3))
+        pooledClient.authToken == null
+    }
+
+
     def "Test HMC Logoff"() {
         when:
         serviceClient.logoff()
@@ -0,0 +1,43 @@
+package biz.nellemann.hmci
+
+import biz.nellemann.hmci.dto.toml.HmcConfiguration
+import biz.nellemann.hmci.dto.toml.SchedulerConfiguration
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class SchedulerTest extends Specification {
+
+    void "test cycles keep running at a fixed rate after errors"() {
+
+        setup:
+        SchedulerConfiguration configuration = new SchedulerConfiguration()
+        configuration.threads = 1
+        configuration.jitter = 0
+        Scheduler scheduler = new Scheduler(configuration)
+        AtomicInteger cycles = new AtomicInteger()
+        CountDownLatch threeCycles = new CountDownLatch(3)
+
+        ManagementConsole managementConsole = new ManagementConsole(new HmcConfiguration(), null) {
+            @Override
+            void cycle() {
+                threeCycles.countDown()
+                if(cycles.incrementAndGet() == 1) {
+                    throw new IllegalStateException("first cycle fails")
+                }
+            }
+        }
+
+        when:
+        scheduler.schedule("test", managementConsole, 1)
+        boolean completed = threeCycles.await(30, TimeUnit.SECONDS)
+        scheduler.shutdown()
+
+        then:
+        completed
+        cycles.get() >= 3
+    }
+
+}
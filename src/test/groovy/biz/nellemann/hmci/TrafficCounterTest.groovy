@@ -0,0 +1,127 @@
+package biz.nellemann.hmci
+
+import com.sun.net.httpserver.HttpServer
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.GZIPOutputStream
+
+class TrafficCounterTest extends Specification {
+
+    @Shared
+    private HttpServer httpServer
+
+    @Shared
+    private String json = new File(getClass().getResource('/2-managed-system-perf-data2.json').toURI()).getText('UTF-8')
+
+    @Shared
+    private List<String> acceptEncodings = Collections.synchronizedList([])
+
+
+    def setupSpec() {
+        httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0)
+        httpServer.createContext("/rest/api/web/Logon") { exchange ->
+            exchange.sendResponseHeaders(401, -1)
+            exchange.close()
+        }
+        httpServer.createContext("/rest/api/pcm/") { exchange ->
+            String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding")
+            acceptEncodings.add(accept)
+            byte[] bytes = json.getBytes(StandardCharsets.UTF_8)
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream()
+            if(accept?.contains("gzip") && exchange.getRequestURI().getPath().contains("gzip")) {
+                new GZIPOutputStream(encoded).withCloseable { it.write(bytes) }
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip")
+            } else if(accept?.contains("deflate") && exchange.getRequestURI().getPath().contains("deflate")) {
+                new DeflaterOutputStream(encoded).withCloseable { it.write(bytes) }
+                exchange.getResponseHeaders().set("Content-Encoding", "deflate")
+            } else {
+                encoded.write(bytes)
+            }
+            exchange.sendResponseHeaders(200, encoded.size())
+            exchange.getResponseBody().withCloseable { it.write(encoded.toByteArray()) }
+        }
+        httpServer.start()
+    }
+
+    def cleanupSpec() {
+        httpServer.stop(0)
+    }
+
+    def setup() {
+        acceptEncodings.clear()
+    }
+
+
+    private RestClient restClient(boolean compression) {
+        RestClient restClient = new RestClient("http://127.0.0.1:${httpServer.getAddress().getPort()}", "user", "password", false)
+        restClient.setTrafficCounter(new TrafficCounter(compression))
+        return restClient
+    }
+
+
+    void "test endpoint class replaces id's and file names"() {
+        expect:
+        TrafficCounter.endpointClass("/rest/api/pcm/ManagedSystem/b597e4da-2aab-3f52-8616-341d62153559/LogicalPartition/2DE05DB6-8AD5-448F-8327-0F488D287E82/ProcessedMetrics") == "/rest/api/pcm/ManagedSystem/*/LogicalPartition/*/ProcessedMetrics"
+        TrafficCounter.endpointClass("/rest/api/pcm/ProcessedMetrics/ManagedSystem_b597e4da_20221202T134000+0100_30.json") == "/rest/api/pcm/ProcessedMetrics/*"
+        TrafficCounter.endpointClass("/rest/api/uom/ManagementConsole") == "/rest/api/uom/ManagementConsole"
+    }
+
+
+    void "test compressed responses are decoded and counted"() {
+
+        setup:
+        RestClient restClient = restClient(true)
+
+        when:
+        String response = restClient.getRequest("/rest/api/pcm/${encoding}/data.json")
+        long[] counts = restClient.getTrafficCounter().drain().get("/rest/api/pcm/${encoding}/*".toString())
+
+        then:
+        response == json
+        acceptEncodings.last() == "gzip, deflate"
+        counts[0] == 1
+        counts[2] == json.getBytes(StandardCharsets.UTF_8).length
+        counts[1] < counts[2] / 4
+
+        where:
+        encoding << [ "gzip", "deflate" ]
+    }
+
+
+    void "test uncompressed responses when compression is disabled"() {
+
+        setup:
+        RestClient restClient = restClient(false)
+
+        when:
+        String response = restClient.getRequest("/rest/api/pcm/gzip/data.json")
+        long[] counts = restClient.getTrafficCounter().drain().get("/rest/api/pcm/gzip/*")
+
+        then:
+        response == json
+        acceptEncodings.last() == "identity"
+        counts[1] == counts[2]
+        restClient.getTrafficCounter().drain().isEmpty()
+    }
+
+
+    void "test response times are kept per endpoint class"() {
+
+        setup:
+        RestClient restClient = restClient(true)
+
+        when:
+        3.times { restClient.getRequest("/rest/api/pcm/latency/data${it}.json") }
+        LatencyHistogram.Snapshot latency = restClient.getTrafficCounter().drainLatency().get("/rest/api/pcm/latency/*")
+
+        then:
+        latency.count == 3
+        latency.max > 0
+        latency.percentile(0.5) <= latency.max
+        restClient.getTrafficCounter().drainLatency().isEmpty()
+    }
+
+}
@@ -0,0 +1,65 @@
+package biz.nellemann.hmci
+
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+class TrafficReplayTest extends Specification {
+
+    @TempDir
+    Path tempDir
+
+    private static final String CONSOLE = "/rest/api/uom/ManagementConsole"
+
+
+    void "test traffic recorded from an HMC is replayed without it"() {
+
+        setup:
+        Path archive = tempDir.resolve("hmc.trace")
+        HmcSimulator simulator = new HmcSimulator(1, 2, 1, 1)
+        simulator.start("127.0.0.1", 0)
+        RestClient recording = new RestClient(String.format("http://127.0.0.1:%d", simulator.getPort()), "user", "password", false)
+        TrafficRecorder recorder = new TrafficRecorder(archive, 60_000L)
+        recording.setTrafficRecorder(recorder)
+        recording.login()
+        String recorded = recording.getRequest(CONSOLE)
+        recording.logoff()
+        recorder.close()
+        simulator.stop()
+
+        when:
+        RestClient replaying = new RestClient("http://127.0.0.1:1", "user", "password", false)
+        replaying.setTrafficReplay(TrafficReplay.load(archive, 0))
+        replaying.login()
+
+        then:
+        replaying.getAuthToken() == "recorded"
+        replaying.getRequest(CONSOLE) == recorded
+        replaying.getRequest(CONSOLE + "?group=None") == recorded
+        replaying.getRequest("/rest/api/uom/ManagedSystem") == null
+    }
+
+
+    void "test an archive cut short is read up to the last complete record"() {
+
+        setup:
+        Path archive = tempDir.resolve("short.trace")
+        TrafficArchive.Writer writer = new TrafficArchive.Writer(archive)
+        writer.append(0, 10, "GET", CONSOLE, 200, "application/xml", "1", "<feed/>".bytes)
+        writer.append(30000, 10, "GET", CONSOLE, 200, "application/xml", "2", "<feed></feed>".bytes)
+        writer.close()
+        byte[] bytes = Files.readAllBytes(archive)
+        Files.write(archive, Arrays.copyOf(bytes, bytes.length - 5))
+
+        when:
+        List<TrafficArchive.Record> records = TrafficArchive.read(archive)
+
+        then:
+        records.size() == 1
+        records.first().etag == "1"
+        new String(records.first().body()) == "<feed/>"
+    }
+
+}